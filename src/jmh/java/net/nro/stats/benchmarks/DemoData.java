@@ -0,0 +1,166 @@
+/**
+ * The BSD License
+ *
+ * Copyright (c) 2010-2016 RIPE NCC
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *   - Redistributions of source code must retain the above copyright notice,
+ *     this list of conditions and the following disclaimer.
+ *   - Redistributions in binary form must reproduce the above copyright notice,
+ *     this list of conditions and the following disclaimer in the documentation
+ *     and/or other materials provided with the distribution.
+ *   - Neither the name of the RIPE NCC nor the names of its contributors may be
+ *     used to endorse or promote products derived from this software without
+ *     specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package net.nro.stats.benchmarks;
+
+import net.nro.stats.components.DateTimeProvider;
+import net.nro.stats.components.PreProcessor;
+import net.nro.stats.components.RecordsMerger;
+import net.nro.stats.components.merger.ASNMerger;
+import net.nro.stats.components.merger.HeaderMerger;
+import net.nro.stats.components.merger.IPv4Merger;
+import net.nro.stats.components.merger.IPv6Merger;
+import net.nro.stats.components.parser.Parser;
+import net.nro.stats.components.resolver.OrderedResolver;
+import net.nro.stats.config.MergeConfig;
+import net.nro.stats.resources.ParsedRIRStats;
+import net.nro.stats.resources.StatsSource;
+import net.nro.stats.resources.URIContent;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Function;
+
+/**
+ * The demo data sets, with the swaps of the application, parsed in the order the service merges them.
+ */
+@State(Scope.Benchmark)
+public class DemoData {
+    static final String IANA = "iana";
+
+    private static final Map<String, String> FILES = new LinkedHashMap<>();
+
+    static {
+        FILES.put("apnic", "demo-data/delegated-apnic-extended-latest.txt");
+        FILES.put("afrinic", "demo-data/delegated-afrinic-extended-latest.txt");
+        FILES.put("lacnic", "demo-data/delegated-lacnic-extended-latest.txt");
+        FILES.put(IANA, "demo-data/delegated-iana-extended.txt");
+        FILES.put(StatsSource.RIRSWAP.getValue(), "src/main/resources/downloaded/erx-xfr.txt");
+    }
+
+    final DateTimeProvider dateTimeProvider = new DateTimeProvider();
+    final Parser parser = new Parser(Charset.forName("US-ASCII"), dateTimeProvider);
+    final OrderedResolver resolver = new OrderedResolver("e-stats,iana,rir-swap".split(","),
+            "ripencc,arin,apnic,afrinic,lacnic,iana".split(","));
+
+    final Map<String, URIContent> contents = new LinkedHashMap<>();
+    final Map<String, ParsedRIRStats> stats = new LinkedHashMap<>();
+
+    @Setup
+    public void setup() throws IOException {
+        Map<String, Path> files = new LinkedHashMap<>();
+        FILES.forEach((dataSetName, file) -> files.put(dataSetName, Paths.get(file)));
+        load(files);
+    }
+
+    /**
+     * Reads and parses the files of the data sets, in the order given.
+     */
+    void load(Map<String, Path> files) throws IOException {
+        for (Map.Entry<String, Path> file : files.entrySet()) {
+            URIContent content = new URIContent(file.getKey(), Files.readAllBytes(file.getValue()));
+            contents.put(file.getKey(), content);
+            stats.put(file.getKey(), parse(file.getKey(), content));
+        }
+    }
+
+    ParsedRIRStats parse(String dataSetName, URIContent content) {
+        if (IANA.equals(dataSetName)) {
+            ParsedRIRStats ianaStats = parser.parseRirStats(StatsSource.IANA_REGISTRY, content);
+            new PreProcessor().processIanaStats(ianaStats);
+            return ianaStats;
+        }
+        if (StatsSource.RIRSWAP.getValue().equals(dataSetName)) {
+            return parser.parseRIRSwaps(StatsSource.RIRSWAP, content);
+        }
+        return parser.parseRirStats(StatsSource.ESTATS, content);
+    }
+
+    List<ParsedRIRStats> stats() {
+        return new ArrayList<>(stats.values());
+    }
+
+    <T> List<T> collect(Function<ParsedRIRStats, List<T>> records) {
+        List<T> result = new ArrayList<>();
+        stats.values().forEach(parsed -> result.addAll(records.apply(parsed)));
+        return result;
+    }
+
+    IPv4Merger iPv4Merger(boolean sharded) {
+        return iPv4Merger(sharded, true);
+    }
+
+    IPv4Merger iPv4Merger(boolean sharded, boolean prioritized) {
+        return new IPv4Merger(resolver, mergeConfig(sharded, prioritized));
+    }
+
+    IPv6Merger iPv6Merger(boolean sharded) {
+        return iPv6Merger(sharded, true);
+    }
+
+    IPv6Merger iPv6Merger(boolean sharded, boolean prioritized) {
+        return new IPv6Merger(resolver, mergeConfig(sharded, prioritized));
+    }
+
+    ASNMerger asnMerger(boolean sweep) {
+        MergeConfig mergeConfig = new MergeConfig();
+        mergeConfig.setSweep(sweep);
+        return new ASNMerger(resolver, mergeConfig);
+    }
+
+    /**
+     * Wires a records merger as the application does, but merging every address family on the calling thread.
+     */
+    RecordsMerger recordsMerger(boolean sharded) {
+        RecordsMerger recordsMerger = new RecordsMerger();
+        ReflectionTestUtils.setField(recordsMerger, "iPv4Merger", iPv4Merger(sharded));
+        ReflectionTestUtils.setField(recordsMerger, "iPv6Merger", iPv6Merger(sharded));
+        ReflectionTestUtils.setField(recordsMerger, "asnMerger", asnMerger(true));
+        ReflectionTestUtils.setField(recordsMerger, "headerMerger", new HeaderMerger());
+        return recordsMerger;
+    }
+
+    private MergeConfig mergeConfig(boolean sharded, boolean prioritized) {
+        MergeConfig mergeConfig = new MergeConfig();
+        mergeConfig.setSharded(sharded);
+        mergeConfig.setPrioritized(prioritized);
+        return mergeConfig;
+    }
+}
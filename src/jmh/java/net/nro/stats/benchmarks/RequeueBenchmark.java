@@ -0,0 +1,117 @@
+/**
+ * The BSD License
+ *
+ * Copyright (c) 2010-2016 RIPE NCC
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *   - Redistributions of source code must retain the above copyright notice,
+ *     this list of conditions and the following disclaimer.
+ *   - Redistributions in binary form must reproduce the above copyright notice,
+ *     this list of conditions and the following disclaimer in the documentation
+ *     and/or other materials provided with the distribution.
+ *   - Neither the name of the RIPE NCC nor the names of its contributors may be
+ *     used to endorse or promote products derived from this software without
+ *     specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package net.nro.stats.benchmarks;
+
+import net.nro.stats.components.merger.IPNode;
+import net.nro.stats.components.merger.IPv4Merger;
+import net.nro.stats.components.merger.IPv6Merger;
+import net.nro.stats.components.parser.IPv4Record;
+import net.nro.stats.components.parser.IPv6Record;
+import net.nro.stats.resources.ParsedRIRStats;
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Merges the generated data sets of every RIR in input order and in priority order, counting how many claims were
+ * taken back from a record to be merged again, which is the churn the priority order saves. JMH reports the requeues
+ * and the merges of the measured iterations of each address family next to its time, so requeues divided by merges
+ * is the churn of one merge.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(value = 1, jvmArgsAppend = "-Xmx8g")
+public class RequeueBenchmark {
+
+    @Param({"false", "true"})
+    public boolean prioritized;
+
+    private IPv4Merger iPv4Merger;
+    private IPv6Merger iPv6Merger;
+
+    private List<IPv4Record> ipv4Records;
+    private List<IPv6Record> ipv6Records;
+
+    @AuxCounters(AuxCounters.Type.EVENTS)
+    @State(Scope.Thread)
+    public static class Ipv4Requeues {
+        public long ipv4Requeues;
+        public long ipv4Merges;
+    }
+
+    @AuxCounters(AuxCounters.Type.EVENTS)
+    @State(Scope.Thread)
+    public static class Ipv6Requeues {
+        public long ipv6Requeues;
+        public long ipv6Merges;
+    }
+
+    @Setup
+    public void setup(GeneratedData generated) {
+        DemoData data = generated.data;
+        iPv4Merger = data.iPv4Merger(false, prioritized);
+        iPv6Merger = data.iPv6Merger(false, prioritized);
+        ipv4Records = data.collect(ParsedRIRStats::getIpv4Records);
+        ipv6Records = data.collect(ParsedRIRStats::getIpv6Records);
+    }
+
+    @Benchmark
+    public IPNode<IPv4Record> ipv4(Ipv4Requeues counters) {
+        long requeues = iPv4Merger.getRequeueCount();
+        IPNode<IPv4Record> tree = iPv4Merger.mergeToTree(ipv4Records);
+        counters.ipv4Requeues += iPv4Merger.getRequeueCount() - requeues;
+        counters.ipv4Merges++;
+        return tree;
+    }
+
+    @Benchmark
+    public IPNode<IPv6Record> ipv6(Ipv6Requeues counters) {
+        long requeues = iPv6Merger.getRequeueCount();
+        IPNode<IPv6Record> tree = iPv6Merger.mergeToTree(ipv6Records);
+        counters.ipv6Requeues += iPv6Merger.getRequeueCount() - requeues;
+        counters.ipv6Merges++;
+        return tree;
+    }
+}
@@ -0,0 +1,114 @@
+/**
+ * The BSD License
+ *
+ * Copyright (c) 2010-2016 RIPE NCC
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *   - Redistributions of source code must retain the above copyright notice,
+ *     this list of conditions and the following disclaimer.
+ *   - Redistributions in binary form must reproduce the above copyright notice,
+ *     this list of conditions and the following disclaimer in the documentation
+ *     and/or other materials provided with the distribution.
+ *   - Neither the name of the RIPE NCC nor the names of its contributors may be
+ *     used to endorse or promote products derived from this software without
+ *     specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package net.nro.stats.benchmarks;
+
+import net.nro.stats.components.StatsWriter;
+import net.nro.stats.config.ExtendedOutputConfig;
+import net.nro.stats.resources.MergedStats;
+import net.nro.stats.resources.ParsedRIRStats;
+import org.apache.commons.io.FileUtils;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Writes the merged demo data sets to a temporary folder, with and without the compressed copy and checksum.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 5)
+@Fork(1)
+public class StatsWriterBenchmark {
+
+    @Param({"false", "true"})
+    public boolean artifacts;
+
+    private Path folder;
+
+    private ExecutorService compressor;
+
+    private StatsWriter writer;
+
+    private ParsedRIRStats nroStats;
+
+    @Setup
+    public void setup(DemoData data) throws IOException {
+        folder = Files.createTempDirectory("nro-stats-benchmark");
+        ExtendedOutputConfig config = new ExtendedOutputConfig();
+        config.setIdentifier("nro");
+        config.setVersion("2.3");
+        config.setFolder(folder.toString());
+        config.setFile("delegated-extended");
+        config.setBackup(false);
+        // every write backs up the previous one, which needs a name of its own
+        config.setBackupFormat("yyyyMMddHHmmssSSS");
+        config.setGzip(artifacts);
+        config.setChecksum(artifacts);
+        compressor = Executors.newSingleThreadExecutor();
+        writer = new StatsWriter(config, Charset.forName("US-ASCII"), compressor);
+
+        MergedStats mergedStats = data.recordsMerger(true).merge(data.stats());
+        nroStats = new ParsedRIRStats(config.getIdentifier());
+        nroStats.addAllAsnRecord(mergedStats.getAsns().getOrderedRecords());
+        nroStats.addAllIPv4Record(mergedStats.getIpv4s().getRecords());
+        nroStats.addAllIPv6Record(mergedStats.getIpv6s().getRecords());
+        nroStats.generateSummaryAndHeader(config, data.dateTimeProvider, mergedStats.getHeaderStartDate());
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        compressor.shutdownNow();
+        FileUtils.deleteDirectory(folder.toFile());
+    }
+
+    @Benchmark
+    public void write() {
+        writer.write(nroStats);
+    }
+}
@@ -0,0 +1,211 @@
+/**
+ * The BSD License
+ *
+ * Copyright (c) 2010-2016 RIPE NCC
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *   - Redistributions of source code must retain the above copyright notice,
+ *     this list of conditions and the following disclaimer.
+ *   - Redistributions in binary form must reproduce the above copyright notice,
+ *     this list of conditions and the following disclaimer in the documentation
+ *     and/or other materials provided with the distribution.
+ *   - Neither the name of the RIPE NCC nor the names of its contributors may be
+ *     used to endorse or promote products derived from this software without
+ *     specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package net.nro.stats.components;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.GZIPOutputStream;
+
+import static java.nio.file.StandardOpenOption.CREATE;
+import static java.nio.file.StandardOpenOption.TRUNCATE_EXISTING;
+import static java.nio.file.StandardOpenOption.WRITE;
+
+/**
+ * Writes the plain output file and, optionally, computes its SHA-256 checksum and compresses a gzip copy of it.
+ * The gzip copy is compressed on the given executor from copies of the written chunks, so compressing overlaps
+ * with encoding and writing the plain file.
+ */
+class ArtifactChannel implements WritableByteChannel {
+
+    private static final int CHUNKS = 4;
+    private static final Chunk END = new Chunk(0);
+
+    private final FileChannel plain;
+    private final MessageDigest digest;
+    private final int chunkSize;
+    private final BlockingQueue<Chunk> free = new ArrayBlockingQueue<>(CHUNKS);
+    private final BlockingQueue<Chunk> full = new ArrayBlockingQueue<>(CHUNKS + 1);
+    private final Future<?> compressed;
+
+    ArtifactChannel(Path plainFile, Path gzipFile, boolean checksum, int chunkSize, Executor compressor) throws IOException {
+        this.plain = FileChannel.open(plainFile, CREATE, TRUNCATE_EXISTING, WRITE);
+        this.digest = checksum ? sha256() : null;
+        this.chunkSize = chunkSize;
+        if (gzipFile != null) {
+            for (int i = 0; i < CHUNKS; i++) {
+                free.add(new Chunk(chunkSize));
+            }
+            FutureTask<Void> task = new FutureTask<>(() -> compress(gzipFile));
+            compressor.execute(task);
+            compressed = task;
+        } else {
+            compressed = null;
+        }
+    }
+
+    @Override
+    public int write(ByteBuffer src) throws IOException {
+        int length = src.remaining();
+        if (compressed != null) {
+            ByteBuffer copy = src.duplicate();
+            while (copy.hasRemaining()) {
+                Chunk chunk = takeFree();
+                chunk.length = Math.min(chunkSize, copy.remaining());
+                copy.get(chunk.bytes, 0, chunk.length);
+                put(chunk);
+            }
+        }
+        if (digest != null) {
+            digest.update(src.duplicate());
+        }
+        while (src.hasRemaining()) {
+            plain.write(src);
+        }
+        return length;
+    }
+
+    /**
+     * @return the hex encoded SHA-256 of everything written, once closed
+     */
+    String getChecksum() {
+        StringBuilder builder = new StringBuilder(64);
+        for (byte b : digest.digest()) {
+            builder.append(Character.forDigit((b >> 4) & 0xf, 16)).append(Character.forDigit(b & 0xf, 16));
+        }
+        return builder.toString();
+    }
+
+    @Override
+    public boolean isOpen() {
+        return plain.isOpen();
+    }
+
+    /**
+     * Closes the plain file and waits for the compressed copy to be complete.
+     */
+    @Override
+    public void close() throws IOException {
+        if (!plain.isOpen()) {
+            return;
+        }
+        try {
+            plain.close();
+            if (compressed != null) {
+                put(END);
+                awaitCompressed();
+            }
+        } finally {
+            if (compressed != null) {
+                // stops the compressor when the plain file failed
+                compressed.cancel(true);
+            }
+        }
+    }
+
+    private Void compress(Path gzipFile) throws IOException, InterruptedException {
+        try (OutputStream outputStream = new GZIPOutputStream(Files.newOutputStream(gzipFile, CREATE, TRUNCATE_EXISTING, WRITE), 1 << 16)) {
+            Chunk chunk;
+            while ((chunk = full.take()) != END) {
+                outputStream.write(chunk.bytes, 0, chunk.length);
+                free.put(chunk);
+            }
+        }
+        return null;
+    }
+
+    private Chunk takeFree() throws IOException {
+        try {
+            Chunk chunk;
+            while ((chunk = free.poll(100, TimeUnit.MILLISECONDS)) == null) {
+                if (compressed.isDone()) {
+                    // the compressor stopped early, report why
+                    awaitCompressed();
+                    throw new IOException("Compressor stopped before the end of the output");
+                }
+            }
+            return chunk;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException();
+        }
+    }
+
+    private void put(Chunk chunk) throws IOException {
+        try {
+            full.put(chunk);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException();
+        }
+    }
+
+    private void awaitCompressed() throws IOException {
+        try {
+            compressed.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException();
+        } catch (ExecutionException e) {
+            throw new IOException("Unable to compress the output", e.getCause());
+        }
+    }
+
+    private static MessageDigest sha256() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new RuntimeException("Missing support for SHA-256.");
+        }
+    }
+
+    private static class Chunk {
+        private final byte[] bytes;
+        private int length;
+
+        Chunk(int size) {
+            this.bytes = new byte[size];
+        }
+    }
+}
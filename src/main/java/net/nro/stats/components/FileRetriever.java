@@ -35,9 +35,13 @@ import org.slf4j.LoggerFactory;
 import org.springframework.core.io.ClassPathResource;
 import org.springframework.stereotype.Component;
 
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
 
 @Component
 public class FileRetriever implements URIBytesRetriever {
@@ -65,4 +69,28 @@ public class FileRetriever implements URIBytesRetriever {
         }
         return output;
     }
+
+    @Override
+    public ByteBuffer retrieveBuffer(String uri) {
+        Path path = Paths.get(uri);
+        if (!Files.isReadable(path)) {
+            return ByteBuffer.wrap(retrieveBytes(uri));
+        }
+        logger.info("Mapping file: {}", uri);
+        try {
+            return map(path);
+        } catch (IOException e) {
+            logger.error("Unable to map the specified file", e);
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * Maps a file read-only, the mapping stays valid after the channel is closed.
+     */
+    public static ByteBuffer map(Path path) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            return channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }
+    }
 }
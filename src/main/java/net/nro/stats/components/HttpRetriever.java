@@ -29,10 +29,14 @@
  */
 package net.nro.stats.components;
 
+import net.nro.stats.components.merger.cache.CachedFileEntity;
 import net.nro.stats.components.merger.cache.FallBackCachingHttpClient;
+import net.nro.stats.resources.URIContent;
 import org.apache.commons.io.IOUtils;
+import org.apache.http.HttpEntity;
 import org.apache.http.client.methods.CloseableHttpResponse;
 import org.apache.http.client.methods.HttpGet;
+import org.apache.http.client.protocol.HttpClientContext;
 import org.apache.http.impl.client.CloseableHttpClient;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -41,6 +45,7 @@ import org.springframework.stereotype.Component;
 
 import java.io.IOException;
 import java.io.InputStream;
+import java.nio.ByteBuffer;
 
 @Component
 public class HttpRetriever implements URIBytesRetriever {
@@ -51,14 +56,25 @@ public class HttpRetriever implements URIBytesRetriever {
 
     @Override
     public byte[] retrieveBytes(String uri) {
+        return retrieve(uri, uri).getContent();
+    }
+
+    @Override
+    public ByteBuffer retrieveBuffer(String uri) {
+        return retrieve(uri, uri).getBuffer();
+    }
+
+    public URIContent retrieve(String identifier, String uri) {
         logger.info("Retrieving URI: {}", uri);
 
+        HttpClientContext context = HttpClientContext.create();
         try (CloseableHttpClient httpClient = httpClientBuilder.build();
-             CloseableHttpResponse response = httpClient.execute(new HttpGet(uri))) {
+             CloseableHttpResponse response = httpClient.execute(new HttpGet(uri), context)) {
 
             if (response.getStatusLine().getStatusCode() == 200) {
-                try (InputStream inputStream = response.getEntity().getContent()) {
-                    return IOUtils.toByteArray(inputStream);
+                boolean notModified = Boolean.TRUE.equals(context.getAttribute(FallBackCachingHttpClient.NOT_MODIFIED));
+                try {
+                    return new URIContent(identifier, readContent(response.getEntity()), !notModified);
                 } catch (Exception e) {
                     logger.error("Failed to get the content of the file: " + e);
                     throw new RuntimeException("Failed to get the content of the file.");
@@ -71,4 +87,17 @@ public class HttpRetriever implements URIBytesRetriever {
             throw new RuntimeException("Unable to fetch rir resource", io);
         }
     }
+
+    /**
+     * The caching client has already written the body to disk, so the cached file is mapped instead of being
+     * copied to the heap.
+     */
+    private ByteBuffer readContent(HttpEntity entity) throws IOException {
+        if (entity instanceof CachedFileEntity) {
+            return FileRetriever.map(((CachedFileEntity) entity).getFile().toPath());
+        }
+        try (InputStream inputStream = entity.getContent()) {
+            return ByteBuffer.wrap(IOUtils.toByteArray(inputStream));
+        }
+    }
 }
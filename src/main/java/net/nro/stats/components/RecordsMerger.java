@@ -29,19 +29,34 @@
  */
 package net.nro.stats.components;
 
+import com.google.common.base.Throwables;
+import com.google.common.collect.Iterators;
+import com.google.common.util.concurrent.MoreExecutors;
 import net.nro.stats.components.merger.*;
-import net.nro.stats.config.ExtendedOutputConfig;
+import net.nro.stats.components.parser.ASNRecord;
+import net.nro.stats.components.parser.IPv4Record;
+import net.nro.stats.components.parser.IPv6Record;
 import net.nro.stats.resources.MergedStats;
 import net.nro.stats.resources.ParsedRIRStats;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
 import org.springframework.stereotype.Component;
 
-import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Iterator;
 import java.util.List;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.function.Function;
+import java.util.function.Supplier;
 import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
 
 @Component
 public class RecordsMerger {
@@ -60,45 +75,106 @@ public class RecordsMerger {
     private HeaderMerger headerMerger;
 
 
+    @Autowired
+    @Qualifier("mergeExecutor")
+    private Executor mergeExecutor;
+
+    /**
+     * Merges every address family, and the header start date, as a separate task on the merge executor. The
+     * families share nothing but the resolver, so they can run side by side.
+     */
     public MergedStats merge(List<ParsedRIRStats> parsedRIRStats) {
+        return merge(parsedRIRStats, null);
+    }
+
+    /**
+     * Merges like {@link #merge(List)}, reusing the parts of the previous merge in the history whose records did not
+     * change, and keeping this merge in the history. The result is the same as that of a full merge.
+     */
+    public MergedStats merge(List<ParsedRIRStats> parsedRIRStats, MergeHistory history) {
         logger.debug("Starting with the merger of RIR stats");
 
+        CompletableFuture<ASNIntervalTree> asns = supply(() -> mergeAsns(
+                collect(parsedRIRStats, ParsedRIRStats::getAsnRecords), history));
+        CompletableFuture<IPNode<IPv4Record>> ipv4s = supply(() -> iPv4Merger.mergeToTree(
+                collect(parsedRIRStats, ParsedRIRStats::getIpv4Records), history != null ? history.getIpv4Runs() : null));
+        CompletableFuture<IPNode<IPv6Record>> ipv6s = supply(() -> iPv6Merger.mergeToTree(
+                collect(parsedRIRStats, ParsedRIRStats::getIpv6Records), history != null ? history.getIpv6Runs() : null));
+        CompletableFuture<String> headerStartDate = supply(() -> headerMerger.getStartDate(
+                collect(parsedRIRStats, ParsedRIRStats::getHeaders)));
+
         MergedStats stats = new MergedStats();
-        stats.setAsns(asnMerger.mergeToTree(
-                parsedRIRStats.stream()
-                        .map(ParsedRIRStats::getAsnRecords)
-                        .flatMap(Collection::stream)
-                        .collect(Collectors.toList())
-        ));
-        stats.setIpv4s(iPv4Merger.mergeToTree(
-                parsedRIRStats.stream()
-                        .map(ParsedRIRStats::getIpv4Records)
-                        .flatMap(Collection::stream)
-                        .collect(Collectors.toList())
-        ));
-        stats.setIpv6s(iPv6Merger.mergeToTree(
-                parsedRIRStats.stream()
-                        .map(ParsedRIRStats::getIpv6Records)
-                        .flatMap(Collection::stream)
-                        .collect(Collectors.toList())
-        ));
-
-        stats.setHeaderStartDate(headerMerger.getStartDate(
-                parsedRIRStats.stream()
-                        .map(ParsedRIRStats::getHeaders)
-                        .flatMap(Collection::stream)
-                        .collect(Collectors.toList())
-        ));
+        stats.setAsns(join(asns));
+        stats.setIpv4s(join(ipv4s));
+        stats.setIpv6s(join(ipv6s));
+        stats.setHeaderStartDate(join(headerStartDate));
 
         return stats;
     }
 
+    /**
+     * Rebuilds the merged stats from records that were merged before, such as those of a generated file, without
+     * merging them again.
+     */
+    public MergedStats restore(ParsedRIRStats mergedRecords, String headerStartDate) {
+        CompletableFuture<ASNIntervalTree> asns = supply(() -> asnMerger.treeOf(mergedRecords.getAsnRecords()));
+        CompletableFuture<IPNode<IPv4Record>> ipv4s = supply(() -> iPv4Merger.treeOf(mergedRecords.getIpv4Records()));
+        CompletableFuture<IPNode<IPv6Record>> ipv6s = supply(() -> iPv6Merger.treeOf(mergedRecords.getIpv6Records()));
+
+        MergedStats stats = new MergedStats();
+        stats.setAsns(join(asns));
+        stats.setIpv4s(join(ipv4s));
+        stats.setIpv6s(join(ipv6s));
+        stats.setHeaderStartDate(headerStartDate);
+        return stats;
+    }
+
     public List<Delta<?>> findDifferences(MergedStats current ,MergedStats previous) {
-        List<Delta<?>> diff = new ArrayList<>();
-        diff.addAll(asnMerger.treeDiff(current.getAsns(), previous.getAsns()));
-        diff.addAll(iPv4Merger.treeDiff(current.getIpv4s(), previous.getIpv4s()));
-        diff.addAll(iPv6Merger.treeDiff(current.getIpv6s(), previous.getIpv6s()));
+        return differences(current, previous).collect(Collectors.toList());
+    }
+
+    /**
+     * The differences of the ASNs, IPv4 and IPv6 in turn, each in range order, created as the stream is consumed.
+     */
+    public Stream<Delta<?>> differences(MergedStats current, MergedStats previous) {
+        Iterator<Delta<?>> deltas = Iterators.<Delta<?>>concat(
+                asnMerger.diff(current.getAsns(), previous.getAsns()),
+                iPv4Merger.diff(current.getIpv4s(), previous.getIpv4s()),
+                iPv6Merger.diff(current.getIpv6s(), previous.getIpv6s()));
+        return StreamSupport.stream(Spliterators.spliteratorUnknownSize(deltas, Spliterator.ORDERED | Spliterator.NONNULL), false);
+    }
+
+    private ASNIntervalTree mergeAsns(List<ASNRecord> records, MergeHistory history) {
+        if (history == null) {
+            return asnMerger.mergeToTree(records);
+        }
+        ASNIntervalTree tree = history.findAsns(records);
+        if (tree == null) {
+            tree = asnMerger.mergeToTree(records);
+            history.setAsns(records, tree);
+        } else {
+            logger.debug("Reused the merged ASN tree");
+        }
+        return tree;
+    }
+
+    private <T> CompletableFuture<T> supply(Supplier<T> task) {
+        return CompletableFuture.supplyAsync(task, mergeExecutor != null ? mergeExecutor : MoreExecutors.directExecutor());
+    }
+
+    private <T> T join(CompletableFuture<T> future) {
+        try {
+            return future.join();
+        } catch (CompletionException e) {
+            Throwables.propagateIfPossible(e.getCause());
+            throw e;
+        }
+    }
 
-        return diff;
+    private <T> List<T> collect(List<ParsedRIRStats> parsedRIRStats, Function<ParsedRIRStats, List<T>> records) {
+        return parsedRIRStats.stream()
+                .map(records)
+                .flatMap(Collection::stream)
+                .collect(Collectors.toList());
     }
 }
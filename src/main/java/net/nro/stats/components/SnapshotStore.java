@@ -0,0 +1,296 @@
+/**
+ * The BSD License
+ *
+ * Copyright (c) 2010-2016 RIPE NCC
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *   - Redistributions of source code must retain the above copyright notice,
+ *     this list of conditions and the following disclaimer.
+ *   - Redistributions in binary form must reproduce the above copyright notice,
+ *     this list of conditions and the following disclaimer in the documentation
+ *     and/or other materials provided with the distribution.
+ *   - Neither the name of the RIPE NCC nor the names of its contributors may be
+ *     used to endorse or promote products derived from this software without
+ *     specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package net.nro.stats.components;
+
+import net.nro.stats.components.parser.ASNRecord;
+import net.nro.stats.components.parser.IPv4Record;
+import net.nro.stats.components.parser.IPv6Record;
+import net.nro.stats.components.parser.Record;
+import net.nro.stats.config.ExtendedOutputConfig;
+import net.nro.stats.resources.MergedStats;
+import net.nro.stats.resources.ParsedRIRStats;
+import net.nro.stats.resources.StatsSource;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static java.nio.file.StandardCopyOption.ATOMIC_MOVE;
+import static java.nio.file.StandardCopyOption.REPLACE_EXISTING;
+
+/**
+ * Keeps the merged records of a stats file in a compact binary form next to the output, so the file does not have
+ * to be parsed and merged again to compare it. A snapshot holds the fingerprint of the file it was made from and is
+ * only used for that file.
+ *
+ * The snapshot starts with a table of all distinct text fields, followed by the ASN, IPv4 and IPv6 records, each
+ * section prefixed by its record count. A record refers to its text fields by their index in the table, and keeps its
+ * range as numbers. The records are those of the stats file: their source is {@link StatsSource#NRO}, and their
+ * original source, if any, is their last extension.
+ */
+@Component
+public class SnapshotStore {
+
+    private static final int MAGIC = 0x4e524f53;
+    private static final int VERSION = 1;
+    private static final int NONE = -1;
+
+    private Logger logger = LoggerFactory.getLogger(this.getClass());
+
+    private ExtendedOutputConfig out;
+
+    private RecordsMerger recordsMerger;
+
+    @Autowired
+    public SnapshotStore(ExtendedOutputConfig extendedOutputConfig, RecordsMerger recordsMerger) {
+        this.out = extendedOutputConfig;
+        this.recordsMerger = recordsMerger;
+    }
+
+    /**
+     * Replaces the snapshot of the given identifier.
+     */
+    public void write(String identifier, String fingerprint, MergedStats stats) {
+        Path snapshotFile = Paths.get(out.getFolder(), out.getSnapshotFile(identifier));
+        Path snapshotFileTmp = Paths.get(out.getFolder(), out.getSnapshotFile(identifier) + ".tmp");
+        List<ASNRecord> asns = stats.getAsns().getOrderedRecords();
+        List<IPv4Record> ipv4s = stats.getIpv4s().getRecords();
+        List<IPv6Record> ipv6s = stats.getIpv6s().getRecords();
+
+        Map<String, Integer> strings = new HashMap<>();
+        List<String> table = new ArrayList<>();
+        index(fingerprint, strings, table);
+        index(stats.getHeaderStartDate(), strings, table);
+        for (List<? extends Record> records : Arrays.<List<? extends Record>>asList(asns, ipv4s, ipv6s)) {
+            for (Record<?> record : records) {
+                for (String field : fields(record)) {
+                    index(field, strings, table);
+                }
+                for (String extension : extensions(record)) {
+                    index(extension, strings, table);
+                }
+            }
+        }
+
+        try (DataOutputStream output = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(snapshotFileTmp), 1 << 16))) {
+            output.writeInt(MAGIC);
+            output.writeInt(VERSION);
+            output.writeInt(table.size());
+            for (String value : table) {
+                byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+                output.writeInt(bytes.length);
+                output.write(bytes);
+            }
+            output.writeInt(strings.get(fingerprint));
+            writeIndex(output, stats.getHeaderStartDate(), strings);
+
+            output.writeInt(asns.size());
+            for (ASNRecord record : asns) {
+                writeFields(output, record, strings);
+                output.writeLong(record.getStartAsn());
+                output.writeLong(record.getAsnCount());
+            }
+            output.writeInt(ipv4s.size());
+            for (IPv4Record record : ipv4s) {
+                writeFields(output, record, strings);
+                output.writeLong(record.getStartAddress());
+                output.writeLong(record.getAddressCount());
+            }
+            output.writeInt(ipv6s.size());
+            for (IPv6Record record : ipv6s) {
+                writeFields(output, record, strings);
+                output.writeLong(record.getStartHigh());
+                output.writeLong(record.getStartLow());
+                output.writeInt(record.getPrefixLength());
+            }
+        } catch (IOException e) {
+            logger.error("Unable to write the {} snapshot", identifier);
+            throw new RuntimeException(e);
+        }
+        try {
+            Files.move(snapshotFileTmp, snapshotFile, ATOMIC_MOVE, REPLACE_EXISTING);
+        } catch (IOException e) {
+            logger.error("Unable to move the {} snapshot in place", identifier);
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * @return the merged stats of the snapshot of the given identifier, or null when there is none for a file with
+     * the given fingerprint
+     */
+    public MergedStats read(String identifier, String fingerprint) {
+        Path snapshotFile = Paths.get(out.getFolder(), out.getSnapshotFile(identifier));
+        if (Files.notExists(snapshotFile)) {
+            return null;
+        }
+        try {
+            ByteBuffer buffer = FileRetriever.map(snapshotFile);
+            if (buffer.getInt() != MAGIC || buffer.getInt() != VERSION) {
+                logger.info("Ignoring the {} snapshot of an unknown format", identifier);
+                return null;
+            }
+            String[] table = new String[buffer.getInt()];
+            for (int i = 0; i < table.length; i++) {
+                byte[] bytes = new byte[buffer.getInt()];
+                buffer.get(bytes);
+                table[i] = new String(bytes, StandardCharsets.UTF_8);
+            }
+            if (!table[buffer.getInt()].equals(fingerprint)) {
+                logger.info("The {} snapshot is for another file", identifier);
+                return null;
+            }
+            String headerStartDate = readIndex(buffer, table);
+
+            ParsedRIRStats records = new ParsedRIRStats(identifier);
+            for (int i = buffer.getInt(); i > 0; i--) {
+                String[] fields = readFields(buffer, table);
+                String[] extensions = readExtensions(buffer, table);
+                records.addAsnRecord(new ASNRecord(StatsSource.NRO, fields[0], fields[1], buffer.getLong(), buffer.getLong(),
+                        fields[2], fields[3], fields[4], extensions));
+            }
+            for (int i = buffer.getInt(); i > 0; i--) {
+                String[] fields = readFields(buffer, table);
+                String[] extensions = readExtensions(buffer, table);
+                records.addIPv4Record(new IPv4Record(StatsSource.NRO, fields[0], fields[1], buffer.getLong(), buffer.getLong(),
+                        fields[2], fields[3], fields[4], extensions));
+            }
+            for (int i = buffer.getInt(); i > 0; i--) {
+                String[] fields = readFields(buffer, table);
+                String[] extensions = readExtensions(buffer, table);
+                records.addIPv6Record(new IPv6Record(StatsSource.NRO, fields[0], fields[1], buffer.getLong(), buffer.getLong(),
+                        buffer.getInt(), fields[2], fields[3], fields[4], extensions));
+            }
+            return recordsMerger.restore(records, headerStartDate);
+        } catch (IOException | BufferUnderflowException | IndexOutOfBoundsException e) {
+            logger.warn("Unable to read the {} snapshot", identifier, e);
+            return null;
+        }
+    }
+
+    /**
+     * Renames the snapshot of one identifier to another, replacing any snapshot of the latter.
+     */
+    public void rename(String identifier, String newIdentifier) {
+        Path snapshotFile = Paths.get(out.getFolder(), out.getSnapshotFile(identifier));
+        if (Files.exists(snapshotFile)) {
+            try {
+                Files.move(snapshotFile, Paths.get(out.getFolder(), out.getSnapshotFile(newIdentifier)), ATOMIC_MOVE, REPLACE_EXISTING);
+            } catch (IOException e) {
+                logger.warn("Unable to rename the {} snapshot", identifier, e);
+            }
+        }
+    }
+
+    /**
+     * Registry, country code, date, status and reg-id of the record as they are written to the stats file.
+     */
+    private String[] fields(Record<?> record) {
+        return new String[]{String.valueOf(record.getRegistry()), String.valueOf(record.getCountryCode()),
+                String.valueOf(record.getDate()), String.valueOf(record.getStatus()), String.valueOf(record.getRegId())};
+    }
+
+    /**
+     * The extensions of the record as they are written to the stats file, ending with the source of the record.
+     */
+    private String[] extensions(Record<?> record) {
+        String[] extensions = record.getExtensions();
+        int length = record.getSource() == StatsSource.NRO ? extensions.length : extensions.length + 1;
+        String[] result = new String[length];
+        for (int i = 0; i < extensions.length; i++) {
+            result[i] = String.valueOf(extensions[i]);
+        }
+        if (length > extensions.length) {
+            result[extensions.length] = record.getSource().getValue();
+        }
+        return result;
+    }
+
+    private void index(String value, Map<String, Integer> strings, List<String> table) {
+        if (value != null && !strings.containsKey(value)) {
+            strings.put(value, table.size());
+            table.add(value);
+        }
+    }
+
+    private void writeFields(DataOutputStream output, Record<?> record, Map<String, Integer> strings) throws IOException {
+        for (String field : fields(record)) {
+            writeIndex(output, field, strings);
+        }
+        String[] extensions = extensions(record);
+        output.writeShort(extensions.length);
+        for (String extension : extensions) {
+            writeIndex(output, extension, strings);
+        }
+    }
+
+    private void writeIndex(DataOutputStream output, String value, Map<String, Integer> strings) throws IOException {
+        output.writeInt(value != null ? strings.get(value) : NONE);
+    }
+
+    /**
+     * Reads registry, country code, date, status and reg-id.
+     */
+    private String[] readFields(ByteBuffer buffer, String[] table) {
+        String[] fields = new String[5];
+        for (int i = 0; i < fields.length; i++) {
+            fields[i] = readIndex(buffer, table);
+        }
+        return fields;
+    }
+
+    private String[] readExtensions(ByteBuffer buffer, String[] table) {
+        String[] extensions = new String[buffer.getShort()];
+        for (int i = 0; i < extensions.length; i++) {
+            extensions[i] = readIndex(buffer, table);
+        }
+        return extensions;
+    }
+
+    private String readIndex(ByteBuffer buffer, String[] table) {
+        int index = buffer.getInt();
+        return index == NONE ? null : table[index];
+    }
+}
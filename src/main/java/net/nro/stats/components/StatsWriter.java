@@ -30,20 +30,29 @@
 package net.nro.stats.components;
 
 import net.nro.stats.components.parser.Line;
+import net.nro.stats.components.parser.LineEncoder;
 import net.nro.stats.config.ExtendedOutputConfig;
 import net.nro.stats.resources.ParsedRIRStats;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
 import org.springframework.stereotype.Component;
 
-import java.io.BufferedWriter;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
 import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.text.SimpleDateFormat;
+import java.util.Map;
+import java.util.Properties;
+import java.util.TreeMap;
+import java.util.concurrent.Executor;
 import java.util.stream.Stream;
 
 import static java.nio.file.StandardCopyOption.ATOMIC_MOVE;
@@ -54,26 +63,41 @@ import static net.nro.stats.config.JavaExtensions.rethrowConsumer;
 @Component
 public class StatsWriter {
 
+    private static final int BUFFER_SIZE = 1 << 20;
+
     private Logger logger = LoggerFactory.getLogger(this.getClass());
 
     private ExtendedOutputConfig out;
 
     private Charset charset;
 
+    private Executor compressor;
+
+    // reused by every write, which only happen one at a time
+    private final ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+
     @Autowired
     public StatsWriter(
             ExtendedOutputConfig extendedOutputConfig,
-            Charset charset) {
+            Charset charset,
+            @Qualifier("compressExecutor") Executor compressor) {
         this.out = extendedOutputConfig;
         this.charset = charset;
+        this.compressor = compressor;
     }
 
-    public void write(ParsedRIRStats nroStats) {
+    public synchronized void write(ParsedRIRStats nroStats) {
         validateOutFolder();
 
         Path outFile = Paths.get(out.getFolder(), out.getFile());
         Path outFilePrevious = Paths.get(out.getFolder(), out.getPreviousFileLink());
         Path outFileTmp = Paths.get(out.getFolder(), out.getTmpFile());
+        Path gzipFile = Paths.get(out.getFolder(), out.getGzipFile());
+        Path gzipFileTmp = Paths.get(out.getFolder(), out.getGzipFile() + ".tmp");
+        Path checksumFile = Paths.get(out.getFolder(), out.getChecksumFile());
+        Path checksumFileTmp = Paths.get(out.getFolder(), out.getChecksumFile() + ".tmp");
+        boolean gzip = Boolean.TRUE.equals(out.getGzip());
+        boolean checksum = Boolean.TRUE.equals(out.getChecksum());
 
         if (Files.exists(outFile)) {
             backupCurrentFile(outFile, outFilePrevious);
@@ -83,10 +107,82 @@ public class StatsWriter {
             cleanup(outFileTmp);
         }
 
-        write(nroStats.getLines(), outFileTmp);
+        if (Files.exists(gzipFileTmp)) {
+            cleanup(gzipFileTmp);
+        }
 
+        String digest = write(nroStats.getLines(), outFileTmp, gzip ? gzipFileTmp : null, checksum);
+        if (checksum) {
+            writeChecksum(digest, checksumFileTmp);
+        }
+
+        // the files cannot be replaced in one step: the old compressed copy and checksum are removed first, so while
+        // the new ones are moved in place they can be missing for a moment, but never describe another file
+        deleteStale(gzipFile);
+        deleteStale(checksumFile);
         moveFile(outFileTmp, outFile);
+        if (gzip) {
+            moveFile(gzipFileTmp, gzipFile);
+        }
+        if (checksum) {
+            moveFile(checksumFileTmp, checksumFile);
+        }
+
+    }
 
+    /**
+     * Stores what the current output was generated from next to it. Written after the output, so the two only
+     * disagree when the output is newer, which merely causes one more generation.
+     */
+    public void writeInputs(Map<String, String> inputs) {
+        Properties properties = new Properties();
+        properties.putAll(inputs);
+        Path inputsFile = Paths.get(out.getFolder(), out.getInputsFile());
+        Path inputsFileTmp = Paths.get(out.getFolder(), out.getInputsFile() + ".tmp");
+        try (OutputStream outputStream = Files.newOutputStream(inputsFileTmp)) {
+            properties.store(outputStream, null);
+        } catch (IOException e) {
+            logger.error("Unable to write the inputs file");
+            throw new RuntimeException(e);
+        }
+        moveFile(inputsFileTmp, inputsFile);
+    }
+
+    /**
+     * Stores the measurements of the run that generated the output next to it, one {@code name=value} line each.
+     */
+    public void writeReport(Map<String, Long> metrics) {
+        StringBuilder report = new StringBuilder();
+        new TreeMap<>(metrics).forEach((name, value) -> report.append(name).append('=').append(value).append('\n'));
+        Path reportFile = Paths.get(out.getFolder(), out.getReportFile());
+        Path reportFileTmp = Paths.get(out.getFolder(), out.getReportFile() + ".tmp");
+        try {
+            Files.write(reportFileTmp, report.toString().getBytes(StandardCharsets.US_ASCII));
+        } catch (IOException e) {
+            logger.error("Unable to write the report file");
+            throw new RuntimeException(e);
+        }
+        moveFile(reportFileTmp, reportFile);
+    }
+
+    /**
+     * @return what the current output was generated from, empty when there is no output
+     */
+    public Map<String, String> readInputs() {
+        Path outFile = Paths.get(out.getFolder(), out.getFile());
+        Path inputsFile = Paths.get(out.getFolder(), out.getInputsFile());
+        Map<String, String> inputs = new TreeMap<>();
+        if (Files.exists(outFile) && Files.exists(inputsFile)) {
+            Properties properties = new Properties();
+            try (InputStream inputStream = Files.newInputStream(inputsFile)) {
+                properties.load(inputStream);
+            } catch (IOException e) {
+                logger.warn("Unable to read the inputs file", e);
+                return inputs;
+            }
+            properties.stringPropertyNames().forEach(name -> inputs.put(name, properties.getProperty(name)));
+        }
+        return inputs;
     }
 
     private void moveFile(Path outFileTmp, Path outFile) {
@@ -98,22 +194,45 @@ public class StatsWriter {
         }
     }
 
-    private void write(Stream<Line> targetLines, Path outFileTmp) {
-        try (BufferedWriter writer = Files.newBufferedWriter(outFileTmp, charset)) {
+    private String write(Stream<Line> targetLines, Path outFileTmp, Path gzipFileTmp, boolean checksum) {
+        try (ArtifactChannel channel = new ArtifactChannel(outFileTmp, gzipFileTmp, checksum, BUFFER_SIZE, compressor)) {
+            LineEncoder encoder = new LineEncoder(channel, buffer, charset);
             targetLines.forEachOrdered(
                     rethrowConsumer(line ->
                     {
-                        writer.write(line.toString());
-                        writer.newLine();
+                        line.encode(encoder);
+                        encoder.newLine();
                     }
                 )
             );
+            encoder.flush();
+            channel.close();
+            return checksum ? channel.getChecksum() : null;
         } catch (IOException e) {
             logger.error("Unable to write the output file");
             throw new RuntimeException(e);
         }
     }
 
+    private void writeChecksum(String digest, Path checksumFileTmp) {
+        // same layout as sha256sum, so the published file can be checked with sha256sum -c
+        String line = digest + "  " + out.getFile() + "\n";
+        try {
+            Files.write(checksumFileTmp, line.getBytes(StandardCharsets.US_ASCII));
+        } catch (IOException e) {
+            logger.error("Unable to write the checksum file");
+            throw new RuntimeException(e);
+        }
+    }
+
+    private void deleteStale(Path file) {
+        try {
+            Files.deleteIfExists(file);
+        } catch (IOException e) {
+            logger.warn("Unable to delete stale {}", file, e);
+        }
+    }
+
     private void cleanup(Path outFileTmp) {
         logger.warn("Last attempt to generate file failed. Cleaning up.");
         try {
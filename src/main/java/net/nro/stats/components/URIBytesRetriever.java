@@ -29,6 +29,13 @@
  */
 package net.nro.stats.components;
 
+import java.nio.ByteBuffer;
+
 public interface URIBytesRetriever {
     byte[] retrieveBytes(String uri);
+
+    /**
+     * Retrieves the content without copying it to the heap where possible.
+     */
+    ByteBuffer retrieveBuffer(String uri);
 }
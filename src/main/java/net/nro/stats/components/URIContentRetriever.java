@@ -63,11 +63,10 @@ public class URIContentRetriever {
     public URIContent fetch(String rir, String url) {
         logger.debug("fetching {} for {}", url, rir);
 
-        URIBytesRetriever retriever = fileRetriever;
         if (isExternal(url)) {
-            retriever = httpRetriever;
+            return httpRetriever.retrieve(rir, url);
         }
-        return new URIContent(rir, retriever.retrieveBytes(url));
+        return new URIContent(rir, fileRetriever.retrieveBuffer(url), true);
     }
 
     public boolean isExternal(String url) {
@@ -35,7 +35,9 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.util.ArrayList;
+import java.util.Iterator;
 import java.util.List;
+import java.util.NoSuchElementException;
 import java.util.stream.Collectors;
 
 public class ASNIntervalTree {
@@ -202,7 +204,9 @@ public class ASNIntervalTree {
             list.add(node);
         if (node.getLeft() != null && node.getLeft().getMax().compareTo(range.start()) >= 0 )
             collectAllOverlaps(node.getLeft(), range, list);
-        collectAllOverlaps(node.getRight(), range, list);
+        // everything on the right starts after this node, so past the end of the range nothing overlaps
+        if (node.getRange().start().compareTo(range.end()) <= 0)
+            collectAllOverlaps(node.getRight(), range, list);
     }
 
     public List<ASNRecord> getOrderedRecords() {
@@ -458,6 +462,39 @@ public class ASNIntervalTree {
         else return node;
     }
 
+    /**
+     * Iterates over the nodes in range order, following the parent links instead of collecting the nodes first.
+     */
+    Iterator<ASNNode> nodes() {
+        return new Iterator<ASNNode>() {
+            private ASNNode next = root == null ? null : getMinimumNode(root);
+
+            @Override
+            public boolean hasNext() {
+                return next != null;
+            }
+
+            @Override
+            public ASNNode next() {
+                if (next == null) {
+                    throw new NoSuchElementException();
+                }
+                ASNNode node = next;
+                if (node.getRight() != null) {
+                    next = getMinimumNode(node.getRight());
+                } else {
+                    ASNNode child = node;
+                    next = node.getParent();
+                    while (next != null && child == next.getRight()) {
+                        child = next;
+                        next = next.getParent();
+                    }
+                }
+                return node;
+            }
+        };
+    }
+
     public ASNNode getRoot() {
         return root;
     }
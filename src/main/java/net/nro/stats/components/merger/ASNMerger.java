@@ -31,7 +31,10 @@ package net.nro.stats.components.merger;
 
 import com.google.common.collect.Lists;
 import net.nro.stats.components.parser.ASNRecord;
+import net.nro.stats.components.parser.Record;
 import net.nro.stats.components.resolver.Resolver;
+import net.nro.stats.config.MergeConfig;
+import net.ripe.commons.ip.Asn;
 import net.ripe.commons.ip.AsnRange;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -40,8 +43,13 @@ import org.springframework.stereotype.Component;
 
 import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
 import java.util.Deque;
+import java.util.Iterator;
 import java.util.List;
+import java.util.PriorityQueue;
 
 @Component
 public class ASNMerger {
@@ -49,13 +57,26 @@ public class ASNMerger {
 
     private Resolver resolver;
 
-    @Autowired
+    private final MergeConfig mergeConfig;
+
     public ASNMerger(Resolver resolver) {
+        this(resolver, null);
+    }
+
+    /**
+     * @param mergeConfig how to merge, or null to resolve one overlap at a time
+     */
+    @Autowired
+    public ASNMerger(Resolver resolver, MergeConfig mergeConfig) {
         this.resolver = resolver;
+        this.mergeConfig = mergeConfig;
     }
 
     public ASNIntervalTree mergeToTree(List<ASNRecord> recordList) {
         logger.debug("Starting merging of ASN Records");
+        if (mergeConfig != null && mergeConfig.getSweep()) {
+            return mergeInSweep(recordList);
+        }
 
         ASNIntervalTree resolvedRecords = new ASNIntervalTree();
         Deque<ASNRecord> stack = new ArrayDeque<>();
@@ -69,29 +90,138 @@ public class ASNMerger {
         return resolvedRecords;
     }
 
-    public List<Delta<AsnRange>> treeDiff(ASNIntervalTree current, ASNIntervalTree previous) {
-        List<Delta<AsnRange>> differences = new ArrayList<>();
-        for (ASNRecord record : current.getOrderedRecords()) {
-            ASNNode previousNode = previous.get(record.getRange());
-            if (previousNode != null) {
-                if (!previousNode.getRecord().toString().equals(record.toString())) {
-                    differences.add(new Delta<>(record, previousNode.getRecord()));
+    /**
+     * Sweeps over the records in the order of their first ASN, keeping the records covering the current ASN in a heap
+     * by priority, so every stretch of ASNs goes to its owner in one pass. The owner is the record the merge in input
+     * order leaves the ASN with: the one of highest priority, the last one in the input among equals. IETF reserved
+     * records only win against other sources, so while one of them covers the ASN the covering records are resolved
+     * in input order instead.
+     */
+    private ASNIntervalTree mergeInSweep(List<ASNRecord> recordList) {
+        int size = recordList.size();
+        long[] ends = new long[size];
+        // ASNs take 32 bits, so the first ASN and the index share a long that sorts by start, then by input order
+        long[] order = new long[size];
+        for (int i = 0; i < size; i++) {
+            ASNRecord record = recordList.get(i);
+            ends[i] = record.getStartAsn() + record.getAsnCount() - 1;
+            order[i] = record.getStartAsn() << 31 | i;
+        }
+        Arrays.sort(order);
+
+        Comparator<Record> priorityOrder = resolver.priorityOrder();
+        PriorityQueue<Integer> covering = new PriorityQueue<>((i, j) -> {
+            int result = priorityOrder.compare(recordList.get(i), recordList.get(j));
+            return result != 0 ? result : Integer.compare(j, i);
+        });
+        // the IETF reserved records in the heap, including the ones that have ended and are not taken out yet
+        int ietf = 0;
+
+        ASNIntervalTree tree = new ASNIntervalTree();
+        int owner = -1;
+        long ownedFrom = 0, ownedTo = 0;
+        long asn = 0;
+        for (int next = 0; ; ) {
+            while (!covering.isEmpty() && ends[covering.peek()] < asn) {
+                ietf -= recordList.get(covering.poll()).isIetf() ? 1 : 0;
+            }
+            if (covering.isEmpty()) {
+                if (next == size) {
+                    break;
                 }
-            } else {
-                differences.add(new Delta<>(record, null));
+                asn = order[next] >>> 31;
             }
-        }
-        for (ASNRecord record : previous.getOrderedRecords()) {
-            ASNNode currentNode = current.get(record.getRange());
-            if (currentNode != null) {
-                if (!currentNode.getRecord().toString().equals(record.toString())) {
-                    differences.add(new Delta<>(currentNode.getRecord(), record));
+            for (; next < size && order[next] >>> 31 == asn; next++) {
+                int i = (int) (order[next] & Integer.MAX_VALUE);
+                if (!covering.isEmpty()) {
+                    resolver.recordConflict(recordList.get(covering.peek()), Lists.newArrayList(recordList.get(i)));
+                }
+                covering.add(i);
+                ietf += recordList.get(i).isIetf() ? 1 : 0;
+            }
+
+            long to = next < size ? (order[next] >>> 31) - 1 : Long.MAX_VALUE;
+            int winner;
+            if (ietf > 0) {
+                List<Integer> active = new ArrayList<>();
+                for (Iterator<Integer> it = covering.iterator(); it.hasNext(); ) {
+                    int i = it.next();
+                    if (ends[i] < asn) {
+                        ietf -= recordList.get(i).isIetf() ? 1 : 0;
+                        it.remove();
+                    } else {
+                        active.add(i);
+                        to = Math.min(to, ends[i]);
+                    }
+                }
+                Collections.sort(active);
+                winner = active.get(0);
+                for (int i : active) {
+                    if (resolver.resolve(recordList.get(i), recordList.get(winner)) != recordList.get(winner)) {
+                        winner = i;
+                    }
                 }
             } else {
-                differences.add(new Delta<>(null, record));
+                winner = covering.peek();
+                to = Math.min(to, ends[winner]);
             }
+
+            if (owner >= 0 && recordList.get(winner) == recordList.get(owner) && asn == ownedTo + 1) {
+                ownedTo = to;
+            } else {
+                if (owner >= 0) {
+                    claim(tree, recordList.get(owner), ownedFrom, ownedTo);
+                }
+                owner = winner;
+                ownedFrom = asn;
+                ownedTo = to;
+            }
+            asn = to + 1;
+        }
+        if (owner >= 0) {
+            claim(tree, recordList.get(owner), ownedFrom, ownedTo);
+        }
+        return tree;
+    }
+
+    private void claim(ASNIntervalTree tree, ASNRecord record, long from, long to) {
+        if (from == record.getStartAsn() && to - from + 1 == record.getAsnCount()) {
+            tree.add(new ASNNode(record));
+        } else {
+            tree.add(new ASNNode(record.clone(AsnRange.from(Asn.of(from)).to(Asn.of(to)))));
+        }
+    }
+
+    /**
+     * Builds the tree of records that were merged before, so none of them overlap, without resolving conflicts.
+     */
+    public ASNIntervalTree treeOf(List<ASNRecord> mergedRecords) {
+        ASNIntervalTree tree = new ASNIntervalTree();
+        for (ASNRecord record : mergedRecords) {
+            tree.add(new ASNNode(record));
         }
-        return differences;
+        return tree;
+    }
+
+    public List<Delta<AsnRange>> treeDiff(ASNIntervalTree current, ASNIntervalTree previous) {
+        return Lists.newArrayList(diff(current, previous));
+    }
+
+    /**
+     * Yields the differences between the trees as they are asked for, joining the nodes of both trees in range order
+     * in one pass.
+     */
+    public Iterator<Delta<AsnRange>> diff(ASNIntervalTree current, ASNIntervalTree previous) {
+        return new DeltaIterator<>(nodes(current), nodes(previous), ASNMerger::compare, ASNNode::getRecord);
+    }
+
+    private Iterator<ASNNode> nodes(ASNIntervalTree tree) {
+        return tree != null ? tree.nodes() : Collections.emptyIterator();
+    }
+
+    private static int compare(ASNNode left, ASNNode right) {
+        int result = left.getRange().start().compareTo(right.getRange().start());
+        return result != 0 ? result : left.getRange().end().compareTo(right.getRange().end());
     }
 
     private void excludeRangeAndScheduleRemainingForClaiming(ASNRecord source, ASNRecord overlap, Deque<ASNRecord> stack) {
@@ -94,6 +94,9 @@ public class ASNNode {
         else if (node == getRight()) setRight(null);
     }
 
+    /**
+     * Sets the max to the highest end in the subtree, passing every change on to the parent, also when it goes down.
+     */
     private void recalculateMax() {
         Asn childrenMax = range.end();
         if (left != null && left.getMax().compareTo(childrenMax) > 0)
@@ -102,9 +105,9 @@ public class ASNNode {
             childrenMax = right.getMax();
         if (childrenMax.compareTo(max) != 0) {
             max = childrenMax;
-            propagateMax();
+            if (parent != null)
+                parent.recalculateMax();
         }
-
     }
 
     public AsnRange getRange() {
@@ -112,9 +115,14 @@ public class ASNNode {
 
     }
 
+    /**
+     * Takes the range and the record of the node, which replaces this one when the tree removes a node with two
+     * children. Both are taken, so the node keeps holding the record of its own range.
+     */
     public void copyFrom(ASNNode node) {
         this.range = node.getRange();
-        this.max = range.end();
+        this.record = node.getRecord();
+        recalculateMax();
     }
 
     private Asn asnMax(Asn asn1, Asn asn2) {
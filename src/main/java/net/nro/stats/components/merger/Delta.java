@@ -48,6 +48,14 @@ public class Delta<R extends AbstractRange> {
         return (previous != null) ? previous.toString() : null;
     }
 
+    Record<R> currentRecord() {
+        return current;
+    }
+
+    Record<R> previousRecord() {
+        return previous;
+    }
+
     @Override
     public String toString() {
         return (new StringBuilder())
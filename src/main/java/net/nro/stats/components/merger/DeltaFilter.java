@@ -0,0 +1,77 @@
+/**
+ * The BSD License
+ *
+ * Copyright (c) 2010-2016 RIPE NCC
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *   - Redistributions of source code must retain the above copyright notice,
+ *     this list of conditions and the following disclaimer.
+ *   - Redistributions in binary form must reproduce the above copyright notice,
+ *     this list of conditions and the following disclaimer in the documentation
+ *     and/or other materials provided with the distribution.
+ *   - Neither the name of the RIPE NCC nor the names of its contributors may be
+ *     used to endorse or promote products derived from this software without
+ *     specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package net.nro.stats.components.merger;
+
+import net.nro.stats.components.parser.Record;
+
+/**
+ * Selects differences by address family, registry, country code and kind of change. A difference matches on
+ * registry or country code when the record on either side has it. Criteria left null match everything.
+ */
+public class DeltaFilter {
+
+    public enum Change {
+        ADDED, REMOVED, CHANGED
+    }
+
+    private final String family;
+    private final String registry;
+    private final String countryCode;
+    private final Change change;
+
+    public DeltaFilter(String family, String registry, String countryCode, Change change) {
+        this.family = family;
+        this.registry = registry;
+        this.countryCode = countryCode;
+        this.change = change;
+    }
+
+    boolean matches(Record<?> current, Record<?> previous) {
+        Record<?> any = current != null ? current : previous;
+        if (family != null && !family.equals(any.getType())) {
+            return false;
+        }
+        if (change != null && change != (previous == null ? Change.ADDED : current == null ? Change.REMOVED : Change.CHANGED)) {
+            return false;
+        }
+        if (registry != null && !(registry.equals(registryOf(current)) || registry.equals(registryOf(previous)))) {
+            return false;
+        }
+        return countryCode == null || countryCode.equals(countryCodeOf(current)) || countryCode.equals(countryCodeOf(previous));
+    }
+
+    private String registryOf(Record<?> record) {
+        return record != null ? record.getRegistry() : null;
+    }
+
+    private String countryCodeOf(Record<?> record) {
+        return record != null ? record.getCountryCode() : null;
+    }
+}
@@ -0,0 +1,114 @@
+/**
+ * The BSD License
+ *
+ * Copyright (c) 2010-2016 RIPE NCC
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *   - Redistributions of source code must retain the above copyright notice,
+ *     this list of conditions and the following disclaimer.
+ *   - Redistributions in binary form must reproduce the above copyright notice,
+ *     this list of conditions and the following disclaimer in the documentation
+ *     and/or other materials provided with the distribution.
+ *   - Neither the name of the RIPE NCC nor the names of its contributors may be
+ *     used to endorse or promote products derived from this software without
+ *     specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package net.nro.stats.components.merger;
+
+import net.nro.stats.components.parser.Record;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.UUID;
+import java.util.function.Consumer;
+
+/**
+ * The differences between two files, kept as the pairs of records that differ rather than as deltas, which are only
+ * created while they are read. Positions in the index are stable, so they can serve as a cursor into it, together
+ * with the version of the index.
+ */
+public class DeltaIndex {
+
+    private final String version;
+    private final Record<?>[] current;
+    private final Record<?>[] previous;
+
+    public DeltaIndex(Iterator<? extends Delta<?>> deltas) {
+        List<Record<?>> currentRecords = new ArrayList<>();
+        List<Record<?>> previousRecords = new ArrayList<>();
+        while (deltas.hasNext()) {
+            Delta<?> delta = deltas.next();
+            currentRecords.add(delta.currentRecord());
+            previousRecords.add(delta.previousRecord());
+        }
+        this.version = UUID.randomUUID().toString();
+        this.current = currentRecords.toArray(new Record<?>[currentRecords.size()]);
+        this.previous = previousRecords.toArray(new Record<?>[previousRecords.size()]);
+    }
+
+    /**
+     * Tells apart indexes of different runs, also across restarts, so a cursor is not used with another index than
+     * its own.
+     */
+    public String getVersion() {
+        return version;
+    }
+
+    public int size() {
+        return current.length;
+    }
+
+    /**
+     * @return the position of the first difference at or after the given one that matches, -1 if there is none
+     */
+    public int find(DeltaFilter filter, int from) {
+        for (int i = Math.max(from, 0); i < current.length; i++) {
+            if (filter.matches(current[i], previous[i])) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * @return the position after the last of at most limit differences that match, from the given position on, or
+     * the size of the index when it runs out first
+     */
+    public int skip(DeltaFilter filter, int from, int limit) {
+        int matched = 0;
+        int i = Math.max(from, 0);
+        for (; i < current.length && matched < limit; i++) {
+            if (filter.matches(current[i], previous[i])) {
+                matched++;
+            }
+        }
+        return i;
+    }
+
+    /**
+     * Passes the differences that match, from the first position up to the second, to the consumer.
+     */
+    @SuppressWarnings("unchecked")
+    public void forEach(DeltaFilter filter, int from, int to, Consumer<Delta<?>> consumer) {
+        for (int i = Math.max(from, 0); i < Math.min(to, current.length); i++) {
+            if (filter.matches(current[i], previous[i])) {
+                consumer.accept(new Delta(current[i], previous[i]));
+            }
+        }
+    }
+}
@@ -0,0 +1,99 @@
+/**
+ * The BSD License
+ *
+ * Copyright (c) 2010-2016 RIPE NCC
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *   - Redistributions of source code must retain the above copyright notice,
+ *     this list of conditions and the following disclaimer.
+ *   - Redistributions in binary form must reproduce the above copyright notice,
+ *     this list of conditions and the following disclaimer in the documentation
+ *     and/or other materials provided with the distribution.
+ *   - Neither the name of the RIPE NCC nor the names of its contributors may be
+ *     used to endorse or promote products derived from this software without
+ *     specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package net.nro.stats.components.merger;
+
+import net.nro.stats.components.parser.Record;
+import net.ripe.commons.ip.AbstractRange;
+
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.function.Function;
+
+/**
+ * Merge-joins the nodes of two merged trees, both in range order, in a single pass. A delta is created for every
+ * range that only one of the trees has, or that has records with different fields in each, as it is asked for.
+ */
+class DeltaIterator<N, R extends AbstractRange> implements Iterator<Delta<R>> {
+
+    private final Iterator<N> current;
+    private final Iterator<N> previous;
+    private final Comparator<N> order;
+    private final Function<N, ? extends Record<R>> record;
+    private N currentNode;
+    private N previousNode;
+    private Delta<R> next;
+
+    DeltaIterator(Iterator<N> current, Iterator<N> previous, Comparator<N> order, Function<N, ? extends Record<R>> record) {
+        this.current = current;
+        this.previous = previous;
+        this.order = order;
+        this.record = record;
+        this.currentNode = poll(current);
+        this.previousNode = poll(previous);
+    }
+
+    @Override
+    public boolean hasNext() {
+        while (next == null && (currentNode != null || previousNode != null)) {
+            int comparison = currentNode == null ? 1 : previousNode == null ? -1 : order.compare(currentNode, previousNode);
+            if (comparison < 0) {
+                next = new Delta<>(record.apply(currentNode), null);
+                currentNode = poll(current);
+            } else if (comparison > 0) {
+                next = new Delta<>(null, record.apply(previousNode));
+                previousNode = poll(previous);
+            } else {
+                Record<R> currentRecord = record.apply(currentNode);
+                Record<R> previousRecord = record.apply(previousNode);
+                if (!currentRecord.isSameAs(previousRecord)) {
+                    next = new Delta<>(currentRecord, previousRecord);
+                }
+                currentNode = poll(current);
+                previousNode = poll(previous);
+            }
+        }
+        return next != null;
+    }
+
+    @Override
+    public Delta<R> next() {
+        if (!hasNext()) {
+            throw new NoSuchElementException();
+        }
+        Delta<R> result = next;
+        next = null;
+        return result;
+    }
+
+    private N poll(Iterator<N> nodes) {
+        return nodes.hasNext() ? nodes.next() : null;
+    }
+}
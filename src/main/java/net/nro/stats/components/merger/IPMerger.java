@@ -32,69 +32,375 @@ package net.nro.stats.components.merger;
 import com.google.common.collect.Lists;
 import net.nro.stats.components.parser.Record;
 import net.nro.stats.components.resolver.Resolver;
+import net.nro.stats.config.MergeConfig;
 import net.ripe.commons.ip.AbstractIpRange;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Iterator;
 import java.util.List;
-import java.util.Optional;
+import java.util.Map;
 import java.util.Queue;
-import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
 import java.util.stream.Collectors;
+import java.util.stream.IntStream;
 
 public abstract class IPMerger<T extends Record<R>, R extends AbstractIpRange> {
 
     private Logger logger = LoggerFactory.getLogger(this.getClass());
 
+    private final MergeConfig mergeConfig;
+
     private Resolver resolver;
     int maxSize;
+    int shardSize;
+
+    private final LongAdder requeues = new LongAdder();
 
-    public IPMerger(Resolver resolver, int maxSize) {
+    /**
+     * @param mergeConfig how to merge, or null to merge all records at once in input order
+     */
+    public IPMerger(Resolver resolver, MergeConfig mergeConfig, int maxSize, int shardSize) {
         this.resolver = resolver;
+        this.mergeConfig = mergeConfig;
         this.maxSize = maxSize;
+        this.shardSize = shardSize;
     }
 
     public IPNode<T> mergeToTree(List<T> recordsList) {
-        logger.debug("Starting with the Ipv4 merged tree generation");
+        return mergeToTree(recordsList, null);
+    }
+
+    /**
+     * Merges as {@link #mergeToTree(List)} does, but reuses the tree of every run of shards whose records are the
+     * same as in the previous merge, and keeps the runs of this merge for the next one. Only the sharded merge has
+     * runs, otherwise the history is left untouched.
+     */
+    public IPNode<T> mergeToTree(List<T> recordsList, MergeHistory.Runs<T> history) {
+        logger.debug("Starting with the {} merged tree generation", getClass().getSimpleName());
+
+        if (mergeConfig != null && mergeConfig.getSharded()) {
+            return mergeSharded(recordsList, history);
+        }
+        return merge(recordsList);
+    }
+
+    /**
+     * Merges the records in parallel, split by their top level prefix (shard). Records can only conflict with records
+     * in the same shards, so every run of shards joined by the records spanning them is merged on its own, with its
+     * records in their original order. Each run sees the same claims as it would in a single merge, which keeps the
+     * outcome identical, and the claimed nodes of all runs are stitched together under one root afterwards.
+     */
+    private IPNode<T> mergeSharded(List<T> recordsList, MergeHistory.Runs<T> history) {
+        int shards = 1 << shardSize;
+        int[] firstShard = new int[recordsList.size()];
+        int[] lastShard = new int[shards];
+        Arrays.fill(lastShard, -1);
+        PrefixQueue prefixes = new PrefixQueue();
+        for (int i = 0; i < recordsList.size(); i++) {
+            addPrefixes(recordsList.get(i), prefixes);
+            int first = -1, last = 0;
+            while (!prefixes.isEmpty()) {
+                int slot = prefixes.poll();
+                int shard = (int) (prefixes.hi(slot) >>> (64 - shardSize));
+                int length = prefixes.length(slot);
+                first = first < 0 ? shard : first;
+                last = length < shardSize ? shard | ((1 << (shardSize - length)) - 1) : shard;
+            }
+            firstShard[i] = Math.max(first, 0);
+            lastShard[firstShard[i]] = Math.max(lastShard[firstShard[i]], last);
+        }
+
+        int[] run = new int[shards];
+        int[] runStart = new int[shards];
+        int runs = 0;
+        for (int shard = 0, end = -1; shard < shards; shard++) {
+            if (shard > end) {
+                runStart[runs++] = shard;
+            }
+            end = Math.max(end, lastShard[shard]);
+            run[shard] = runs - 1;
+        }
+        List<List<T>> runRecords = new ArrayList<>(runs);
+        for (int i = 0; i < runs; i++) {
+            runRecords.add(new ArrayList<>());
+        }
+        for (int i = 0; i < recordsList.size(); i++) {
+            runRecords.get(run[firstShard[i]]).add(recordsList.get(i));
+        }
+
+        Map<Integer, MergeHistory.Run<T>> mergedRuns = new ConcurrentHashMap<>();
+        AtomicInteger reused = new AtomicInteger();
+        List<IPNode<T>> trees = IntStream.range(0, runs).parallel()
+                .filter(i -> !runRecords.get(i).isEmpty())
+                .mapToObj(i -> mergeRun(runStart[i], runRecords.get(i), history, mergedRuns, reused))
+                .collect(Collectors.toList());
+        if (history != null) {
+            logger.debug("Reused {} of {} merged runs", reused.get(), mergedRuns.size());
+            history.replace(mergedRuns);
+        }
+        if (trees.size() == 1) {
+            return trees.get(0);
+        }
+        IPNode<T> root = new IPNode<>();
+        List<IPNode<T>> claimedNodes = new ArrayList<>();
+        for (IPNode<T> tree : trees) {
+            tree.collectClaimedNodes(claimedNodes);
+        }
+        for (IPNode<T> node : claimedNodes) {
+            root.nodeFor(node.hi, node.lo, node.length).claim(node.getRecord());
+        }
+        return root;
+    }
+
+    private IPNode<T> mergeRun(int shard, List<T> records, MergeHistory.Runs<T> history,
+                               Map<Integer, MergeHistory.Run<T>> mergedRuns, AtomicInteger reused) {
+        if (history == null) {
+            return merge(records);
+        }
+        IPNode<T> tree = history.find(shard, records);
+        if (tree != null) {
+            reused.incrementAndGet();
+        } else {
+            tree = merge(records);
+        }
+        mergedRuns.put(shard, new MergeHistory.Run<>(records, tree));
+        return tree;
+    }
+
+    /**
+     * @return the number of claims taken back from a record by a record of higher priority, over every merge so far
+     */
+    public long getRequeueCount() {
+        return requeues.sum();
+    }
+
+    private IPNode<T> merge(List<T> recordsList) {
+        if (mergeConfig != null && mergeConfig.getPrioritized()) {
+            return mergeInPriorityOrder(recordsList);
+        }
+        IPNode<T> root = new IPNode<>();
+        mergeInInputOrder(root, recordsList);
+        return root;
+    }
+
+    /**
+     * Merges the records from the highest priority down, so every prefix is claimed by its final owner on first
+     * touch and the records of lower priority only fill the gaps. Records only ever meet the records they overlap,
+     * so every group of overlapping records is merged on its own, which gives the outcome of the merge in input
+     * order as long as the records of the group are strictly ordered. A group holding records that are not, because
+     * they have the same priority or the resolver does not order them transitively, is merged again in input order,
+     * as only that order decides between them.
+     */
+    private IPNode<T> mergeInPriorityOrder(List<T> recordsList) {
+        int size = recordsList.size();
+        // the first and the last address of every record, as the hi and lo words of the trie keys
+        long[] bounds = new long[size * 4];
+        PrefixQueue prefixes = new PrefixQueue();
+        for (int i = 0; i < size; i++) {
+            addPrefixes(recordsList.get(i), prefixes);
+            for (boolean first = true; !prefixes.isEmpty(); first = false) {
+                int slot = prefixes.poll();
+                long hi = prefixes.hi(slot), lo = prefixes.lo(slot);
+                int length = prefixes.length(slot);
+                if (first) {
+                    bounds[4 * i] = hi;
+                    bounds[4 * i + 1] = lo;
+                }
+                bounds[4 * i + 2] = length < 64 ? hi | (-1L >>> length) : hi;
+                bounds[4 * i + 3] = length < 64 ? -1L : length < 128 ? lo | (-1L >>> (length - 64)) : lo;
+            }
+        }
+        Integer[] order = new Integer[size];
+        for (int i = 0; i < size; i++) {
+            order[i] = i;
+        }
+        Arrays.sort(order, (i, j) -> compareUnsigned(bounds, 4 * i, bounds, 4 * j));
+        Comparator<Record> priorityOrder = resolver.priorityOrder();
+        Comparator<Integer> groupOrder = (i, j) -> {
+            int result = priorityOrder.compare(recordsList.get(i), recordsList.get(j));
+            return result != 0 ? result : Integer.compare(i, j);
+        };
 
-        IPNode<T> node, root = new IPNode<>(null);
-        Queue<T> records = new ConcurrentLinkedQueue<>();
-        records.addAll(recordsList);
+        IPNode<T> root = new IPNode<>();
+        List<T> records = new ArrayList<>();
+        List<T> claimed = new ArrayList<>();
+        List<IPNode<T>> claimedNodes = new ArrayList<>();
+        List<T> conflicts = new ArrayList<>();
+        int groups = 0, inputOrder = 0;
+        for (int from = 0, to; from < size; from = to) {
+            // the group runs on for as long as the next record starts before the last address seen so far
+            int last = order[from];
+            for (to = from + 1; to < size && compareUnsigned(bounds, 4 * order[to], bounds, 4 * last + 2) <= 0; to++) {
+                if (compareUnsigned(bounds, 4 * order[to] + 2, bounds, 4 * last + 2) > 0) {
+                    last = order[to];
+                }
+            }
+            if (to - from > 1) {
+                Arrays.sort(order, from, to, groupOrder);
+            }
+            records.clear();
+            for (int k = from; k < to; k++) {
+                records.add(recordsList.get(order[k]));
+            }
+            groups++;
+            claimedNodes.clear();
+            conflicts.clear();
+            if (claimInPriorityOrder(root, records, prefixes, claimed, claimedNodes, conflicts)) {
+                for (int i = 0; i < conflicts.size(); i += 2) {
+                    resolver.recordConflict(conflicts.get(i), Collections.singletonList(conflicts.get(i + 1)));
+                }
+            } else {
+                claimedNodes.forEach(IPNode::unclaim);
+                Arrays.sort(order, from, to);
+                records.clear();
+                for (int k = from; k < to; k++) {
+                    records.add(recordsList.get(order[k]));
+                }
+                mergeInInputOrder(root, records);
+                inputOrder++;
+            }
+        }
+        logger.debug("Merged {} of {} groups of overlapping records in input order", inputOrder, groups);
+        return root;
+    }
+
+    /**
+     * Claims the prefixes of the records, given from the highest priority down, for as far as no record of higher
+     * priority claimed them. The conflicts are added as pairs of the winning and the losing record.
+     *
+     * @return false when two of the records turned out not to be strictly ordered
+     */
+    private boolean claimInPriorityOrder(IPNode<T> root, List<T> records, PrefixQueue prefixes, List<T> claimed,
+                                         List<IPNode<T>> claimedNodes, List<T> conflicts) {
+        prefixes.clear();
+        for (T record : records) {
+            addPrefixes(record, prefixes);
+            while (!prefixes.isEmpty()) {
+                int slot = prefixes.poll();
+                long hi = prefixes.hi(slot), lo = prefixes.lo(slot);
+                int length = prefixes.length(slot);
+
+                // nothing is ever claimed below a claimed node here, so the first one on the path owns the prefix
+                IPNode<T> node = root;
+                IPNode<T> next = node.child(hi, lo);
+                T owner = null;
+                while (next != null && next.isPrefixOf(hi, lo, length)) {
+                    node = next;
+                    if (node.getRecord() != null) {
+                        owner = node.getRecord();
+                        break;
+                    }
+                    next = node.length < length ? node.child(hi, lo) : null;
+                }
+                if (owner != null) {
+                    if (!precedes(owner, record)) {
+                        return false;
+                    }
+                    conflicts.add(owner);
+                    conflicts.add(record);
+                    continue;
+                }
+
+                claimed.clear();
+                if (node.length == length) {
+                    node.collectRecords(claimed);
+                } else if (next != null && next.isWithin(hi, lo, length)) {
+                    next.collectRecords(claimed);
+                }
+                if (claimed.isEmpty()) {
+                    IPNode<T> claimedNode = node.length == length ? node : node.insert(hi, lo, length);
+                    claimedNode.claim(clone(record, hi, lo, length));
+                    claimedNodes.add(claimedNode);
+                } else {
+                    for (T cr : claimed) {
+                        if (!precedes(cr, record)) {
+                            return false;
+                        }
+                    }
+                    addHalves(hi, lo, length, prefixes);
+                }
+            }
+        }
+        return true;
+    }
+
+    private void mergeInInputOrder(IPNode<T> root, List<T> recordsList) {
+        Queue<T> records = new ArrayDeque<>(recordsList);
+        PrefixQueue prefixes = new PrefixQueue();
         T record;
         while ((record = records.poll()) != null) {
-            Queue<R> ranges = new ConcurrentLinkedQueue<>();
-            ranges.addAll(prefixRanges(record.getRange()));
-            R range;
-            while ((range = ranges.poll()) != null) {
-                node = root;
-                char[] significantBinaryValue = getSignificantBinaryValues(range).toCharArray();
-                for (char c : significantBinaryValue) {
-                    node = getChildNode(node, c);
+            addPrefixes(record, prefixes);
+            while (!prefixes.isEmpty()) {
+                int slot = prefixes.poll();
+                long hi = prefixes.hi(slot), lo = prefixes.lo(slot);
+                int length = prefixes.length(slot);
+
+                // walk down to the prefix, only visiting the nodes that exist on its path
+                IPNode<T> node = root;
+                IPNode<T> next = node.child(hi, lo);
+                boolean rejected = false;
+                while (next != null && next.isPrefixOf(hi, lo, length)) {
+                    node = next;
                     if (node.getRecord() != null) {
                         if (isNodeOwnerOfLessPriority(node, record)) {
                             //Move current owner to back of queue, lower priority requests have to wait.
                             records.offer(node.getRecord());
+                            requeues.increment();
                             node.unclaim();
                         } else {
                             resolver.recordConflict(node.getRecord(), Lists.newArrayList(record));
                             //We need to ditch the current node, as it can not take any position below this node
+                            rejected = true;
                             break;
                         }
                     }
+                    next = node.length < length ? node.child(hi, lo) : null;
                 }
-                if (node.getRecord() == null) {
-                    T modifiedRecord = record.clone(range);
-                    if (defeatAll(modifiedRecord, node.getRecords())) {
-                        resolver.recordConflict(modifiedRecord, node.getRecords());
-                        node.claim(modifiedRecord);
-                    } else {
-                        ranges.addAll(splitRanges(range));
-                    }
+                if (rejected || (node.length == length && node.getRecord() != null)) {
+                    continue;
+                }
+
+                List<T> claimed = Collections.emptyList();
+                if (node.length == length) {
+                    claimed = node.getRecords();
+                } else if (next != null && next.isWithin(hi, lo, length)) {
+                    claimed = next.getRecords();
+                }
+                if (defeatAll(record, claimed)) {
+                    T modifiedRecord = clone(record, hi, lo, length);
+                    resolver.recordConflict(modifiedRecord, claimed);
+                    (node.length == length ? node : node.insert(hi, lo, length)).claim(modifiedRecord);
+                } else {
+                    addHalves(hi, lo, length, prefixes);
                 }
             }
         }
+    }
 
+    /**
+     * Builds the tree of records that were merged before, so none of them overlap, without resolving conflicts.
+     * The tree is the same as merging them again would give.
+     */
+    public IPNode<T> treeOf(List<T> mergedRecords) {
+        IPNode<T> root = new IPNode<>();
+        PrefixQueue prefixes = new PrefixQueue();
+        for (T record : mergedRecords) {
+            addPrefixes(record, prefixes);
+            while (!prefixes.isEmpty()) {
+                int slot = prefixes.poll();
+                long hi = prefixes.hi(slot), lo = prefixes.lo(slot);
+                int length = prefixes.length(slot);
+                root.nodeFor(hi, lo, length).claim(clone(record, hi, lo, length));
+            }
+        }
         return root;
     }
 
@@ -102,55 +408,108 @@ public abstract class IPMerger<T extends Record<R>, R extends AbstractIpRange> {
         if (previous == null && current == null) {
             return null;
         }
-        if (previous == null) {//current is not null
-            return current.getRecords().stream().map(rec -> new Delta<>(rec, null)).collect(Collectors.toList());
-        }
-        if (current == null) {
-            return previous.getRecords().stream().map(rec -> new Delta<>(null, rec)).collect(Collectors.toList());
-        }
-
-        List<Delta<R>> deltas = new ArrayList<>();
-        Optional.ofNullable(compare(current.getRecord(), previous.getRecord())).ifPresent(deltas::add);
-        Optional.ofNullable(treeDiff(current.left, previous.left)).ifPresent(deltas::addAll);
-        Optional.ofNullable(treeDiff(current.right, previous.right)).ifPresent(deltas::addAll);
+        return Lists.newArrayList(diff(current, previous));
+    }
 
-        return deltas;
+    /**
+     * Yields the differences between the trees as they are asked for. The claimed nodes of both trees are in
+     * (address, prefix length) order, so they are joined on the prefix of each node in one pass.
+     */
+    public Iterator<Delta<R>> diff(IPNode<T> current, IPNode<T> previous) {
+        return new DeltaIterator<>(claimedNodes(current), claimedNodes(previous),
+                (left, right) -> IPNode.compare(left.hi, left.lo, left.length, right.hi, right.lo, right.length),
+                IPNode::getRecord);
     }
 
-    private Delta<R> compare(Record<R> left, Record<R> right) {
-        if (left != null && right != null) {
-            if (!left.toString().equals(right.toString())) {
-                return new Delta<>(left, right);
-            } else {
+    /**
+     * @return the record in the tree covering the whole range, or null when no single record does
+     */
+    public T findCovering(IPNode<T> tree, R range) {
+        PrefixQueue prefixes = new PrefixQueue();
+        addPrefixes(range, prefixes);
+        T covering = null;
+        while (!prefixes.isEmpty()) {
+            int slot = prefixes.poll();
+            T record = tree.findCovering(prefixes.hi(slot), prefixes.lo(slot), prefixes.length(slot));
+            if (record == null || (covering != null && record != covering)) {
                 return null;
             }
+            covering = record;
         }
-        if (left == null && right == null) {
-            return null;
+        return covering;
+    }
+
+    /**
+     * @return the records in the tree overlapping the range, in address order
+     */
+    public List<T> findOverlapping(IPNode<T> tree, R range) {
+        List<T> records = new ArrayList<>();
+        PrefixQueue prefixes = new PrefixQueue();
+        addPrefixes(range, prefixes);
+        while (!prefixes.isEmpty()) {
+            int slot = prefixes.poll();
+            int size = records.size();
+            tree.collectOverlapping(prefixes.hi(slot), prefixes.lo(slot), prefixes.length(slot), records);
+            // a record covering several prefixes of the range is only reported once
+            if (size > 0 && records.size() > size && records.get(size) == records.get(size - 1)) {
+                records.remove(size);
+            }
         }
-        return new Delta<>(left, right);
+        return records;
+    }
+
+    private Iterator<IPNode<T>> claimedNodes(IPNode<T> tree) {
+        return tree != null ? tree.claimedNodes() : Collections.emptyIterator();
     }
 
     private boolean isNodeOwnerOfLessPriority(IPNode<T> node, T record) {
         return resolver.resolve(node.getRecord(), record) == record;
     }
 
-    public abstract List<R> prefixRanges(R range);
+    /**
+     * Adds the prefixes covering the range of the record to the queue, in address order.
+     */
+    protected abstract void addPrefixes(T record, PrefixQueue prefixes);
 
-    public abstract String getSignificantBinaryValues(R range);
+    /**
+     * Adds the prefixes covering the range to the queue, in address order.
+     */
+    protected abstract void addPrefixes(R range, PrefixQueue prefixes);
 
-    public abstract List<R> splitRanges(R range);
+    /**
+     * Creates a copy of the record that only covers the given prefix.
+     */
+    protected abstract T clone(T record, long hi, long lo, int length);
 
-    private boolean defeatAll(T modifiedRecord, List<T> records) {
+    private void addHalves(long hi, long lo, int length, PrefixQueue prefixes) {
+        if (length < maxSize) {
+            prefixes.add(hi, lo, length + 1);
+            if (length < 64) {
+                prefixes.add(hi | (1L << (63 - length)), lo, length + 1);
+            } else {
+                prefixes.add(hi, lo | (1L << (127 - length)), length + 1);
+            }
+        }
+    }
+
+    /**
+     * @return true when the first record wins against the second, whichever way round they are resolved
+     */
+    private boolean precedes(T first, T second) {
+        return resolver.resolve(first, second) == first && resolver.resolve(second, first) == first;
+    }
+
+    private static int compareUnsigned(long[] keys1, int index1, long[] keys2, int index2) {
+        int result = Long.compareUnsigned(keys1[index1], keys2[index2]);
+        return result != 0 ? result : Long.compareUnsigned(keys1[index1 + 1], keys2[index2 + 1]);
+    }
+
+    private boolean defeatAll(T record, List<T> records) {
         for (T cr : records) {
-            if (resolver.resolve(modifiedRecord, cr) == cr) {
+            if (resolver.resolve(record, cr) == cr) {
                 return false;
             }
         }
         return true;
     }
-
-    private IPNode<T> getChildNode(IPNode<T> node, char c) {
-        return (c == '0') ? node.getLeftNode() : node.getRightNode();
-    }
 }
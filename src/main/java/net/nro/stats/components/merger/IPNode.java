@@ -32,28 +32,36 @@ package net.nro.stats.components.merger;
 import net.nro.stats.components.parser.Record;
 
 import java.util.ArrayList;
+import java.util.Iterator;
 import java.util.List;
+import java.util.NoSuchElementException;
 
+/**
+ * Node of a path-compressed binary trie over IP prefixes.
+ *
+ * The prefix bits of a node are stored left-aligned in two longs ({@code hi} holds bits 0-63, {@code lo} bits 64-127),
+ * so IPv4 prefixes only ever use the upper half of {@code hi}. Only nodes that are, or have been, claimed by a record
+ * and the branching points between them exist; the single-child chains of a plain bit-per-node trie are skipped.
+ */
 public class IPNode<R extends Record> {
     IPNode<R> parent, left, right;
+    final long hi, lo;
+    final int length;
     private R record;
 
-    public IPNode(IPNode parent) {
-        this.parent = parent;
+    public IPNode() {
+        this(null, 0L, 0L, 0);
     }
 
-    public IPNode<R> getLeftNode() {
-        if (left == null) {
-            left = new IPNode<>(this);
-        }
-        return left;
+    IPNode(IPNode<R> parent, long hi, long lo, int length) {
+        this.parent = parent;
+        this.hi = mask(hi, length, true);
+        this.lo = mask(lo, length, false);
+        this.length = length;
     }
 
-    public IPNode<R> getRightNode() {
-        if (right == null) {
-            right = new IPNode<>(this);
-        }
-        return right;
+    public int getPrefixLength() {
+        return length;
     }
 
     public R getRecord() {
@@ -64,24 +72,211 @@ public class IPNode<R extends Record> {
         this.record = record;
     }
 
+    public void unclaim() {
+        record = null;
+    }
+
     public List<R> getRecords() {
+        List<R> records = new ArrayList<>();
+        collectRecords(records);
+        return records;
+    }
+
+    /**
+     * Adds the records visible from this node in address order; a claimed node hides everything below it.
+     */
+    void collectRecords(List<R> records) {
         if (record != null) {
-            List<R> records = new ArrayList<>();
             records.add(record);
-            return records;
         } else {
-            List<R> records = new ArrayList<>();
             if (left != null) {
-                records.addAll(left.getRecords());
+                left.collectRecords(records);
             }
             if (right != null) {
-                records.addAll(right.getRecords());
+                right.collectRecords(records);
             }
-            return records;
         }
     }
 
-    public void unclaim() {
-        record = null;
+    void collectClaimedNodes(List<IPNode<R>> nodes) {
+        if (record != null) {
+            nodes.add(this);
+        } else {
+            if (left != null) {
+                left.collectClaimedNodes(nodes);
+            }
+            if (right != null) {
+                right.collectClaimedNodes(nodes);
+            }
+        }
+    }
+
+    /**
+     * Iterates over the claimed nodes visible from this node in the order of {@link #collectClaimedNodes(List)},
+     * following the parent links instead of collecting the nodes first.
+     */
+    Iterator<IPNode<R>> claimedNodes() {
+        IPNode<R> top = this;
+        return new Iterator<IPNode<R>>() {
+            private IPNode<R> next = first(top);
+
+            @Override
+            public boolean hasNext() {
+                return next != null;
+            }
+
+            @Override
+            public IPNode<R> next() {
+                if (next == null) {
+                    throw new NoSuchElementException();
+                }
+                IPNode<R> node = next;
+                next = null;
+                // climb to the first ancestor with an unvisited right subtree holding a claimed node
+                for (IPNode<R> child = node; child != top && next == null; child = child.parent) {
+                    IPNode<R> parent = child.parent;
+                    if (child == parent.left && parent.right != null) {
+                        next = first(parent.right);
+                    }
+                }
+                return node;
+            }
+
+            /**
+             * @return the first claimed node in the subtree, or null when nothing in it is claimed
+             */
+            private IPNode<R> first(IPNode<R> node) {
+                if (node.record != null) {
+                    return node;
+                }
+                IPNode<R> found = node.left != null ? first(node.left) : null;
+                return found != null || node.right == null ? found : first(node.right);
+            }
+        };
+    }
+
+    /**
+     * @return the record of the visible claimed node covering the given prefix, or null when nothing claims it
+     */
+    R findCovering(long hi, long lo, int length) {
+        IPNode<R> node = this;
+        while (node != null && node.isPrefixOf(hi, lo, length)) {
+            if (node.record != null) {
+                return node.record;
+            }
+            node = node.length < length ? node.child(hi, lo) : null;
+        }
+        return null;
+    }
+
+    /**
+     * Adds the visible records overlapping the given prefix in address order: either the one covering it, or the
+     * ones within it. Only the nodes on the path to the prefix and below it are visited.
+     */
+    void collectOverlapping(long hi, long lo, int length, List<R> records) {
+        IPNode<R> node = this;
+        while (node != null && node.isPrefixOf(hi, lo, length)) {
+            if (node.record != null || node.length == length) {
+                node.collectRecords(records);
+                return;
+            }
+            node = node.child(hi, lo);
+        }
+        if (node != null && node.isWithin(hi, lo, length)) {
+            node.collectRecords(records);
+        }
+    }
+
+    IPNode<R> child(long hi, long lo) {
+        return bit(hi, lo, length) == 0 ? left : right;
+    }
+
+    /**
+     * @return true when this node lies on the path to the given prefix, i.e. it is the prefix or one of its ancestors.
+     */
+    boolean isPrefixOf(long hi, long lo, int length) {
+        return this.length <= length && commonPrefixLength(this.hi, this.lo, hi, lo) >= this.length;
+    }
+
+    /**
+     * @return true when this node lies in the subtree of the given prefix.
+     */
+    boolean isWithin(long hi, long lo, int length) {
+        return this.length >= length && commonPrefixLength(this.hi, this.lo, hi, lo) >= length;
+    }
+
+    /**
+     * Returns the node for the given prefix anywhere below this node, creating it if needed.
+     */
+    IPNode<R> nodeFor(long hi, long lo, int length) {
+        IPNode<R> node = this;
+        IPNode<R> next = child(hi, lo);
+        while (next != null && next.isPrefixOf(hi, lo, length)) {
+            node = next;
+            next = node.length < length ? node.child(hi, lo) : null;
+        }
+        return node.length == length ? node : node.insert(hi, lo, length);
+    }
+
+    /**
+     * Returns the node for the given prefix, creating it below this node if needed. The prefix must be covered by
+     * this node, and no node on the path between them may exist other than the current child on that side.
+     */
+    IPNode<R> insert(long hi, long lo, int length) {
+        IPNode<R> child = child(hi, lo);
+        if (child == null) {
+            return setChild(new IPNode<>(this, hi, lo, length));
+        }
+        if (child.length == length && child.isPrefixOf(hi, lo, length)) {
+            return child;
+        }
+        int common = Math.min(commonPrefixLength(child.hi, child.lo, hi, lo), Math.min(child.length, length));
+        if (common == length) {
+            // the new node sits on the edge leading to the current child
+            IPNode<R> node = setChild(new IPNode<>(this, hi, lo, length));
+            node.setChild(child);
+            return node;
+        }
+        // the new node and the current child diverge below this node, so they need a branching node
+        IPNode<R> branch = setChild(new IPNode<>(this, hi, lo, common));
+        branch.setChild(child);
+        return branch.setChild(new IPNode<>(branch, hi, lo, length));
+    }
+
+    private IPNode<R> setChild(IPNode<R> node) {
+        node.parent = this;
+        if (bit(node.hi, node.lo, length) == 0) {
+            left = node;
+        } else {
+            right = node;
+        }
+        return node;
+    }
+
+    static int bit(long hi, long lo, int index) {
+        return (int) (index < 64 ? hi >>> (63 - index) : lo >>> (127 - index)) & 1;
+    }
+
+    static int commonPrefixLength(long hi1, long lo1, long hi2, long lo2) {
+        if (hi1 != hi2) {
+            return Long.numberOfLeadingZeros(hi1 ^ hi2);
+        }
+        return 64 + Long.numberOfLeadingZeros(lo1 ^ lo2);
+    }
+
+    static int compare(long hi1, long lo1, int length1, long hi2, long lo2, int length2) {
+        int result = Long.compareUnsigned(hi1, hi2);
+        if (result == 0) {
+            result = Long.compareUnsigned(lo1, lo2);
+        }
+        return result != 0 ? result : Integer.compare(length1, length2);
+    }
+
+    private static long mask(long word, int length, boolean high) {
+        int bits = high ? length : length - 64;
+        if (bits <= 0) {
+            return 0L;
+        }
+        return bits >= 64 ? word : word & (-1L << (64 - bits));
     }
 }
@@ -31,43 +31,45 @@ package net.nro.stats.components.merger;
 
 import net.nro.stats.components.parser.IPv4Record;
 import net.nro.stats.components.resolver.Resolver;
+import net.nro.stats.config.MergeConfig;
 import net.ripe.commons.ip.Ipv4;
 import net.ripe.commons.ip.Ipv4Range;
 import net.ripe.commons.ip.PrefixUtils;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Component;
 
-import java.util.ArrayList;
-import java.util.List;
-
-import static com.google.common.base.Strings.padStart;
-
+/**
+ * Merges IPv4 records using plain {@code long} arithmetic on the addresses; an IPv4 prefix is kept in the upper
+ * 32 bits of the trie key.
+ */
 @Component
 public class IPv4Merger extends IPMerger<IPv4Record, Ipv4Range> {
 
-    @Autowired
     public IPv4Merger(Resolver resolver) {
-        super(resolver, Ipv4.NUMBER_OF_BITS);
+        this(resolver, null);
     }
 
-    @Override
-    public String getSignificantBinaryValues(Ipv4Range range) {
-        return padStart(range.start().asBigInteger().toString(2), maxSize, '0').substring(0, PrefixUtils.getPrefixLength(range));
+    @Autowired
+    public IPv4Merger(Resolver resolver, MergeConfig mergeConfig) {
+        super(resolver, mergeConfig, Ipv4.NUMBER_OF_BITS, 8);
     }
 
     @Override
-    public List<Ipv4Range> prefixRanges(Ipv4Range range) {
-        return range.splitToPrefixes();
+    protected void addPrefixes(IPv4Record record, PrefixQueue prefixes) {
+        for (long prefix : record.getPrefixes()) {
+            prefixes.add((prefix >>> 8) << 32, 0L, (int) (prefix & 0xff));
+        }
     }
 
     @Override
-    public List<Ipv4Range> splitRanges(Ipv4Range range) {
-        List<Ipv4Range> ranges = new ArrayList<>();
-        int length = range.start().getCommonPrefixLength(range.end());
-        if (length < maxSize) {
-            ranges.add(Ipv4Range.from(range.start()).to(range.start().upperBoundForPrefix(length + 1)));
-            ranges.add(Ipv4Range.from(range.start().upperBoundForPrefix(length + 1).next()).to(range.end()));
+    protected void addPrefixes(Ipv4Range range, PrefixQueue prefixes) {
+        for (Ipv4Range prefix : range.splitToPrefixes()) {
+            prefixes.add(prefix.start().asBigInteger().longValue() << 32, 0L, PrefixUtils.getPrefixLength(prefix));
         }
-        return ranges;
+    }
+
+    @Override
+    protected IPv4Record clone(IPv4Record record, long hi, long lo, int length) {
+        return record.clone(hi >>> 32, 1L << (Ipv4.NUMBER_OF_BITS - length));
     }
 }
@@ -31,44 +31,57 @@ package net.nro.stats.components.merger;
 
 import net.nro.stats.components.parser.IPv6Record;
 import net.nro.stats.components.resolver.Resolver;
+import net.nro.stats.config.MergeConfig;
 import net.ripe.commons.ip.Ipv6;
 import net.ripe.commons.ip.Ipv6Range;
 import net.ripe.commons.ip.PrefixUtils;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Component;
 
-import java.util.ArrayList;
-import java.util.List;
-
-import static com.google.common.base.Strings.padStart;
+import java.math.BigInteger;
 
+/**
+ * Merges IPv6 records on the two longs of their start address, which match the key layout of {@link IPNode}.
+ */
 @Component
 public class IPv6Merger extends IPMerger<IPv6Record, Ipv6Range> {
 
-    @Autowired
     public IPv6Merger(Resolver resolver) {
-        super(resolver, Ipv6.NUMBER_OF_BITS);
+        this(resolver, null);
     }
 
+    @Autowired
+    public IPv6Merger(Resolver resolver, MergeConfig mergeConfig) {
+        super(resolver, mergeConfig, Ipv6.NUMBER_OF_BITS, 12);
+    }
 
     @Override
-    public List<Ipv6Range> prefixRanges(Ipv6Range range) {
-        return range.splitToPrefixes();
+    protected void addPrefixes(IPv6Record record, PrefixQueue prefixes) {
+        long hi = record.getStartHigh(), lo = record.getStartLow();
+        int length = record.getPrefixLength();
+        if (length < 0 || length > Ipv6.NUMBER_OF_BITS || !isAligned(hi, lo, length)) {
+            throw new IllegalArgumentException(record.getStart() + "/" + record.getValue() + " is not a legal IPv6 address prefix.");
+        }
+        prefixes.add(hi, lo, length);
     }
 
     @Override
-    public String getSignificantBinaryValues(Ipv6Range range) {
-        return padStart(range.start().asBigInteger().toString(2), maxSize, '0').substring(0, PrefixUtils.getPrefixLength(range));
+    protected void addPrefixes(Ipv6Range range, PrefixQueue prefixes) {
+        for (Ipv6Range prefix : range.splitToPrefixes()) {
+            BigInteger start = prefix.start().asBigInteger();
+            prefixes.add(start.shiftRight(64).longValue(), start.longValue(), PrefixUtils.getPrefixLength(prefix));
+        }
     }
 
     @Override
-    public List<Ipv6Range> splitRanges(Ipv6Range range) {
-        List<Ipv6Range> ranges = new ArrayList<>();
-        int length = range.start().getCommonPrefixLength(range.end());
-        if (length < maxSize) {
-            ranges.add(Ipv6Range.from(range.start()).to(range.start().upperBoundForPrefix(length + 1)));
-            ranges.add(Ipv6Range.from(range.start().upperBoundForPrefix(length + 1).next()).to(range.end()));
+    protected IPv6Record clone(IPv6Record record, long hi, long lo, int length) {
+        return record.clone(hi, lo, length);
+    }
+
+    private static boolean isAligned(long hi, long lo, int length) {
+        if (length >= 64) {
+            return length == 128 || lo << (length - 64) == 0;
         }
-        return ranges;
+        return lo == 0 && hi << length == 0;
     }
 }
@@ -0,0 +1,120 @@
+/**
+ * The BSD License
+ *
+ * Copyright (c) 2010-2016 RIPE NCC
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *   - Redistributions of source code must retain the above copyright notice,
+ *     this list of conditions and the following disclaimer.
+ *   - Redistributions in binary form must reproduce the above copyright notice,
+ *     this list of conditions and the following disclaimer in the documentation
+ *     and/or other materials provided with the distribution.
+ *   - Neither the name of the RIPE NCC nor the names of its contributors may be
+ *     used to endorse or promote products derived from this software without
+ *     specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package net.nro.stats.components.merger;
+
+import net.nro.stats.components.parser.ASNRecord;
+import net.nro.stats.components.parser.IPv4Record;
+import net.nro.stats.components.parser.IPv6Record;
+import net.nro.stats.components.parser.Record;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * What an incremental merge keeps from the previous run: the merged tree of every run of IP shards and the whole
+ * ASN tree, each with the records it was merged from. A part is reused when its records are the same as before,
+ * in the same order, which gives exactly the tree a full merge would build.
+ */
+public class MergeHistory {
+
+    private final Runs<IPv4Record> ipv4Runs = new Runs<>();
+    private final Runs<IPv6Record> ipv6Runs = new Runs<>();
+    private volatile List<ASNRecord> asnRecords;
+    private volatile ASNIntervalTree asns;
+
+    public Runs<IPv4Record> getIpv4Runs() {
+        return ipv4Runs;
+    }
+
+    public Runs<IPv6Record> getIpv6Runs() {
+        return ipv6Runs;
+    }
+
+    public ASNIntervalTree findAsns(List<ASNRecord> records) {
+        return isSame(asnRecords, records) ? asns : null;
+    }
+
+    public void setAsns(List<ASNRecord> records, ASNIntervalTree tree) {
+        this.asnRecords = records;
+        this.asns = tree;
+    }
+
+    /**
+     * Forgets everything, so the next merge is a full one.
+     */
+    public void clear() {
+        ipv4Runs.replace(new ConcurrentHashMap<>());
+        ipv6Runs.replace(new ConcurrentHashMap<>());
+        setAsns(null, null);
+    }
+
+    static boolean isSame(List<? extends Record<?>> previous, List<? extends Record<?>> current) {
+        if (previous == null || previous.size() != current.size()) {
+            return false;
+        }
+        for (int i = 0; i < current.size(); i++) {
+            if (previous.get(i) != current.get(i) && !previous.get(i).isSameAs(current.get(i))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Merged runs of IP shards, keyed by the first shard of the run.
+     */
+    public static class Runs<T extends Record<?>> {
+        private volatile Map<Integer, Run<T>> runs = new ConcurrentHashMap<>();
+
+        IPNode<T> find(int shard, List<T> records) {
+            Run<T> run = runs.get(shard);
+            return run != null && isSame(run.records, records) ? run.tree : null;
+        }
+
+        void replace(Map<Integer, Run<T>> runs) {
+            this.runs = runs;
+        }
+
+        public int size() {
+            return runs.size();
+        }
+    }
+
+    static class Run<T extends Record<?>> {
+        private final List<T> records;
+        private final IPNode<T> tree;
+
+        Run(List<T> records, IPNode<T> tree) {
+            this.records = records;
+            this.tree = tree;
+        }
+    }
+}
@@ -0,0 +1,100 @@
+/**
+ * The BSD License
+ *
+ * Copyright (c) 2010-2016 RIPE NCC
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *   - Redistributions of source code must retain the above copyright notice,
+ *     this list of conditions and the following disclaimer.
+ *   - Redistributions in binary form must reproduce the above copyright notice,
+ *     this list of conditions and the following disclaimer in the documentation
+ *     and/or other materials provided with the distribution.
+ *   - Neither the name of the RIPE NCC nor the names of its contributors may be
+ *     used to endorse or promote products derived from this software without
+ *     specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package net.nro.stats.components.merger;
+
+/**
+ * FIFO of IP prefixes kept in primitive arrays, so splitting ranges during a merge does not allocate range objects.
+ * A prefix is stored as its left-aligned {@code hi}/{@code lo} words and its length, as in {@link IPNode}.
+ */
+class PrefixQueue {
+    private long[] his = new long[16];
+    private long[] los = new long[16];
+    private int[] lengths = new int[16];
+    private int head, size;
+
+    void add(long hi, long lo, int length) {
+        if (size == lengths.length) {
+            grow();
+        }
+        int tail = (head + size) & (lengths.length - 1);
+        his[tail] = hi;
+        los[tail] = lo;
+        lengths[tail] = length;
+        size++;
+    }
+
+    void clear() {
+        head = 0;
+        size = 0;
+    }
+
+    boolean isEmpty() {
+        return size == 0;
+    }
+
+    /**
+     * Removes the head of the queue and returns the slot it was stored in. The slot stays valid until the next add.
+     */
+    int poll() {
+        int slot = head;
+        head = (head + 1) & (lengths.length - 1);
+        size--;
+        return slot;
+    }
+
+    long hi(int slot) {
+        return his[slot];
+    }
+
+    long lo(int slot) {
+        return los[slot];
+    }
+
+    int length(int slot) {
+        return lengths[slot];
+    }
+
+    private void grow() {
+        int capacity = lengths.length * 2;
+        long[] newHis = new long[capacity];
+        long[] newLos = new long[capacity];
+        int[] newLengths = new int[capacity];
+        for (int i = 0; i < size; i++) {
+            int slot = (head + i) & (lengths.length - 1);
+            newHis[i] = his[slot];
+            newLos[i] = los[slot];
+            newLengths[i] = lengths[slot];
+        }
+        his = newHis;
+        los = newLos;
+        lengths = newLengths;
+        head = 0;
+    }
+}
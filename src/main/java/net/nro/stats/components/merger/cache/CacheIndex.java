@@ -0,0 +1,276 @@
+/**
+ * The BSD License
+ *
+ * Copyright (c) 2010-2016 RIPE NCC
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *   - Redistributions of source code must retain the above copyright notice,
+ *     this list of conditions and the following disclaimer.
+ *   - Redistributions in binary form must reproduce the above copyright notice,
+ *     this list of conditions and the following disclaimer in the documentation
+ *     and/or other materials provided with the distribution.
+ *   - Neither the name of the RIPE NCC nor the names of its contributors may be
+ *     used to endorse or promote products derived from this software without
+ *     specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package net.nro.stats.components.merger.cache;
+
+import com.google.common.hash.Hashing;
+import com.google.common.io.Files;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.regex.Pattern;
+
+/**
+ * Index of the files in the cache folder, persisted next to them so the cache survives a restart.
+ * Downloads go to a partial file that is only moved in place once complete, and the index itself is
+ * replaced atomically, so after a crash an entry either matches its file or is dropped on load.
+ */
+class CacheIndex {
+
+    static final String INDEX_FILE = "index.properties";
+    static final String PARTIAL_SUFFIX = ".part";
+
+    private static final Pattern CACHED_FILE = Pattern.compile("[0-9a-f]{32}(\\" + PARTIAL_SUFFIX + ")?");
+
+    private Logger logger = LoggerFactory.getLogger(this.getClass());
+
+    private final File rootDir;
+    private final long maxAge;
+    private final long maxSize;
+    private final Map<String, Entry> entries = new ConcurrentHashMap<>();
+
+    CacheIndex(File rootDir, long maxAge, long maxSize) {
+        this.rootDir = rootDir;
+        this.maxAge = maxAge;
+        this.maxSize = maxSize;
+    }
+
+    File fileFor(String key) {
+        return new File(rootDir, key);
+    }
+
+    File partialFileFor(String key) {
+        return new File(rootDir, key + PARTIAL_SUFFIX);
+    }
+
+    Entry get(String key) {
+        return entries.get(key);
+    }
+
+    synchronized void put(String key, Entry entry) {
+        entries.put(key, entry);
+        evict(entry.getFetchTime(), key);
+        store();
+    }
+
+    synchronized void load() {
+        entries.clear();
+        File indexFile = new File(rootDir, INDEX_FILE);
+        if (indexFile.exists()) {
+            Properties properties = new Properties();
+            try (InputStream inputStream = new FileInputStream(indexFile)) {
+                properties.load(inputStream);
+            } catch (IOException e) {
+                logger.warn("Unable to read cache index " + indexFile, e);
+            }
+            for (String name : properties.stringPropertyNames()) {
+                if (name.endsWith(".uri")) {
+                    String key = name.substring(0, name.length() - ".uri".length());
+                    Entry entry = Entry.read(key, properties);
+                    if (entry != null && isIntact(key, entry)) {
+                        entries.put(key, entry);
+                    }
+                }
+            }
+        }
+        File[] files = rootDir.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                if (CACHED_FILE.matcher(file.getName()).matches() && !entries.containsKey(file.getName())) {
+                    logger.debug("Removing unindexed cache file {}", file);
+                    file.delete();
+                }
+            }
+        }
+        evict(System.currentTimeMillis(), null);
+        store();
+        logger.info("Loaded {} cached files from {}", entries.size(), rootDir);
+    }
+
+    private boolean isIntact(String key, Entry entry) {
+        File file = fileFor(key);
+        try {
+            return file.length() == entry.getLength() && checksum(file).equals(entry.getChecksum());
+        } catch (IOException e) {
+            logger.warn("Unable to verify cached file " + file, e);
+            return false;
+        }
+    }
+
+    /**
+     * Removes entries older than the maximum age, then the oldest ones until the total size fits. The entry
+     * being served right now is kept even if it alone exceeds the limit.
+     */
+    private void evict(long now, String keep) {
+        List<String> keys = new ArrayList<>(entries.keySet());
+        keys.sort(Comparator.comparingLong(key -> entries.get(key).getFetchTime()));
+        long size = entries.values().stream().mapToLong(Entry::getLength).sum();
+        for (String key : keys) {
+            Entry entry = entries.get(key);
+            if (!key.equals(keep) && (now - entry.getFetchTime() > maxAge || size > maxSize)) {
+                logger.debug("Evicting {} from the cache", entry.getUri());
+                entries.remove(key);
+                fileFor(key).delete();
+                size -= entry.getLength();
+            }
+        }
+    }
+
+    private void store() {
+        Properties properties = new Properties();
+        entries.forEach((key, entry) -> entry.write(key, properties));
+        rootDir.mkdirs();
+        File indexFile = new File(rootDir, INDEX_FILE);
+        File partialFile = new File(rootDir, INDEX_FILE + PARTIAL_SUFFIX);
+        try {
+            try (FileOutputStream outputStream = new FileOutputStream(partialFile)) {
+                properties.store(outputStream, null);
+                outputStream.getFD().sync();
+            }
+            java.nio.file.Files.move(partialFile.toPath(), indexFile.toPath(),
+                    StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            logger.warn("Unable to write cache index " + indexFile, e);
+        }
+    }
+
+    static String checksum(File file) throws IOException {
+        return Files.hash(file, Hashing.sha256()).toString();
+    }
+
+    static class Entry {
+        private final String uri;
+        private final String statusLine;
+        private final String contentType;
+        private final String eTag;
+        private final String lastModified;
+        private final long length;
+        private final String checksum;
+        private final long fetchTime;
+
+        Entry(String uri, String statusLine, String contentType, String eTag, String lastModified, long length, String checksum, long fetchTime) {
+            this.uri = uri;
+            this.statusLine = statusLine;
+            this.contentType = contentType;
+            this.eTag = eTag;
+            this.lastModified = lastModified;
+            this.length = length;
+            this.checksum = checksum;
+            this.fetchTime = fetchTime;
+        }
+
+        public String getUri() {
+            return uri;
+        }
+
+        public String getStatusLine() {
+            return statusLine;
+        }
+
+        public String getContentType() {
+            return contentType;
+        }
+
+        public String getETag() {
+            return eTag;
+        }
+
+        public String getLastModified() {
+            return lastModified;
+        }
+
+        public long getLength() {
+            return length;
+        }
+
+        public String getChecksum() {
+            return checksum;
+        }
+
+        public long getFetchTime() {
+            return fetchTime;
+        }
+
+        /**
+         * @return the entry as revalidated at the given time, taking the validators the server sent, if any
+         */
+        Entry revalidated(String eTag, String lastModified, long fetchTime) {
+            return new Entry(uri, statusLine, contentType, eTag != null ? eTag : this.eTag,
+                    lastModified != null ? lastModified : this.lastModified, length, checksum, fetchTime);
+        }
+
+        private void write(String key, Properties properties) {
+            setIfPresent(properties, key + ".uri", uri);
+            setIfPresent(properties, key + ".status", statusLine);
+            setIfPresent(properties, key + ".contentType", contentType);
+            setIfPresent(properties, key + ".etag", eTag);
+            setIfPresent(properties, key + ".lastModified", lastModified);
+            properties.setProperty(key + ".length", String.valueOf(length));
+            setIfPresent(properties, key + ".checksum", checksum);
+            properties.setProperty(key + ".fetchTime", String.valueOf(fetchTime));
+        }
+
+        private static void setIfPresent(Properties properties, String name, String value) {
+            if (value != null) {
+                properties.setProperty(name, value);
+            }
+        }
+
+        private static Entry read(String key, Properties properties) {
+            if (properties.getProperty(key + ".status") == null) {
+                return null;
+            }
+            try {
+                return new Entry(
+                        properties.getProperty(key + ".uri"),
+                        properties.getProperty(key + ".status"),
+                        properties.getProperty(key + ".contentType"),
+                        properties.getProperty(key + ".etag"),
+                        properties.getProperty(key + ".lastModified"),
+                        Long.parseLong(properties.getProperty(key + ".length")),
+                        properties.getProperty(key + ".checksum"),
+                        Long.parseLong(properties.getProperty(key + ".fetchTime")));
+            } catch (NumberFormatException e) {
+                return null;
+            }
+        }
+    }
+}
@@ -30,16 +30,19 @@
 package net.nro.stats.components.merger.cache;
 
 import org.apache.commons.io.IOUtils;
-import org.apache.http.HttpEntity;
+import org.apache.http.Header;
 import org.apache.http.HttpException;
+import org.apache.http.HttpHeaders;
+import org.apache.http.HttpResponse;
+import org.apache.http.HttpStatus;
 import org.apache.http.client.methods.CloseableHttpResponse;
 import org.apache.http.client.methods.HttpExecutionAware;
 import org.apache.http.client.methods.HttpRequestWrapper;
 import org.apache.http.client.protocol.HttpClientContext;
 import org.apache.http.conn.routing.HttpRoute;
 import org.apache.http.entity.ContentType;
-import org.apache.http.entity.FileEntity;
 import org.apache.http.impl.execchain.ClientExecChain;
+import org.apache.http.message.BasicLineParser;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -47,22 +50,20 @@ import java.io.File;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
-import java.io.OutputStream;
-import java.util.Map;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
 
 class FallBackCachingExec implements ClientExecChain {
 
     private Logger logger = LoggerFactory.getLogger(this.getClass());
 
     private final ClientExecChain backend;
-    private final File rootDir;
-    private final Map<String, CachedHttpResponse> cache;
+    private final CacheIndex index;
     private final boolean rejectEmptyResponse;
 
-    public FallBackCachingExec(final ClientExecChain mainExec, File rootDir, Map<String, CachedHttpResponse> cache, boolean rejectEmptyResponse) {
+    public FallBackCachingExec(final ClientExecChain mainExec, CacheIndex index, boolean rejectEmptyResponse) {
         this.backend = mainExec;
-        this.rootDir = rootDir;
-        this.cache = cache;
+        this.index = index;
         this.rejectEmptyResponse = rejectEmptyResponse;
     }
 
@@ -73,61 +74,107 @@ class FallBackCachingExec implements ClientExecChain {
             final HttpClientContext clientContext,
             final HttpExecutionAware execAware) throws IOException, HttpException {
 
-        CachedHttpResponse cachedHttpResponse = null;
+        String uri = request.getOriginal().getRequestLine().getUri();
+        String key = MD5(uri);
+        CacheIndex.Entry entry = index.get(key);
+        boolean revalidate = entry != null && isSuccessful(entry);
+        if (revalidate) {
+            addConditionalHeaders(request, entry);
+        }
+
         try {
             logger.trace("Making real request");
             CloseableHttpResponse response = backend.execute(route, request, clientContext, execAware);
+            if (response.getStatusLine().getStatusCode() == HttpStatus.SC_NOT_MODIFIED && revalidate) {
+                logger.debug("{} has not been modified, using cached file {}", uri, key);
+                // the cached file is as fresh as a new download, so it is not evicted for its age
+                CacheIndex.Entry revalidated = entry.revalidated(headerValue(response, HttpHeaders.ETAG),
+                        headerValue(response, HttpHeaders.LAST_MODIFIED), System.currentTimeMillis());
+                response.close();
+                index.put(key, revalidated);
+                clientContext.setAttribute(FallBackCachingHttpClient.NOT_MODIFIED, Boolean.TRUE);
+                return createCachedResponse(key, revalidated);
+            }
             if (rejectEmptyResponse && response.getEntity().getContentLength() == 0)
                 throw new EmptyContentException();
-            cachedHttpResponse = createCachedResponse(request, response);
-            return cachedHttpResponse;
+            return createCachedResponse(key, uri, response);
         }
-        catch (HttpException exp) {
+        catch (HttpException | IOException exp) {
             logger.trace("Using cached data");
-            cachedHttpResponse = getCachedResponse(request);
+            CachedHttpResponse cachedHttpResponse = getCachedResponse(key);
             if (cachedHttpResponse == null)
                 throw exp;
+            return cachedHttpResponse;
         }
-        return cachedHttpResponse;
     }
 
-    private CachedHttpResponse createCachedResponse(final HttpRequestWrapper request, final CloseableHttpResponse response) throws IOException {
-        CachedHttpResponse cachedHttpResponse = new CachedHttpResponse();
-        String uri = request.getOriginal().getRequestLine().getUri();
-        String fileName = MD5(uri);
-        File file = new File(rootDir, fileName);
+    private boolean isSuccessful(CacheIndex.Entry entry) {
+        return BasicLineParser.parseStatusLine(entry.getStatusLine(), null).getStatusCode() == HttpStatus.SC_OK;
+    }
+
+    private void addConditionalHeaders(HttpRequestWrapper request, CacheIndex.Entry entry) {
+        if (entry.getETag() != null) {
+            request.setHeader(HttpHeaders.IF_NONE_MATCH, entry.getETag());
+        }
+        if (entry.getLastModified() != null) {
+            request.setHeader(HttpHeaders.IF_MODIFIED_SINCE, entry.getLastModified());
+        }
+    }
+
+    private CachedHttpResponse createCachedResponse(String key, String uri, CloseableHttpResponse response) throws IOException {
+        File file = index.fileFor(key);
         logger.trace("caching url: " + uri + " to file: " + file);
-        HttpEntity httpEntity = createCachedFileEntity(response.getEntity(), file);
-        cachedHttpResponse.setEntity(httpEntity);
-        cachedHttpResponse.setStatusLine(response.getStatusLine());
+        long length = createCachedFile(response, key);
+        CacheIndex.Entry entry = new CacheIndex.Entry(uri,
+                response.getStatusLine().toString(),
+                headerValue(response, HttpHeaders.CONTENT_TYPE),
+                headerValue(response, HttpHeaders.ETAG),
+                headerValue(response, HttpHeaders.LAST_MODIFIED),
+                length,
+                CacheIndex.checksum(file),
+                System.currentTimeMillis());
+        index.put(key, entry);
+        CachedHttpResponse cachedHttpResponse = createCachedResponse(key, entry);
         cachedHttpResponse.setLocale(response.getLocale());
         cachedHttpResponse.setHeaders(response.getAllHeaders());
-        cache.put(fileName, cachedHttpResponse);
         return cachedHttpResponse;
     }
 
-    private HttpEntity createCachedFileEntity(HttpEntity originalEntity, File file) throws IOException {
-        ContentType contentType = ContentType.get(originalEntity);
-        File cachedFile = createCachedFile(originalEntity, file);
-        return new FileEntity(cachedFile, contentType);
+    private CachedHttpResponse createCachedResponse(String key, CacheIndex.Entry entry) {
+        CachedHttpResponse cachedHttpResponse = new CachedHttpResponse();
+        ContentType contentType = entry.getContentType() == null ? null : ContentType.parse(entry.getContentType());
+        cachedHttpResponse.setEntity(new CachedFileEntity(index.fileFor(key), contentType));
+        cachedHttpResponse.setStatusLine(BasicLineParser.parseStatusLine(entry.getStatusLine(), null));
+        return cachedHttpResponse;
     }
 
-    private File createCachedFile(HttpEntity originalEntity, File file) throws IOException {
-        if (file.exists())
-            file.delete();
-        rootDir.mkdirs();
-        OutputStream outputStream = new FileOutputStream(file);
-        InputStream inputStream = originalEntity.getContent();
-        IOUtils.copy(inputStream, outputStream);
-        inputStream.close();
-        outputStream.close();
-        return file;
+    /**
+     * Downloads into a partial file first so an interrupted download never replaces a complete one.
+     */
+    private long createCachedFile(CloseableHttpResponse response, String key) throws IOException {
+        File partialFile = index.partialFileFor(key);
+        partialFile.getParentFile().mkdirs();
+        long length;
+        try (InputStream inputStream = response.getEntity().getContent();
+             FileOutputStream outputStream = new FileOutputStream(partialFile)) {
+            length = IOUtils.copyLarge(inputStream, outputStream);
+            outputStream.getFD().sync();
+        } finally {
+            response.close();
+        }
+        Files.move(partialFile.toPath(), index.fileFor(key).toPath(),
+                StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        return length;
     }
 
-    private CachedHttpResponse getCachedResponse(HttpRequestWrapper request) {
-        String uri = request.getOriginal().getRequestLine().getUri();
-        String key = MD5(uri);
-        return cache.get(key);
+    private String headerValue(HttpResponse response, String name) {
+        Header header = response.getFirstHeader(name);
+        return header == null ? null : header.getValue();
+    }
+
+    private CachedHttpResponse getCachedResponse(String key) {
+        CacheIndex.Entry entry = index.get(key);
+        return entry == null ? null : createCachedResponse(key, entry);
     }
 
     public String MD5(String source) {
@@ -38,30 +38,34 @@ import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Component;
 
 import java.io.File;
-import java.util.HashMap;
-import java.util.Map;
+import java.util.concurrent.TimeUnit;
 
 @Component
 public class FallBackCachingHttpClient extends HttpClientBuilder {
 
+    /**
+     * Context attribute set to true when the server reported the cached copy as still current.
+     */
+    public static final String NOT_MODIFIED = "nro.stats.cache.not-modified";
+
     private Logger logger = LoggerFactory.getLogger(this.getClass());
-    private final Map<String, CachedHttpResponse> cache;
-    private File rootDir;
+    private final CacheIndex index;
     private Boolean rejectEmptyResponse;
 
     private CacheConfig config;
 
     @Autowired
     public FallBackCachingHttpClient(CacheConfig config) {
-        cache = new HashMap<>();
         this.config = config;
-        this.rootDir = new File(config.getRoot());
+        this.index = new CacheIndex(new File(config.getRoot()),
+                TimeUnit.DAYS.toMillis(config.getMaxAgeDays()), config.getMaxSizeMb() * 1024L * 1024L);
+        this.index.load();
         this.rejectEmptyResponse = config.getRejectEmpty();
     }
 
     @Override
     protected ClientExecChain decorateMainExec(final ClientExecChain mainExec) {
-        return new FallBackCachingExec(mainExec, rootDir, cache, rejectEmptyResponse);
+        return new FallBackCachingExec(mainExec, index, rejectEmptyResponse);
     }
 
 
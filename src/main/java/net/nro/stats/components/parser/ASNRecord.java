@@ -33,37 +33,93 @@ import net.nro.stats.resources.StatsSource;
 import net.ripe.commons.ip.Asn;
 import net.ripe.commons.ip.AsnRange;
 import net.ripe.commons.ip.StartAndSizeComparator;
-import org.apache.commons.csv.CSVRecord;
 
+import java.io.IOException;
 import java.util.Comparator;
 
 public class ASNRecord extends Record<AsnRange> {
 
+    private final long start;
+    private final long count;
+
     public ASNRecord(StatsSource source, String registry, String countryCode, String start, String value, String date, String status, String regId, String... extensions) {
-        super(source, registry, countryCode, "asn", start, value, date, status, regId, extensions);
+        super(source, registry, countryCode, date, status, regId, extensions);
+        this.start = Long.parseLong(start);
+        this.count = Long.parseLong(value);
+    }
+
+    public ASNRecord(StatsSource source, String registry, String countryCode, long start, long count, String date, String status, String regId, String... extensions) {
+        super(source, registry, countryCode, date, status, regId, extensions);
+        this.start = start;
+        this.count = count;
     }
 
     public ASNRecord(String registry, String countryCode, String start, String value, String date, String status, String regId, String... extensions) {
-        super(registry, countryCode, "asn", start, value, date, status, regId, extensions);
+        this(StatsSource.ESTATS, registry, countryCode, start, value, date, status, regId, extensions);
     }
 
-    public ASNRecord(CSVRecord line, String defaultDate) {
-        super(line, defaultDate);
+    public ASNRecord(LineTokenizer line, String defaultDate) {
+        this(StatsSource.ESTATS, line, defaultDate);
     }
 
-    public ASNRecord(StatsSource source, CSVRecord line, String defaultDate) {
+    public ASNRecord(StatsSource source, LineTokenizer line, String defaultDate) {
         super(source, line, defaultDate);
+        this.start = line.getLong(3);
+        this.count = line.getLong(4);
+    }
+
+    private ASNRecord(ASNRecord record, AsnRange range, long start, long count) {
+        super(record, range);
+        this.start = start;
+        this.count = count;
+    }
+
+    private ASNRecord(ASNRecord record, AsnRange range, long start, long count, String countryCode) {
+        super(record, range, countryCode);
+        this.start = start;
+        this.count = count;
     }
 
-    public static boolean fits(CSVRecord line) {
-        return line.size() > 6 && "asn".equals(line.get(2));
+    public static boolean fits(LineTokenizer line) {
+        return line.size() > 6 && line.fieldEquals(2, "asn");
     }
 
     @Override
-    public AsnRange getRange() {
-        Asn start = Asn.of(getStart());
-        Asn end = Asn.of(Long.parseLong(getStart()) + Long.parseLong(getValue()) - 1);
-        return AsnRange.from(start).to(end);
+    public String getType() {
+        return "asn";
+    }
+
+    @Override
+    public String getStart() {
+        return Long.toString(start);
+    }
+
+    @Override
+    public String getValue() {
+        return Long.toString(count);
+    }
+
+    @Override
+    protected void encodeStart(LineEncoder encoder) throws IOException {
+        encoder.append(start);
+    }
+
+    @Override
+    protected void encodeValue(LineEncoder encoder) throws IOException {
+        encoder.append(count);
+    }
+
+    public long getStartAsn() {
+        return start;
+    }
+
+    public long getAsnCount() {
+        return count;
+    }
+
+    @Override
+    protected AsnRange createRange() {
+        return AsnRange.from(Asn.of(start)).to(Asn.of(start + count - 1));
     }
 
     @Override
@@ -71,12 +127,17 @@ public class ASNRecord extends Record<AsnRange> {
         return StartAndSizeComparator.<Asn, AsnRange>get();
     }
 
+    @Override
+    public boolean isSameAs(Record<?> other) {
+        return super.isSameAs(other) && start == ((ASNRecord) other).start && count == ((ASNRecord) other).count;
+    }
+
     @Override
     public ASNRecord clone(AsnRange range) {
-        return new ASNRecord(getSource(), getRegistry(), getCountryCode(), range.start().asBigInteger().toString(), range.size().toString(), getDate(), getStatus(), getRegId(), getExtensions());
+        return new ASNRecord(this, range, range.start().asBigInteger().longValue(), range.size().longValue());
     }
 
     public ASNRecord clone(AsnRange range, String countryCode) {
-        return new ASNRecord(getSource(), getRegistry(), countryCode, range.start().asBigInteger().toString(), range.size().toString(), getDate(), getStatus(), getRegId(), getExtensions());
+        return new ASNRecord(this, range, range.start().asBigInteger().longValue(), range.size().longValue(), countryCode);
     }
 }
@@ -32,7 +32,6 @@ package net.nro.stats.components.parser;
 import net.nro.stats.resources.StatsSource;
 import net.ripe.commons.ip.Asn;
 import net.ripe.commons.ip.AsnRange;
-import org.apache.commons.csv.CSVRecord;
 
 public class ASNTransferRecord implements Line {
     private final StatsSource source;
@@ -40,7 +39,7 @@ public class ASNTransferRecord implements Line {
     private final String asn;
     private final String countryCode;
 
-    public ASNTransferRecord(CSVRecord record) {
+    public ASNTransferRecord(LineTokenizer record) {
         this.source = StatsSource.ASN_TRANSFER;
         this.asn = record.get(0);
         this.countryCode = record.get(1);
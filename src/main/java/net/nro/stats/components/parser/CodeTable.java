@@ -0,0 +1,83 @@
+/**
+ * The BSD License
+ *
+ * Copyright (c) 2010-2016 RIPE NCC
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *   - Redistributions of source code must retain the above copyright notice,
+ *     this list of conditions and the following disclaimer.
+ *   - Redistributions in binary form must reproduce the above copyright notice,
+ *     this list of conditions and the following disclaimer in the documentation
+ *     and/or other materials provided with the distribution.
+ *   - Neither the name of the RIPE NCC nor the names of its contributors may be
+ *     used to endorse or promote products derived from this software without
+ *     specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package net.nro.stats.components.parser;
+
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Assigns a small code to every distinct value of a text field, so a record can keep the code instead of its own
+ * copy of the text. Code 0 stands for null. Codes are only ever added, the tables are shared by all records, so
+ * they are only meant for fields with few distinct values; a value that does not fit is rejected like a malformed
+ * field.
+ */
+class CodeTable {
+    private final String name;
+    private final int capacity;
+    private final ConcurrentMap<String, Integer> codes = new ConcurrentHashMap<>();
+    private volatile String[] values = new String[16];
+    private int size = 1;
+
+    CodeTable(String name, int capacity) {
+        this.name = name;
+        this.capacity = capacity;
+    }
+
+    int code(String value) {
+        if (value == null) {
+            return 0;
+        }
+        Integer code = codes.get(value);
+        return code != null ? code : add(value);
+    }
+
+    String value(int code) {
+        return values[code];
+    }
+
+    private synchronized int add(String value) {
+        Integer code = codes.get(value);
+        if (code != null) {
+            return code;
+        }
+        if (size == capacity) {
+            throw new IllegalArgumentException("Too many distinct values for " + name + ", can not add " + value);
+        }
+        String[] current = values;
+        if (size == current.length) {
+            current = Arrays.copyOf(current, size * 2);
+        }
+        current[size] = value;
+        values = current;
+        codes.put(value, size);
+        return size++;
+    }
+}
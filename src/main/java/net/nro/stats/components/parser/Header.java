@@ -30,7 +30,8 @@
 package net.nro.stats.components.parser;
 
 import net.nro.stats.resources.StatsSource;
-import org.apache.commons.csv.CSVRecord;
+
+import java.io.IOException;
 
 public class Header implements Line {
     private final StatsSource source;
@@ -57,7 +58,7 @@ public class Header implements Line {
         this(StatsSource.ESTATS, version, registry, serial, records, startDate, endDate, utcOffset);
     }
 
-    public Header(StatsSource source, CSVRecord line) {
+    public Header(StatsSource source, LineTokenizer line) {
         if (!fits(line)) throw new RuntimeException("Given line was not a Header");
 
         this.source = source;
@@ -70,7 +71,7 @@ public class Header implements Line {
         this.utcOffset = line.get(6);
     }
 
-    public Header(CSVRecord line) {
+    public Header(LineTokenizer line) {
         this(StatsSource.ESTATS, line);
     }
 
@@ -91,9 +92,9 @@ public class Header implements Line {
         return serial;
     }
 
-    public static boolean fits(CSVRecord line) {
+    public static boolean fits(LineTokenizer line) {
         // Afrinic still has version '2' in their extended-delegated stats
-        return line.size() == 7 && ("2.3".equals(line.get(0)) || "2".equals(line.get(0)));
+        return line.size() == 7 && (line.fieldEquals(0, "2.3") || line.fieldEquals(0, "2"));
     }
 
     public String getRecords() {
@@ -112,6 +113,12 @@ public class Header implements Line {
         return utcOffset;
     }
 
+    @Override
+    public void encode(LineEncoder encoder) throws IOException {
+        encoder.append(version).append('|').append(registry).append('|').append(serial).append('|')
+                .append(records).append('|').append(startDate).append('|').append(endDate).append('|').append(utcOffset);
+    }
+
     @Override
     public String toString() {
         return String.format("%s|%s|%s|%s|%s|%s|%s", version, registry, serial, records, startDate, endDate, utcOffset);
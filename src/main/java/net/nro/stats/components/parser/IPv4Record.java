@@ -33,39 +33,125 @@ import net.nro.stats.resources.StatsSource;
 import net.ripe.commons.ip.Ipv4;
 import net.ripe.commons.ip.Ipv4Range;
 import net.ripe.commons.ip.StartAndSizeComparator;
-import org.apache.commons.csv.CSVRecord;
 
-import java.math.BigInteger;
+import java.io.IOException;
+import java.util.Arrays;
 import java.util.Comparator;
 
 public class IPv4Record extends Record<Ipv4Range> {
 
+    private final long start;
+    private final long size;
+    private volatile long[] prefixes;
+
     public IPv4Record(String registry, String countryCode, String start, String value, String date, String status, String regId, String... extensions) {
-        super(registry, countryCode, "ipv4", start, value, date, status, regId, extensions);
+        this(StatsSource.ESTATS, registry, countryCode, start, value, date, status, regId, extensions);
     }
 
     public IPv4Record(StatsSource source, String registry, String countryCode, String start, String value, String date, String status, String regId, String... extensions) {
-        super(source, registry, countryCode, "ipv4", start, value, date, status, regId, extensions);
+        super(source, registry, countryCode, date, status, regId, extensions);
+        this.start = parseAddress(start);
+        this.size = Long.parseLong(value);
+    }
+
+    public IPv4Record(StatsSource source, String registry, String countryCode, long start, long size, String date, String status, String regId, String... extensions) {
+        super(source, registry, countryCode, date, status, regId, extensions);
+        this.start = start;
+        this.size = size;
     }
 
-    public IPv4Record(CSVRecord line, String defaultDate) {
-        super(line, defaultDate);
+    public IPv4Record(LineTokenizer line, String defaultDate) {
+        this(StatsSource.ESTATS, line, defaultDate);
     }
     
-    public IPv4Record(StatsSource source, CSVRecord line, String defaultDate) {
+    public IPv4Record(StatsSource source, LineTokenizer line, String defaultDate) {
         super(source, line, defaultDate);
+        this.start = parseAddress(line.get(3));
+        this.size = line.getLong(4);
+    }
+
+    private IPv4Record(IPv4Record record, Ipv4Range range, long start, long size) {
+        super(record, range);
+        this.start = start;
+        this.size = size;
+    }
+
+    public static boolean fits(LineTokenizer line) {
+        return line.size() > 6 && line.fieldEquals(2, "ipv4");
+    }
+
+    @Override
+    public String getType() {
+        return "ipv4";
+    }
+
+    /**
+     * @return the start address in canonical form, which is not the text of the input when that had leading zeros
+     */
+    @Override
+    public String getStart() {
+        return formatAddress(start);
+    }
+
+    @Override
+    public String getValue() {
+        return Long.toString(size);
+    }
+
+    @Override
+    protected void encodeStart(LineEncoder encoder) throws IOException {
+        encoder.append((start >>> 24) & 0xff).append('.')
+                .append((start >>> 16) & 0xff).append('.')
+                .append((start >>> 8) & 0xff).append('.')
+                .append(start & 0xff);
+    }
+
+    @Override
+    protected void encodeValue(LineEncoder encoder) throws IOException {
+        encoder.append(size);
+    }
+
+    public long getStartAddress() {
+        return start;
+    }
+
+    public long getAddressCount() {
+        return size;
+    }
+
+    /**
+     * Returns the CIDR prefixes covering the range in address order, each packed as the start address shifted left
+     * by 8 bits and the prefix length in the low 8 bits. The prefixes are computed on first use.
+     */
+    public long[] getPrefixes() {
+        long[] result = prefixes;
+        if (result == null) {
+            result = createPrefixes();
+            prefixes = result;
+        }
+        return result;
     }
 
-    public static boolean fits(CSVRecord line) {
-        return line.size() > 6 && "ipv4".equals(line.get(2));
+    private long[] createPrefixes() {
+        long end = start + size - 1;
+        if (end < start || end > Ipv4.MAXIMUM_VALUE) {
+            throw new IllegalArgumentException("Invalid IPv4 range " + getStart() + " size " + getValue());
+        }
+        long[] result = new long[Ipv4.NUMBER_OF_BITS * 2];
+        int count = 0;
+        for (long address = start; address <= end; ) {
+            // largest block that is aligned on the address and still fits before end
+            int bits = Math.min(address == 0 ? Ipv4.NUMBER_OF_BITS : Long.numberOfTrailingZeros(address),
+                    63 - Long.numberOfLeadingZeros(end - address + 1));
+            result[count++] = address << 8 | (Ipv4.NUMBER_OF_BITS - bits);
+            address += 1L << bits;
+        }
+        return Arrays.copyOf(result, count);
     }
 
     @Override
-    public Ipv4Range getRange() {
-        Ipv4 start = Ipv4.of(getStart());
-        BigInteger endInt = start.asBigInteger().add(BigInteger.valueOf(Long.parseLong(getValue()) - 1));
-        Ipv4 end = Ipv4.of(endInt);
-        return Ipv4Range.from(start).to(end);
+    protected Ipv4Range createRange() {
+        return Ipv4Range.from(Ipv4.of(start)).to(Ipv4.of(start + size - 1));
     }
 
     @Override
@@ -73,9 +159,47 @@ public class IPv4Record extends Record<Ipv4Range> {
         return StartAndSizeComparator.<Ipv4, Ipv4Range>get();
     }
 
+    @Override
+    public boolean isSameAs(Record<?> other) {
+        return super.isSameAs(other) && start == ((IPv4Record) other).start && size == ((IPv4Record) other).size;
+    }
+
     @Override
     public IPv4Record clone(Ipv4Range range) {
-        return new IPv4Record(getSource(), getRegistry(), getCountryCode(), range.start().toString(), range.size().toString(), getDate(), getStatus(),getRegId(), getExtensions());
+        return new IPv4Record(this, range, range.start().asBigInteger().longValue(), range.size().longValue());
     }
 
+    public IPv4Record clone(long start, long size) {
+        return new IPv4Record(this, null, start, size);
+    }
+
+    static long parseAddress(String address) {
+        long value = 0;
+        int octet = -1, octets = 0, i = 0;
+        for (; i < address.length(); i++) {
+            char c = address.charAt(i);
+            if (c >= '0' && c <= '9' && octet < 256) {
+                octet = (octet < 0 ? 0 : octet * 10) + (c - '0');
+            } else if (c == '.' && octet >= 0 && octet < 256 && octets < 3) {
+                value = (value << 8) | octet;
+                octet = -1;
+                octets++;
+            } else {
+                break;
+            }
+        }
+        if (i < address.length() || octets != 3 || octet < 0 || octet > 255) {
+            // not a plain dotted quad, leave it to the library to parse or reject
+            return Ipv4.of(address).asBigInteger().longValue();
+        }
+        return (value << 8) | octet;
+    }
+
+    static String formatAddress(long address) {
+        return new StringBuilder(15)
+                .append((address >>> 24) & 0xff).append('.')
+                .append((address >>> 16) & 0xff).append('.')
+                .append((address >>> 8) & 0xff).append('.')
+                .append(address & 0xff).toString();
+    }
 }
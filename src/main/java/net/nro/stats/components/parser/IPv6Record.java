@@ -34,37 +34,100 @@ import net.ripe.commons.ip.Ipv6;
 import net.ripe.commons.ip.Ipv6Range;
 import net.ripe.commons.ip.PrefixUtils;
 import net.ripe.commons.ip.StartAndSizeComparator;
-import org.apache.commons.csv.CSVRecord;
 
+import java.io.IOException;
+import java.math.BigInteger;
+import java.nio.ByteBuffer;
 import java.util.Comparator;
 
+/**
+ * IPv6 record keeping its start address as two longs: the upper and the lower 64 bits.
+ */
 public class IPv6Record extends Record<Ipv6Range> {
 
+    private static final int GROUPS = 8;
+
+    private final long startHigh;
+    private final long startLow;
+    private final int prefixLength;
+
     public IPv6Record(String registry, String countryCode, String start, String value, String date, String status, String regId, String... extensions) {
-        super(registry, countryCode, "ipv6", start, value, date, status, regId, extensions);
+        this(StatsSource.ESTATS, registry, countryCode, start, value, date, status, regId, extensions);
     }
 
     public IPv6Record(StatsSource source, String registry, String countryCode, String start, String value, String date, String status, String regId, String... extensions) {
-        super(source, registry, countryCode, "ipv6", start, value, date, status, regId, extensions);
+        super(source, registry, countryCode, date, status, regId, extensions);
+        long[] address = parseAddress(start);
+        this.startHigh = address[0];
+        this.startLow = address[1];
+        this.prefixLength = Integer.parseInt(value);
+    }
+
+    public IPv6Record(StatsSource source, String registry, String countryCode, long startHigh, long startLow, int prefixLength, String date, String status, String regId, String... extensions) {
+        super(source, registry, countryCode, date, status, regId, extensions);
+        this.startHigh = startHigh;
+        this.startLow = startLow;
+        this.prefixLength = prefixLength;
     }
 
-    public IPv6Record(CSVRecord line, String defaultDate) {
-        super(line, defaultDate);
+    public IPv6Record(LineTokenizer line, String defaultDate) {
+        this(StatsSource.ESTATS, line, defaultDate);
     }
 
-    public IPv6Record(StatsSource source, CSVRecord line, String defaultDate) {
+    public IPv6Record(StatsSource source, LineTokenizer line, String defaultDate) {
         super(source, line, defaultDate);
+        long[] address = parseAddress(line.get(3));
+        this.startHigh = address[0];
+        this.startLow = address[1];
+        this.prefixLength = (int) line.getLong(4);
+    }
+
+    private IPv6Record(IPv6Record record, Ipv6Range range, long startHigh, long startLow, int prefixLength) {
+        super(record, range);
+        this.startHigh = startHigh;
+        this.startLow = startLow;
+        this.prefixLength = prefixLength;
+    }
+
+    public static boolean fits(LineTokenizer line) {
+        return line.size() > 6 && line.fieldEquals(2, "ipv6");
+    }
+
+    @Override
+    public String getType() {
+        return "ipv6";
+    }
+
+    /**
+     * @return the start address in canonical form, which is not the text of the input when that was not compressed
+     * or not in lower case
+     */
+    @Override
+    public String getStart() {
+        return formatAddress(startHigh, startLow);
+    }
+
+    @Override
+    public String getValue() {
+        return Integer.toString(prefixLength);
+    }
+
+    public long getStartHigh() {
+        return startHigh;
+    }
+
+    public long getStartLow() {
+        return startLow;
     }
 
-    public static boolean fits(CSVRecord line) {
-        return line.size() > 6 && "ipv6".equals(line.get(2));
+    public int getPrefixLength() {
+        return prefixLength;
     }
 
     @Override
-    public Ipv6Range getRange() {
-        Ipv6 start = Ipv6.of(getStart());
-        int prefix = Integer.parseInt(getValue());
-        return Ipv6Range.from(start).andPrefixLength(prefix);
+    protected Ipv6Range createRange() {
+        byte[] address = ByteBuffer.allocate(16).putLong(startHigh).putLong(startLow).array();
+        return Ipv6Range.from(Ipv6.of(new BigInteger(1, address))).andPrefixLength(prefixLength);
     }
 
     @Override
@@ -72,9 +135,155 @@ public class IPv6Record extends Record<Ipv6Range> {
         return StartAndSizeComparator.<Ipv6, Ipv6Range>get();
     }
 
+    @Override
+    public boolean isSameAs(Record<?> other) {
+        return super.isSameAs(other) && startHigh == ((IPv6Record) other).startHigh
+                && startLow == ((IPv6Record) other).startLow && prefixLength == ((IPv6Record) other).prefixLength;
+    }
+
     @Override
     public IPv6Record clone(Ipv6Range range) {
-        return new IPv6Record(getSource(), getRegistry(), getCountryCode(), range.start().toString(),
-                String.valueOf(PrefixUtils.getPrefixLength(range)), getDate(), getStatus(),getRegId(), getExtensions());
+        BigInteger start = range.start().asBigInteger();
+        return new IPv6Record(this, range, start.shiftRight(64).longValue(), start.longValue(), PrefixUtils.getPrefixLength(range));
+    }
+
+    public IPv6Record clone(long startHigh, long startLow, int prefixLength) {
+        return new IPv6Record(this, null, startHigh, startLow, prefixLength);
+    }
+
+    /**
+     * Parses the usual hexadecimal notation into {@code {hi, lo}}. Anything more exotic, like an embedded IPv4
+     * address, is handed to the library.
+     */
+    static long[] parseAddress(String address) {
+        long[] groups = new long[GROUPS];
+        int gap = address.indexOf("::");
+        int count;
+        if (gap < 0) {
+            count = parseGroups(address, 0, address.length(), groups);
+        } else {
+            long[] tail = new long[GROUPS];
+            int head = parseGroups(address, 0, gap, groups);
+            int tailCount = parseGroups(address, gap + 2, address.length(), tail);
+            count = head < 0 || tailCount < 0 || head + tailCount >= GROUPS ? -1 : GROUPS;
+            if (count == GROUPS) {
+                System.arraycopy(tail, 0, groups, GROUPS - tailCount, tailCount);
+            }
+        }
+        if (count != GROUPS) {
+            BigInteger value = Ipv6.of(address).asBigInteger();
+            return new long[]{value.shiftRight(64).longValue(), value.longValue()};
+        }
+        return new long[]{
+                groups[0] << 48 | groups[1] << 32 | groups[2] << 16 | groups[3],
+                groups[4] << 48 | groups[5] << 32 | groups[6] << 16 | groups[7]};
+    }
+
+    /**
+     * Parses the colon separated groups between from and to into the start of groups.
+     *
+     * @return the number of groups parsed or -1 when the text is not a plain list of groups
+     */
+    private static int parseGroups(String address, int from, int to, long[] groups) {
+        if (from == to) {
+            return 0;
+        }
+        int count = 0, digits = 0;
+        long group = 0;
+        for (int i = from; i <= to; i++) {
+            if (i == to || address.charAt(i) == ':') {
+                if (digits == 0 || count == GROUPS) {
+                    return -1;
+                }
+                groups[count++] = group;
+                group = 0;
+                digits = 0;
+            } else {
+                int digit = Character.digit(address.charAt(i), 16);
+                if (digit < 0 || ++digits > 4) {
+                    return -1;
+                }
+                group = group << 4 | digit;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Formats the address like {@link Ipv6#toString()}: lower case, and the first longest run of at least two zero
+     * groups compressed to "::".
+     */
+    static String formatAddress(long hi, long lo) {
+        int gap = zeroRun(hi, lo);
+        int gapStart = gap >> 8, gapLength = gap & 0xff;
+        StringBuilder builder = new StringBuilder(39);
+        boolean separated = true;
+        for (int g = 0; g < GROUPS; g++) {
+            if (g == gapStart) {
+                builder.append("::");
+                g += gapLength - 1;
+                separated = true;
+            } else {
+                if (!separated) {
+                    builder.append(':');
+                }
+                builder.append(Integer.toHexString(group(hi, lo, g)));
+                separated = false;
+            }
+        }
+        return builder.toString();
+    }
+
+    @Override
+    protected void encodeStart(LineEncoder encoder) throws IOException {
+        int gap = zeroRun(startHigh, startLow);
+        int gapStart = gap >> 8, gapLength = gap & 0xff;
+        boolean separated = true;
+        for (int g = 0; g < GROUPS; g++) {
+            if (g == gapStart) {
+                encoder.append("::");
+                g += gapLength - 1;
+                separated = true;
+            } else {
+                if (!separated) {
+                    encoder.append(':');
+                }
+                encoder.appendHex(group(startHigh, startLow, g));
+                separated = false;
+            }
+        }
+    }
+
+    @Override
+    protected void encodeValue(LineEncoder encoder) throws IOException {
+        encoder.append(prefixLength);
+    }
+
+    private static int group(long hi, long lo, int g) {
+        return (int) ((g < 4 ? hi : lo) >>> (48 - 16 * (g & 3))) & 0xffff;
+    }
+
+    /**
+     * @return the first longest run of at least two zero groups as its first group shifted left by 8 bits, or'ed
+     * with its length, or -1 when there is none
+     */
+    private static int zeroRun(long hi, long lo) {
+        int gapStart = -1, gapLength = 1;
+        for (int g = 0; g < GROUPS; ) {
+            if (group(hi, lo, g) == 0) {
+                int end = g;
+                while (end < GROUPS && group(hi, lo, end) == 0) {
+                    end++;
+                }
+                if (end - g > gapLength) {
+                    gapStart = g;
+                    gapLength = end - g;
+                }
+                g = end;
+            } else {
+                g++;
+            }
+        }
+        return gapStart < 0 ? -1 : gapStart << 8 | gapLength;
     }
 }
@@ -31,6 +31,15 @@ package net.nro.stats.components.parser;
 
 import net.nro.stats.resources.StatsSource;
 
+import java.io.IOException;
+
 public interface Line {
     StatsSource getSource();
+
+    /**
+     * Encodes the line as {@link #toString()} would print it, without the line separator.
+     */
+    default void encode(LineEncoder encoder) throws IOException {
+        encoder.append(toString());
+    }
 }
@@ -0,0 +1,147 @@
+/**
+ * The BSD License
+ *
+ * Copyright (c) 2010-2016 RIPE NCC
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *   - Redistributions of source code must retain the above copyright notice,
+ *     this list of conditions and the following disclaimer.
+ *   - Redistributions in binary form must reproduce the above copyright notice,
+ *     this list of conditions and the following disclaimer in the documentation
+ *     and/or other materials provided with the distribution.
+ *   - Neither the name of the RIPE NCC nor the names of its contributors may be
+ *     used to endorse or promote products derived from this software without
+ *     specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package net.nro.stats.components.parser;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetEncoder;
+
+/**
+ * Encodes lines straight into a byte buffer that is written to a channel whenever it fills up. ASCII text and
+ * numbers are encoded without creating any objects, other text goes through an encoder of the charset, which
+ * rejects what the charset cannot represent.
+ */
+public class LineEncoder {
+
+    private static final byte[] HEX_DIGITS = "0123456789abcdef".getBytes();
+    private static final String NULL = "null";
+
+    private final WritableByteChannel channel;
+    private final ByteBuffer buffer;
+    private final CharsetEncoder encoder;
+    private final boolean asciiCompatible;
+    private final String lineSeparator = System.lineSeparator();
+    private final byte[] digits = new byte[20];
+
+    public LineEncoder(WritableByteChannel channel, ByteBuffer buffer, Charset charset) {
+        this.channel = channel;
+        this.buffer = buffer;
+        this.buffer.clear();
+        this.encoder = charset.newEncoder();
+        this.asciiCompatible = charset.contains(Charset.forName("US-ASCII"));
+    }
+
+    public LineEncoder append(String value) throws IOException {
+        if (value == null) {
+            value = NULL;
+        }
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c >= 0x80 || !asciiCompatible) {
+                return appendEncoded(value);
+            }
+        }
+        for (int i = 0; i < value.length(); i++) {
+            put((byte) value.charAt(i));
+        }
+        return this;
+    }
+
+    public LineEncoder append(char value) throws IOException {
+        if (value >= 0x80 || !asciiCompatible) {
+            return appendEncoded(String.valueOf(value));
+        }
+        put((byte) value);
+        return this;
+    }
+
+    public LineEncoder append(long value) throws IOException {
+        if (value < 0) {
+            if (value == Long.MIN_VALUE) {
+                return append(Long.toString(value));
+            }
+            put((byte) '-');
+            value = -value;
+        }
+        int length = 0;
+        do {
+            digits[length++] = (byte) ('0' + value % 10);
+            value /= 10;
+        } while (value != 0);
+        while (length > 0) {
+            put(digits[--length]);
+        }
+        return this;
+    }
+
+    /**
+     * Appends the value in lower case hexadecimal, without leading zeros.
+     */
+    public LineEncoder appendHex(int value) throws IOException {
+        int shift = value == 0 ? 0 : (31 - Integer.numberOfLeadingZeros(value)) & ~3;
+        for (; shift >= 0; shift -= 4) {
+            put(HEX_DIGITS[(value >>> shift) & 0xf]);
+        }
+        return this;
+    }
+
+    public LineEncoder newLine() throws IOException {
+        return append(lineSeparator);
+    }
+
+    /**
+     * Writes everything encoded so far to the channel.
+     */
+    public void flush() throws IOException {
+        buffer.flip();
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+        buffer.clear();
+    }
+
+    private LineEncoder appendEncoded(String value) throws IOException {
+        ByteBuffer encoded = encoder.encode(CharBuffer.wrap(value));
+        while (encoded.hasRemaining()) {
+            put(encoded.get());
+        }
+        return this;
+    }
+
+    private void put(byte value) throws IOException {
+        if (!buffer.hasRemaining()) {
+            flush();
+        }
+        buffer.put(value);
+    }
+}
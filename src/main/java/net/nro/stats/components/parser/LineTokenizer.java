@@ -0,0 +1,216 @@
+/**
+ * The BSD License
+ *
+ * Copyright (c) 2010-2016 RIPE NCC
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *   - Redistributions of source code must retain the above copyright notice,
+ *     this list of conditions and the following disclaimer.
+ *   - Redistributions in binary form must reproduce the above copyright notice,
+ *     this list of conditions and the following disclaimer in the documentation
+ *     and/or other materials provided with the distribution.
+ *   - Neither the name of the RIPE NCC nor the names of its contributors may be
+ *     used to endorse or promote products derived from this software without
+ *     specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package net.nro.stats.components.parser;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Splits delimited ASCII text into lines and fields directly on the bytes of a buffer. The tokenizer only keeps
+ * the offsets of the fields of the current line, Strings are created when a field is asked for.
+ *
+ * Lines without any content in their fields are skipped, as are comment lines starting with '#'. Spaces and tabs around a field are
+ * ignored, unless they are the delimiter itself.
+ */
+public class LineTokenizer {
+    private final ByteBuffer buffer;
+    private final byte delimiter;
+    private final Charset charset;
+
+    private int position;
+    private long lineNumber;
+    private int lineStart, lineEnd;
+    private int[] starts = new int[16];
+    private int[] ends = new int[16];
+    private int size;
+    private final Map<String, String> shared = new HashMap<>();
+
+    public LineTokenizer(ByteBuffer buffer, char delimiter, Charset charset) {
+        this.buffer = buffer;
+        this.delimiter = (byte) delimiter;
+        this.charset = charset;
+        this.position = buffer.position();
+    }
+
+    /**
+     * Moves to the next line that holds any fields.
+     *
+     * @return false when the end of the buffer is reached
+     */
+    public boolean next() {
+        int limit = buffer.limit();
+        while (position < limit) {
+            lineNumber++;
+            lineStart = position;
+            lineEnd = lineStart;
+            while (lineEnd < limit && buffer.get(lineEnd) != '\n' && buffer.get(lineEnd) != '\r') {
+                lineEnd++;
+            }
+            position = lineEnd;
+            if (position < limit && buffer.get(position) == '\r') {
+                position++;
+            }
+            if (position < limit && buffer.get(position) == '\n') {
+                position++;
+            }
+            if (lineStart < lineEnd && buffer.get(lineStart) != '#' && tokenize()) {
+                return true;
+            }
+        }
+        size = 0;
+        return false;
+    }
+
+    private boolean tokenize() {
+        size = 0;
+        boolean blank = true;
+        for (int i = lineStart, fieldStart = lineStart; i <= lineEnd; i++) {
+            if (i == lineEnd || buffer.get(i) == delimiter) {
+                addField(fieldStart, i);
+                blank &= starts[size - 1] == ends[size - 1];
+                fieldStart = i + 1;
+            }
+        }
+        return !blank;
+    }
+
+    private void addField(int start, int end) {
+        while (start < end && isSpace(buffer.get(start))) {
+            start++;
+        }
+        while (end > start && isSpace(buffer.get(end - 1))) {
+            end--;
+        }
+        if (size == starts.length) {
+            starts = Arrays.copyOf(starts, size * 2);
+            ends = Arrays.copyOf(ends, size * 2);
+        }
+        starts[size] = start;
+        ends[size] = end;
+        size++;
+    }
+
+    private boolean isSpace(byte b) {
+        return (b == ' ' || b == '\t') && b != delimiter;
+    }
+
+    public long getLineNumber() {
+        return lineNumber;
+    }
+
+    /**
+     * @return the number of fields on the current line
+     */
+    public int size() {
+        return size;
+    }
+
+    public String get(int index) {
+        checkIndex(index);
+        return decode(starts[index], ends[index]);
+    }
+
+    /**
+     * Returns the field as the same String instance for every line of this tokenizer holding the same text, so the
+     * repeating fields of the records of one parse share their text without keeping it beyond the parse.
+     */
+    public String getShared(int index) {
+        String value = get(index);
+        String previous = shared.putIfAbsent(value, value);
+        return previous != null ? previous : value;
+    }
+
+    /**
+     * Reads a field holding a plain decimal number without creating a String for it.
+     */
+    public long getLong(int index) {
+        checkIndex(index);
+        int start = starts[index], end = ends[index];
+        if (start == end || end - start > 18) {
+            return Long.parseLong(get(index));
+        }
+        long value = 0;
+        for (int i = start; i < end; i++) {
+            int digit = buffer.get(i) - '0';
+            if (digit < 0 || digit > 9) {
+                return Long.parseLong(get(index));
+            }
+            value = value * 10 + digit;
+        }
+        return value;
+    }
+
+    public boolean isEmpty(int index) {
+        checkIndex(index);
+        return starts[index] == ends[index];
+    }
+
+    /**
+     * Compares a field to an ASCII value without creating a String for it.
+     */
+    public boolean fieldEquals(int index, String value) {
+        checkIndex(index);
+        int start = starts[index];
+        if (ends[index] - start != value.length()) {
+            return false;
+        }
+        for (int i = 0; i < value.length(); i++) {
+            if (buffer.get(start + i) != value.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private void checkIndex(int index) {
+        if (index < 0 || index >= size) {
+            throw new ArrayIndexOutOfBoundsException(index);
+        }
+    }
+
+    private String decode(int start, int end) {
+        if (buffer.hasArray()) {
+            return new String(buffer.array(), buffer.arrayOffset() + start, end - start, charset);
+        }
+        byte[] bytes = new byte[end - start];
+        for (int i = 0; i < bytes.length; i++) {
+            bytes[i] = buffer.get(start + i);
+        }
+        return new String(bytes, charset);
+    }
+
+    @Override
+    public String toString() {
+        return decode(lineStart, lineEnd);
+    }
+}
@@ -34,17 +34,12 @@ import net.nro.stats.resources.ASNTransfer;
 import net.nro.stats.resources.ParsedRIRStats;
 import net.nro.stats.resources.StatsSource;
 import net.nro.stats.resources.URIContent;
-import org.apache.commons.csv.CSVFormat;
-import org.apache.commons.csv.CSVRecord;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Component;
 
-import java.io.ByteArrayInputStream;
-import java.io.IOException;
-import java.io.InputStreamReader;
-import java.io.Reader;
+import java.nio.ByteBuffer;
 import java.nio.charset.Charset;
 import java.util.ArrayList;
 import java.util.List;
@@ -67,9 +62,9 @@ public class Parser {
     public ParsedRIRStats parseRirStats(StatsSource source, URIContent uriContent) {
         String today = dateTimeProvider.today();
         ParsedRIRStats parsedRIRStats = new ParsedRIRStats(uriContent.getIdentifier());
-        try {
-            Iterable<CSVRecord> lines = readCSV(uriContent.getContent(), '|');
-            for (CSVRecord line : lines) {
+        LineTokenizer line = tokenize(uriContent.getBuffer(), '|');
+        while (line.next()) {
+            try {
                 if (Header.fits(line)) {
                     parsedRIRStats.setHeader(new Header(source, line));
                 } else if (Summary.fits(line)) {
@@ -81,21 +76,23 @@ public class Parser {
                 } else if (ASNRecord.fits(line)) {
                     parsedRIRStats.addAsnRecord(new ASNRecord(source, line, today));
                 } else {
-                    logger.warn("Malformed line number " + line.getRecordNumber() + "\n" + line.toString());
+                    logger.warn("Malformed line number " + line.getLineNumber() + "\n" + line.toString());
                 }
+            } catch (IllegalArgumentException e) {
+                // the range of the record could not be parsed
+                logger.warn("Malformed line number " + line.getLineNumber() + "\n" + line.toString(), e);
             }
-        } catch (IOException e) {
-            logger.error(e.getMessage(), e);
         }
+        parsedRIRStats.setLineCount(line.getLineNumber());
         logger.debug("Found records: " + parsedRIRStats.getLines().count());
         return parsedRIRStats;
     }
 
     public ParsedRIRStats parseNroStats(URIContent uriContent) {
         ParsedRIRStats parsedRIRStats = new ParsedRIRStats(uriContent.getIdentifier());
-        try {
-            Iterable<CSVRecord> lines = readCSV(uriContent.getContent(), '|');
-            for (CSVRecord line : lines) {
+        LineTokenizer line = tokenize(uriContent.getBuffer(), '|');
+        while (line.next()) {
+            try {
                 if (IPv4Record.fits(line)) {
                     parsedRIRStats.addIPv4Record(new IPv4Record(StatsSource.NRO, line, null));
                 } else if (IPv6Record.fits(line)) {
@@ -103,43 +100,32 @@ public class Parser {
                 } else if (ASNRecord.fits(line)) {
                     parsedRIRStats.addAsnRecord(new ASNRecord(StatsSource.NRO, line, null));
                 }
+            } catch (IllegalArgumentException e) {
+                logger.warn("Malformed line number " + line.getLineNumber() + "\n" + line.toString(), e);
             }
-        } catch (IOException e) {
-            logger.error(e.getMessage(), e);
         }
+        parsedRIRStats.setLineCount(line.getLineNumber());
         logger.debug("Found records in NRO read: " + parsedRIRStats.getLines().count());
         return parsedRIRStats;
     }
 
-    private Iterable<CSVRecord> readCSV(byte[] bytes, char fieldSeparator) throws IOException {
-        Reader reader = new InputStreamReader(new ByteArrayInputStream(bytes), charset);
-        return CSVFormat
-                .DEFAULT
-                .withDelimiter(fieldSeparator)
-                .withCommentMarker('#') // only recognized at start of line!
-                .withRecordSeparator('\n')
-                .withIgnoreEmptyLines()
-                .withIgnoreSurroundingSpaces()
-                .parse(reader);
-
+    private LineTokenizer tokenize(ByteBuffer buffer, char fieldSeparator) {
+        return new LineTokenizer(buffer, fieldSeparator, charset);
     }
 
     public ParsedRIRStats parseRIRSwaps(StatsSource source, URIContent uriContent) {
         String today = dateTimeProvider.today();
         ParsedRIRStats parsedRIRStats = new ParsedRIRStats(uriContent.getIdentifier());
-        try {
-            Iterable<CSVRecord> lines = readCSV(uriContent.getContent(), ' ');
-            for (CSVRecord line : lines) {
-                parsedRIRStats.addIPv4Record(createSwapRecord(source, line, today));
-            }
-        } catch (IOException e) {
-            logger.error(e.getMessage(), e);
+        LineTokenizer line = tokenize(uriContent.getBuffer(), ' ');
+        while (line.next()) {
+            parsedRIRStats.addIPv4Record(createSwapRecord(source, line, today));
         }
+        parsedRIRStats.setLineCount(line.getLineNumber());
         logger.debug("Found records: " + parsedRIRStats.getLines().count());
         return parsedRIRStats;
     }
 
-    private IPv4Record createSwapRecord(StatsSource source, CSVRecord line, String date) {
+    private IPv4Record createSwapRecord(StatsSource source, LineTokenizer line, String date) {
         String registry = line.get(4);
         String startIp = line.get(0);
         String rangeSize = line.get(2);
@@ -148,28 +134,11 @@ public class Parser {
 
 
     public ASNTransfer parseAsnTransfers(URIContent uriContent) {
-        ASNTransfer asnTransfer = null;
-        try {
-            Reader in = new InputStreamReader(new ByteArrayInputStream(uriContent.getContent()), charset);
-            List<ASNTransferRecord> asnTransferRecords = new ArrayList<>();
-            Iterable<CSVRecord> lines = CSVFormat
-                    .DEFAULT
-                    .withDelimiter('\t')
-                    .withCommentMarker('#') // only recognized at start of line!
-                    .withRecordSeparator('\n')
-                    .withIgnoreEmptyLines()
-                    .withIgnoreSurroundingSpaces()
-                    .parse(in);
-
-            lines.forEach(line -> {
-                asnTransferRecords.add(new ASNTransferRecord(line));
-            });
-
-            asnTransfer = new ASNTransfer(asnTransferRecords);
-
-        } catch (IOException e) {
-            logger.error(e.getMessage(), e);
+        List<ASNTransferRecord> asnTransferRecords = new ArrayList<>();
+        LineTokenizer line = tokenize(uriContent.getBuffer(), '\t');
+        while (line.next()) {
+            asnTransferRecords.add(new ASNTransferRecord(line));
         }
-        return asnTransfer;
+        return new ASNTransfer(asnTransferRecords);
     }
 }
@@ -29,13 +29,19 @@
  */
 package net.nro.stats.components.parser;
 
-import com.google.common.base.Strings;
 import net.nro.stats.resources.StatsSource;
 import net.ripe.commons.ip.AbstractRange;
-import org.apache.commons.csv.CSVRecord;
 
+import java.io.IOException;
+import java.util.Arrays;
 import java.util.Comparator;
+import java.util.Objects;
 
+/**
+ * A resource record in compact form: the registry, country code and status are kept as codes into small tables
+ * shared by all records, the other text fields are shared between the records of one parse, and the subclasses keep
+ * their range as primitives. The text of the record is only rebuilt when it is asked for.
+ */
 public abstract class Record<R extends AbstractRange> implements Line {
 
     public final static  String DEFAULT_COUNTRY_CODE = "ZZ";
@@ -47,83 +53,102 @@ public abstract class Record<R extends AbstractRange> implements Line {
     public final static String UNKNOWN = "unknown";
     public final static String IETF = "ietf";
 
+    private static final CodeTable REGISTRIES = new CodeTable("registry", 1 << 16);
+    private static final CodeTable COUNTRY_CODES = new CodeTable("country code", 1 << 16);
+    private static final CodeTable STATUSES = new CodeTable("status", 1 << 16);
+    private static final int IETF_STATUS = STATUSES.code(IETF);
+    private static final String[] NO_EXTENSIONS = new String[0];
 
     private final StatsSource source;
-    private final String registry;
-    private final String countryCode;
-    private final String type;
-    private final String start;
-    private final String value;
+    private final short registry;
+    private final short countryCode;
+    private final short status;
     private final String date;
-    private final String status;
     private final String regId;
     private final String[] extensions;
+    private volatile R range;
 
-    public Record(String registry, String countryCode, String type, String start, String value, String date, String status, String regId, String... extensions) {
-        this(StatsSource.ESTATS, registry, countryCode, type, start, value, date, status, regId, extensions);
-    }
-
-    public Record(StatsSource source, String registry, String countryCode, String type, String start, String value, String date, String status, String regId, String... extensions) {
+    protected Record(StatsSource source, String registry, String countryCode, String date, String status, String regId, String... extensions) {
         this.source = source;
-        this.registry = registry;
-        this.countryCode = countryCode;
-        this.type = type;
-        this.start = start;
-        this.value = value;
+        this.registry = (short) REGISTRIES.code(registry);
+        this.countryCode = (short) COUNTRY_CODES.code(countryCode);
         this.date = date;
-        this.status = status;
+        this.status = (short) STATUSES.code(status);
         this.regId = regId;
-        this.extensions = extensions;
+        this.extensions = extensions == null || extensions.length == 0 ? NO_EXTENSIONS : extensions;
     }
 
-    public Record(StatsSource source, CSVRecord line, String defaultDate) {
+    protected Record(StatsSource source, LineTokenizer line, String defaultDate) {
         if (!fits(line)) throw new RuntimeException("Given line was not a Record");
 
         this.source = source;
-        this.registry = line.get(0);
-        this.countryCode = Strings.isNullOrEmpty(line.get(1)) ? DEFAULT_COUNTRY_CODE : line.get(1);
-        this.type = line.get(2);
-        this.start = line.get(3);
-        this.value = line.get(4);
-        this.date = Strings.isNullOrEmpty(line.get(5)) ? defaultDate : line.get(5);
+        String registry = line.get(0);
+        this.registry = (short) REGISTRIES.code(registry);
+        this.countryCode = (short) COUNTRY_CODES.code(line.isEmpty(1) ? DEFAULT_COUNTRY_CODE : line.get(1));
+        this.date = line.isEmpty(5) ? defaultDate : line.getShared(5);
+        String status;
         switch (line.get(6)) {
             case "allocated": case "Allocated":
             case "assigned": case "Assigned":
             case "legacy":
-                this.status = ASSIGNED;
+                status = ASSIGNED;
                 break;
             case "available": case "Available":
-                this.status = (isIana(registry)) ? IANAPOOL : AVAILABLE;
+                status = (isIana(registry)) ? IANAPOOL : AVAILABLE;
                 break;
             case "reserved":case "Reserved":
-                this.status = (isIana(registry)) ? IETF : RESERVED;
+                status = (isIana(registry)) ? IETF : RESERVED;
                 break;
             default:
-                this.status = line.get(6);
+                status = line.get(6);
         }
+        this.status = (short) STATUSES.code(status);
 
-        String[] exts;
+        String[] exts = NO_EXTENSIONS;
         if (line.size() > 7) {
-            this.regId = line.get(7);
-            exts = new String[line.size() - 8];
-            for (int i = 8; i < line.size(); i++) {
-                exts[i - 8] = line.get(i);
+            this.regId = line.getShared(7);
+            if (line.size() > 8) {
+                exts = new String[line.size() - 8];
+                for (int i = 8; i < line.size(); i++) {
+                    exts[i - 8] = line.getShared(i);
+                }
             }
         } else {
             this.regId = "";
-            exts = new String[0];
         }
 
         this.extensions = exts;
 
     }
 
-    private boolean isIana(String registry) {
-        return "iana".equals(registry);
+    /**
+     * Copies all fields but the range from the given record. The range, when known, becomes the memoized range of
+     * the copy.
+     */
+    protected Record(Record<?> record, R range) {
+        this.source = record.source;
+        this.registry = record.registry;
+        this.countryCode = record.countryCode;
+        this.date = record.date;
+        this.status = record.status;
+        this.regId = record.regId;
+        this.extensions = record.extensions;
+        this.range = range;
+    }
+
+    protected Record(Record<?> record, R range, String countryCode) {
+        this.source = record.source;
+        this.registry = record.registry;
+        this.countryCode = (short) COUNTRY_CODES.code(countryCode);
+        this.date = record.date;
+        this.status = record.status;
+        this.regId = record.regId;
+        this.extensions = record.extensions;
+        this.range = range;
     }
 
-    public Record(CSVRecord line, String defaultDate) {
-        this(StatsSource.ESTATS, line, defaultDate);
+    private boolean isIana(String registry) {
+        return "iana".equals(registry);
     }
 
     public StatsSource getSource() {
@@ -131,31 +156,40 @@ public abstract class Record<R extends AbstractRange> implements Line {
     }
 
     public String getRegistry() {
-        return registry;
+        return REGISTRIES.value(registry & 0xffff);
     }
 
-    public String getCountryCode() {
-        return countryCode;
+    /**
+     * @return the code of the registry, which is the same for every record of the registry
+     */
+    public int getRegistryCode() {
+        return registry & 0xffff;
     }
 
-    public String getType() {
-        return type;
+    public static int registryCode(String registry) {
+        return REGISTRIES.code(registry);
     }
 
-    public String getStart() {
-        return start;
+    public String getCountryCode() {
+        return COUNTRY_CODES.value(countryCode & 0xffff);
     }
 
-    public String getValue() {
-        return value;
-    }
+    public abstract String getType();
+
+    public abstract String getStart();
+
+    public abstract String getValue();
 
     public String getDate() {
         return date;
     }
 
     public String getStatus() {
-        return status;
+        return STATUSES.value(status & 0xffff);
+    }
+
+    public boolean isIetf() {
+        return (status & 0xffff) == IETF_STATUS;
     }
 
     public String getRegId() {
@@ -166,7 +200,7 @@ public abstract class Record<R extends AbstractRange> implements Line {
         return extensions;
     }
 
-    public static boolean fits(CSVRecord line) {
+    public static boolean fits(LineTokenizer line) {
         return IPv4Record.fits(line) || IPv6Record.fits(line) || ASNRecord.fits(line);
     }
 
@@ -174,24 +208,80 @@ public abstract class Record<R extends AbstractRange> implements Line {
         return extensions.length > 0;
     }
 
-    public abstract R getRange();
+    /**
+     * @return the range of the record, created on first use
+     */
+    public R getRange() {
+        R result = range;
+        if (result == null) {
+            result = createRange();
+            range = result;
+        }
+        return result;
+    }
+
+    protected abstract R createRange();
+
+    /**
+     * True when the other record has the same type, source and fields, so it would be merged the same way.
+     */
+    public boolean isSameAs(Record<?> other) {
+        return other != null && getClass() == other.getClass() && source == other.source
+                && registry == other.registry && countryCode == other.countryCode && status == other.status
+                && Objects.equals(date, other.date) && Objects.equals(regId, other.regId) && Arrays.equals(extensions, other.extensions);
+    }
 
     public abstract Comparator getComparator();
 
     public abstract <T extends Record> T clone(R range);
 
+    /**
+     * Encodes the start of the range, as {@link #getStart()} formats it.
+     */
+    protected abstract void encodeStart(LineEncoder encoder) throws IOException;
+
+    /**
+     * Encodes the size of the range, as {@link #getValue()} formats it.
+     */
+    protected abstract void encodeValue(LineEncoder encoder) throws IOException;
+
+    @Override
+    public void encode(LineEncoder encoder) throws IOException {
+        encoder.append(getRegistry()).append('|')
+                .append(getCountryCode()).append('|')
+                .append(getType()).append('|');
+        encodeStart(encoder);
+        encoder.append('|');
+        encodeValue(encoder);
+        encoder.append('|')
+                .append(getDate()).append('|')
+                .append(getStatus()).append('|')
+                .append(getRegId());
+        for (String ext : extensions) {
+            encoder.append('|').append(ext);
+        }
+        if (source != StatsSource.NRO) {
+            encoder.append('|').append(source.getValue());
+        }
+    }
+
     @Override
     public String toString() {
-        String strValue = String.format("%s|%s|%s|%s|%s|%s|%s|%s", getRegistry(), getCountryCode(), getType(), getStart(),
-                getValue(), getDate(), getStatus(), getRegId());
+        StringBuilder builder = new StringBuilder(96)
+                .append(getRegistry()).append('|')
+                .append(getCountryCode()).append('|')
+                .append(getType()).append('|')
+                .append(getStart()).append('|')
+                .append(getValue()).append('|')
+                .append(getDate()).append('|')
+                .append(getStatus()).append('|')
+                .append(getRegId());
         for (String ext : getExtensions()) {
-            strValue = strValue.concat("|").concat(ext);
+            builder.append('|').append(ext);
         }
         if (source != StatsSource.NRO) {
-            return String.format("%s|%s", strValue, source.getValue());
+            builder.append('|').append(source.getValue());
         }
-        return strValue;
+        return builder.toString();
     }
 }
-
-
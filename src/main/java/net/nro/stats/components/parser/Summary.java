@@ -30,7 +30,8 @@
 package net.nro.stats.components.parser;
 
 import net.nro.stats.resources.StatsSource;
-import org.apache.commons.csv.CSVRecord;
+
+import java.io.IOException;
 
 public class Summary implements Line {
 
@@ -49,7 +50,7 @@ public class Summary implements Line {
         this(StatsSource.ESTATS, registry, type, count);
     }
 
-    public Summary(StatsSource source, CSVRecord line) {
+    public Summary(StatsSource source, LineTokenizer line) {
         if (!fits(line)) throw new RuntimeException("Given line was not a Summary");
         this.source = source;
         this.registry = line.get(0);
@@ -57,7 +58,7 @@ public class Summary implements Line {
         this.count = line.get(4);
     }
 
-    public Summary(CSVRecord line) {
+    public Summary(LineTokenizer line) {
         this(StatsSource.ESTATS, line);
     }
 
@@ -78,8 +79,13 @@ public class Summary implements Line {
         return count;
     }
 
-    public static boolean fits(CSVRecord line) {
-        return line.size() == 6 && "summary".equals(line.get(5));
+    public static boolean fits(LineTokenizer line) {
+        return line.size() == 6 && line.fieldEquals(5, "summary");
+    }
+
+    @Override
+    public void encode(LineEncoder encoder) throws IOException {
+        encoder.append(getRegistry()).append("|*|").append(getType()).append("|*|").append(getCount()).append("|summary");
     }
 
     @Override
@@ -38,34 +38,69 @@ import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Component;
 
 import java.util.Arrays;
+import java.util.Comparator;
 import java.util.List;
+import java.util.concurrent.atomic.LongAdder;
 
+/**
+ * Resolves by the configured order of sources, then of registries. The orders are compiled into ranks, so resolving
+ * compares a single key packing both ranks; sources and registries missing from the orders rank first.
+ */
 @Component
 public class OrderedResolver implements Resolver {
     private Logger logger = LoggerFactory.getLogger(this.getClass());
 
-    private List<String> sourcePriorityOrder;
-    private List<String> registryPriorityOrder;
+    // ranks by source ordinal and by registry code, 0 for the ones that are not in the configured order
+    private final int[] sourceRanks = new int[StatsSource.values().length];
+    private final int[] registryRanks;
+
+    private final LongAdder conflicts = new LongAdder();
 
     @Autowired
     public OrderedResolver(@Value("${nro.stats.extended.source.order}") String[] sourcePriorityOrder,
                            @Value("${nro.stats.extended.registry.order}") String[] registryPriorityOrder) {
-        this.sourcePriorityOrder = Arrays.asList(sourcePriorityOrder);
-        this.registryPriorityOrder = Arrays.asList(registryPriorityOrder);
+        List<String> sources = Arrays.asList(sourcePriorityOrder);
+        for (StatsSource source : StatsSource.values()) {
+            sourceRanks[source.ordinal()] = sources.indexOf(source.getValue()) + 1;
+        }
+        int[] ranks = new int[0];
+        for (int i = registryPriorityOrder.length - 1; i >= 0; i--) {
+            int code = Record.registryCode(registryPriorityOrder[i]);
+            if (code >= ranks.length) {
+                ranks = Arrays.copyOf(ranks, code + 1);
+            }
+            // the first occurrence of a registry counts
+            ranks[code] = i + 1;
+        }
+        this.registryRanks = ranks;
     }
 
     @Override
     public <T extends Record> T resolve(T record1, T record2) {
-        int record1Source = sourcePriorityOrder.indexOf(record1.getSource().getValue());
-        int record2Source = sourcePriorityOrder.indexOf(record2.getSource().getValue());
-        if (record1Source == record2Source) {
-            return (registryPriorityOrder.indexOf(record1.getRegistry()) > registryPriorityOrder.indexOf(record2.getRegistry())) ? record2 : record1;
-        } else {
-            //iana reserved records get higher priority over other records.
-            if (Record.IETF.equals(record1.getStatus())) return record1;
-            if (Record.IETF.equals(record2.getStatus())) return record2;
-            return record1Source > record2Source ? record2 : record1;
+        int priority1 = priority(record1);
+        int priority2 = priority(record2);
+        if ((priority1 ^ priority2) >>> 16 != 0) {
+            //iana reserved records get higher priority over records of other sources.
+            if (record1.isIetf()) return record1;
+            if (record2.isIetf()) return record2;
         }
+        return priority1 > priority2 ? record2 : record1;
+    }
+
+    /**
+     * Puts IETF reserved records first, as they win against every other source.
+     */
+    @Override
+    public Comparator<Record> priorityOrder() {
+        return Comparator.comparingInt(record -> (record.isIetf() ? 0 : 1 << 30) | priority(record));
+    }
+
+    /**
+     * @return the source rank in the upper half and the registry rank in the lower half, lower resolves first
+     */
+    private int priority(Record record) {
+        int registry = record.getRegistryCode();
+        return sourceRanks[record.getSource().ordinal()] << 16 | (registry < registryRanks.length ? registryRanks[registry] : 0);
     }
 
     @Override
@@ -78,7 +113,13 @@ public class OrderedResolver implements Resolver {
             if (record2.getSource() == StatsSource.RIRSWAP) {
                 continue;
             }
+            conflicts.increment();
             logger.warn("Conflict found for {} b/w {} and {}", record1.getRange().intersection(record2.getRange()), record1.getRegistry(), record2.getRegistry());
         }
     }
+
+    @Override
+    public long getConflictCount() {
+        return conflicts.sum();
+    }
 }
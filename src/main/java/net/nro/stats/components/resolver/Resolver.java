@@ -31,10 +31,24 @@ package net.nro.stats.components.resolver;
 
 import net.nro.stats.components.parser.Record;
 
+import java.util.Comparator;
 import java.util.List;
 
+/**
+ * Address families are merged concurrently, so implementations are called from several threads at once.
+ */
 public interface Resolver {
     <T extends Record> T resolve(T record1, T record2);
 
     <T extends Record> void recordConflict(T record1, List<T> record2);
+
+    /**
+     * @return an order putting the records that win first, the same as {@link #resolve} wherever that is transitive
+     */
+    Comparator<Record> priorityOrder();
+
+    /**
+     * @return the number of conflicts recorded so far
+     */
+    long getConflictCount();
 }
@@ -29,10 +29,14 @@
  */
 package net.nro.stats.config;
 
+import com.google.common.util.concurrent.MoreExecutors;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
+import org.springframework.core.task.AsyncTaskExecutor;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
 
 import java.nio.charset.Charset;
+import java.util.concurrent.Executor;
 
 @Configuration
 public class AppConfig {
@@ -41,4 +45,66 @@ public class AppConfig {
     public Charset charset() {
         return Charset.forName("US-ASCII");
     }
+
+    /**
+     * Executor on which the address families are merged side by side. Disabling the parallel merge runs every
+     * family on the calling thread instead.
+     */
+    @Bean
+    public Executor mergeExecutor(MergeConfig mergeConfig) {
+        if (!mergeConfig.getParallel()) {
+            return MoreExecutors.directExecutor();
+        }
+        ThreadPoolTaskExecutor executor = new ThreadPoolTaskExecutor();
+        executor.setCorePoolSize(mergeConfig.getThreads());
+        executor.setThreadNamePrefix("merge-");
+        return executor;
+    }
+
+    /**
+     * Executor for downloads, sized so every input can be fetched at the same time.
+     */
+    @Bean
+    public Executor fetchExecutor(PipelineConfig pipelineConfig) {
+        ThreadPoolTaskExecutor executor = new ThreadPoolTaskExecutor();
+        executor.setCorePoolSize(pipelineConfig.getFetchThreads());
+        executor.setThreadNamePrefix("fetch-");
+        return executor;
+    }
+
+    /**
+     * Executor for parsing, bounded so parsing does not compete with the merge for every core.
+     */
+    @Bean
+    public Executor parseExecutor(PipelineConfig pipelineConfig) {
+        ThreadPoolTaskExecutor executor = new ThreadPoolTaskExecutor();
+        executor.setCorePoolSize(pipelineConfig.getParseThreads());
+        executor.setThreadNamePrefix("parse-");
+        return executor;
+    }
+
+    /**
+     * Executor compressing the output while it is written, one file at a time unless configured otherwise.
+     */
+    @Bean
+    public Executor compressExecutor(PipelineConfig pipelineConfig) {
+        ThreadPoolTaskExecutor executor = new ThreadPoolTaskExecutor();
+        executor.setCorePoolSize(pipelineConfig.getCompressThreads());
+        executor.setThreadNamePrefix("compress-");
+        return executor;
+    }
+
+    /**
+     * Executor writing the streamed responses, bounded so a burst of requests queues up or is turned away instead of
+     * starting a thread each.
+     */
+    @Bean
+    public AsyncTaskExecutor streamExecutor(WebConfig webConfig) {
+        ThreadPoolTaskExecutor executor = new ThreadPoolTaskExecutor();
+        executor.setCorePoolSize(webConfig.getStreamThreads());
+        executor.setMaxPoolSize(webConfig.getStreamThreads());
+        executor.setQueueCapacity(webConfig.getStreamQueueCapacity());
+        executor.setThreadNamePrefix("stream-");
+        return executor;
+    }
 }
@@ -37,6 +37,8 @@ import org.springframework.context.annotation.Configuration;
 public class CacheConfig {
     private String root;
     private Boolean rejectEmpty = false;
+    private Integer maxAgeDays = 30;
+    private Integer maxSizeMb = 1024;
 
     public String getRoot() {
         return root;
@@ -53,4 +55,20 @@ public class CacheConfig {
     public void setRejectEmpty(Boolean rejectEmpty) {
         this.rejectEmpty = rejectEmpty;
     }
+
+    public Integer getMaxAgeDays() {
+        return maxAgeDays;
+    }
+
+    public void setMaxAgeDays(Integer maxAgeDays) {
+        this.maxAgeDays = maxAgeDays;
+    }
+
+    public Integer getMaxSizeMb() {
+        return maxSizeMb;
+    }
+
+    public void setMaxSizeMb(Integer maxSizeMb) {
+        this.maxSizeMb = maxSizeMb;
+    }
 }
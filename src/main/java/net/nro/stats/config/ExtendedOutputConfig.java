@@ -42,6 +42,8 @@ public class ExtendedOutputConfig {
     private String previous;
     private Boolean backup;
     private String backupFormat;
+    private Boolean gzip = true;
+    private Boolean checksum = true;
 
     public String getIdentifier() {
         return identifier;
@@ -79,6 +81,26 @@ public class ExtendedOutputConfig {
         return file+".previous";
     }
 
+    public String getInputsFile() {
+        return file+".inputs";
+    }
+
+    public String getGzipFile() {
+        return file+".gz";
+    }
+
+    public String getChecksumFile() {
+        return file+".sha256";
+    }
+
+    public String getReportFile() {
+        return file+".report";
+    }
+
+    public String getSnapshotFile(String identifier) {
+        return file+"."+identifier+".snapshot";
+    }
+
     public void setFile(String file) {
         this.file = file;
     }
@@ -106,4 +128,20 @@ public class ExtendedOutputConfig {
     public void setBackupFormat(String backupFormat) {
         this.backupFormat = backupFormat;
     }
+
+    public Boolean getGzip() {
+        return gzip;
+    }
+
+    public void setGzip(Boolean gzip) {
+        this.gzip = gzip;
+    }
+
+    public Boolean getChecksum() {
+        return checksum;
+    }
+
+    public void setChecksum(Boolean checksum) {
+        this.checksum = checksum;
+    }
 }
@@ -51,6 +51,8 @@ public class ParsedRIRStats {
 
     private String rir;
 
+    private long lineCount;
+
     public ParsedRIRStats(String rir) {
         this.rir = rir;
         this.header = null;
@@ -106,6 +108,17 @@ public class ParsedRIRStats {
         asnRecords.addAll(records);
     }
 
+    /**
+     * @return the number of lines read to parse the stats, 0 when they were not parsed
+     */
+    public long getLineCount() {
+        return lineCount;
+    }
+
+    public void setLineCount(long lineCount) {
+        this.lineCount = lineCount;
+    }
+
     public String getRir() {
         return rir;
     }
@@ -29,20 +29,83 @@
  */
 package net.nro.stats.resources;
 
+import com.google.common.hash.Hasher;
+import com.google.common.hash.Hashing;
+
+import java.nio.ByteBuffer;
+
 public class URIContent {
     private String identifier;
-    private byte[] content;
+    private ByteBuffer content;
+    private boolean modified;
+    private volatile String fingerprint;
 
     public URIContent(String identifier, byte[] content) {
+        this(identifier, ByteBuffer.wrap(content), true);
+    }
+
+    public URIContent(String identifier, byte[] content, boolean modified) {
+        this(identifier, ByteBuffer.wrap(content), modified);
+    }
+
+    public URIContent(String identifier, ByteBuffer content, boolean modified) {
         this.identifier = identifier;
         this.content = content;
+        this.modified = modified;
     }
 
+    /**
+     * Copies the content to the heap unless it already is a whole array, prefer {@link #getBuffer()}.
+     */
     public byte[] getContent() {
-        return content;
+        if (content.hasArray() && content.arrayOffset() == 0 && content.position() == 0
+                && content.remaining() == content.array().length) {
+            return content.array();
+        }
+        byte[] bytes = new byte[content.remaining()];
+        content.duplicate().get(bytes);
+        return bytes;
+    }
+
+    /**
+     * @return a hash of the content, computed on first use
+     */
+    public String getFingerprint() {
+        String result = fingerprint;
+        if (result == null) {
+            Hasher hasher = Hashing.murmur3_128().newHasher();
+            ByteBuffer buffer = getBuffer();
+            if (buffer.hasArray()) {
+                hasher.putBytes(buffer.array(), buffer.arrayOffset() + buffer.position(), buffer.remaining());
+            } else {
+                byte[] chunk = new byte[Math.min(buffer.remaining(), 1 << 16)];
+                while (buffer.hasRemaining()) {
+                    int length = Math.min(chunk.length, buffer.remaining());
+                    buffer.get(chunk, 0, length);
+                    hasher.putBytes(chunk, 0, length);
+                }
+            }
+            result = hasher.hash().toString();
+            fingerprint = result;
+        }
+        return result;
+    }
+
+    /**
+     * The content as a buffer of its own, which may be a memory mapped file.
+     */
+    public ByteBuffer getBuffer() {
+        return content.duplicate();
     }
 
     public String getIdentifier() {
         return identifier;
     }
+
+    /**
+     * False when the source confirmed the content is unchanged since it was last fetched.
+     */
+    public boolean isModified() {
+        return modified;
+    }
 }
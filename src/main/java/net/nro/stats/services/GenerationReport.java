@@ -0,0 +1,120 @@
+/**
+ * The BSD License
+ *
+ * Copyright (c) 2010-2016 RIPE NCC
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *   - Redistributions of source code must retain the above copyright notice,
+ *     this list of conditions and the following disclaimer.
+ *   - Redistributions in binary form must reproduce the above copyright notice,
+ *     this list of conditions and the following disclaimer in the documentation
+ *     and/or other materials provided with the distribution.
+ *   - Neither the name of the RIPE NCC nor the names of its contributors may be
+ *     used to endorse or promote products derived from this software without
+ *     specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package net.nro.stats.services;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+/**
+ * Measurements of one generation run, keyed by phase and source, e.g. {@code parse.apnic.duration.ms}. Phases of
+ * different sources run at the same time, so measurements can be added from several threads.
+ */
+class GenerationReport {
+
+    private static final ThreadMXBean THREADS = ManagementFactory.getThreadMXBean();
+
+    private final Map<String, Long> metrics = new ConcurrentSkipListMap<>();
+
+    private final long started = System.nanoTime();
+
+    /**
+     * Runs a phase on the current thread, measuring its duration and the bytes it allocated on this thread.
+     */
+    <T> T measure(String phase, Supplier<T> work) {
+        return measure(phase, () -> new long[]{Thread.currentThread().getId()}, work);
+    }
+
+    /**
+     * Runs a phase that may hand work to other threads, so the bytes allocated by every live thread are counted.
+     * Only use it for phases that do not run alongside other phases.
+     */
+    <T> T measureAllThreads(String phase, Supplier<T> work) {
+        return measure(phase, THREADS::getAllThreadIds, work);
+    }
+
+    void measureAllThreads(String phase, Runnable work) {
+        measureAllThreads(phase, () -> {
+            work.run();
+            return null;
+        });
+    }
+
+    private <T> T measure(String phase, Supplier<long[]> threadIds, Supplier<T> work) {
+        long start = System.nanoTime();
+        long allocated = allocatedBytes(threadIds.get());
+        try {
+            return work.get();
+        } finally {
+            put(phase + ".duration.ms", TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+            if (allocated >= 0) {
+                put(phase + ".allocated.bytes", Math.max(0, allocatedBytes(threadIds.get()) - allocated));
+            }
+        }
+    }
+
+    void put(String name, long value) {
+        metrics.put(name, value);
+    }
+
+    /**
+     * Ends the run, adding its total duration.
+     */
+    Map<String, Long> finish() {
+        put("generate.duration.ms", TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - started));
+        return getMetrics();
+    }
+
+    Map<String, Long> getMetrics() {
+        return new TreeMap<>(metrics);
+    }
+
+    /**
+     * @return the bytes allocated so far by the threads, -1 when the JVM does not measure them
+     */
+    private static long allocatedBytes(long[] threadIds) {
+        if (THREADS instanceof com.sun.management.ThreadMXBean) {
+            com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) THREADS;
+            if (threads.isThreadAllocatedMemorySupported() && threads.isThreadAllocatedMemoryEnabled()) {
+                long total = 0;
+                for (long allocated : threads.getThreadAllocatedBytes(threadIds)) {
+                    // threads that ended in the meantime report -1
+                    total += Math.max(0, allocated);
+                }
+                return total;
+            }
+        }
+        return -1;
+    }
+}
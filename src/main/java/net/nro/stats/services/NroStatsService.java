@@ -30,12 +30,18 @@
 package net.nro.stats.services;
 
 import com.google.common.base.Joiner;
+import com.google.common.base.Throwables;
 import com.google.common.collect.Lists;
+import com.google.common.hash.Hashing;
+import com.google.common.util.concurrent.MoreExecutors;
 import net.nro.stats.components.*;
-import net.nro.stats.components.merger.Delta;
+import net.nro.stats.components.merger.DeltaIndex;
+import net.nro.stats.components.merger.MergeHistory;
 import net.nro.stats.components.parser.Parser;
+import net.nro.stats.components.resolver.Resolver;
 import net.nro.stats.config.ExtendedInputConfig;
 import net.nro.stats.config.ExtendedOutputConfig;
+import net.nro.stats.config.MergeConfig;
 import net.nro.stats.resources.MergedStats;
 import net.nro.stats.resources.ParsedRIRStats;
 import net.nro.stats.resources.StatsSource;
@@ -43,14 +49,28 @@ import net.nro.stats.resources.URIContent;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
-import org.springframework.cache.annotation.CacheEvict;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.actuate.metrics.GaugeService;
+import org.springframework.cache.Cache;
+import org.springframework.cache.CacheManager;
 import org.springframework.cache.annotation.Cacheable;
 import org.springframework.stereotype.Service;
 
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 import java.util.Map;
-import java.util.stream.Collectors;
+import java.util.TreeMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.function.Function;
 
 @Service
 public class NroStatsService {
@@ -59,6 +79,9 @@ public class NroStatsService {
 
     private static final String CURRENT = "current";
     private static final String PREVIOUS = "previous";
+    private static final String DELTAS = "deltas";
+    private static final String INPUTS_DATE = "date";
+    private static final String INPUTS_CONFIG = "config";
 
     @Autowired
     ExtendedInputConfig extendedInputConfig;
@@ -84,73 +107,273 @@ public class NroStatsService {
     @Autowired
     URIContentRetriever uriContentRetriever;
 
-    @CacheEvict(cacheNames = "deltas", allEntries = true)
+    @Autowired
+    SnapshotStore snapshots;
+
+    @Autowired
+    @Qualifier("fetchExecutor")
+    Executor fetchExecutor;
+
+    @Autowired
+    @Qualifier("parseExecutor")
+    Executor parseExecutor;
+
+    @Autowired
+    MergeConfig mergeConfig;
+
+    @Autowired(required = false)
+    CacheManager cacheManager;
+
+    @Autowired
+    Resolver resolver;
+
+    @Autowired(required = false)
+    GaugeService gaugeService;
+
+    @Value("${nro.stats.extended.source.order}")
+    String[] sourceOrder;
+
+    @Value("${nro.stats.extended.registry.order}")
+    String[] registryOrder;
+
+    private final Map<String, ParsedSource> parsedSources = new ConcurrentHashMap<>();
+
+    private final MergeHistory mergeHistory = new MergeHistory();
+
+    private final Object currentStatsLock = new Object();
+
+    private volatile MergedStats currentStats;
+
+    /**
+     * Regenerates the output, unless every input is byte for byte the one the current output was generated from
+     * on the same day, with the same configuration. The cached differences are only evicted when a new output is written.
+     * The measurements of every run are published as gauges, and written next to the output it generated.
+     */
     public synchronized void generate() {
         logger.info("Generating Extended NRO Stats");
+        GenerationReport report = new GenerationReport();
+        Map<String, Long> metrics = null;
         try {
-            List<ParsedRIRStats> parsedRIRStats = fetchAndParseAllRirStats(extendedInputConfig.getRir());
-            ParsedRIRStats parsedIANAStats = fetchAndParseIanaStats("iana", extendedInputConfig.getIana());
-            ParsedRIRStats parsedRIRSwaps = fetchAndParseRirSwapStats(StatsSource.RIRSWAP.getValue(), extendedInputConfig.getSwaps());
+            Map<String, String> previousInputs = writer.readInputs();
+
+            // every input is fetched and parsed as soon as possible, but merged in the configured order
+            List<CompletableFuture<Source>> sources = new ArrayList<>();
+            extendedInputConfig.getRir().forEach((rir, url) -> sources.add(fetchAndParse(rir, url,
+                    content -> parser.parseRirStats(StatsSource.ESTATS, content), previousInputs, report)));
+            sources.add(fetchAndParse("iana", extendedInputConfig.getIana(), content -> parseIanaStats(content, report), previousInputs, report));
+            sources.add(fetchAndParse(StatsSource.RIRSWAP.getValue(), extendedInputConfig.getSwaps(),
+                    content -> parser.parseRIRSwaps(StatsSource.RIRSWAP, content), previousInputs, report));
 
-            // some data sets need extra pre-processing
-            preProcessor.processIanaStats(parsedIANAStats);
+            Map<String, String> inputs = new TreeMap<>();
+            inputs.put(INPUTS_DATE, dateTimeProvider.today());
+            inputs.put(INPUTS_CONFIG, configFingerprint());
+            List<Source> fetched = new ArrayList<>();
+            for (CompletableFuture<Source> source : sources) {
+                Source result = join(source);
+                inputs.put(result.name, result.content.getFingerprint());
+                fetched.add(result);
+            }
+            if (inputs.equals(previousInputs)) {
+                logger.info("Inputs have not changed since the last run, keeping the current output");
+                return;
+            }
 
+            List<CompletableFuture<ParsedRIRStats>> parsed = new ArrayList<>();
+            for (Source source : fetched) {
+                parsed.add(source.stats != null
+                        ? CompletableFuture.completedFuture(source.stats)
+                        : CompletableFuture.supplyAsync(source::parse, executor(parseExecutor)));
+            }
             List<ParsedRIRStats> combinedStats = new ArrayList<>();
-            combinedStats.addAll(parsedRIRStats);
-            combinedStats.add(parsedIANAStats);
-            combinedStats.add(parsedRIRSwaps);
+            for (CompletableFuture<ParsedRIRStats> stats : parsed) {
+                combinedStats.add(join(stats));
+            }
 
-            ParsedRIRStats nroStats = convert(recordsMerger.merge(combinedStats));
+            long conflicts = conflictCount();
+            MergedStats mergedStats = report.measureAllThreads("merge", () -> merge(combinedStats));
+            report.put("merge.conflicts", conflictCount() - conflicts);
+            ParsedRIRStats nroStats = report.measureAllThreads("convert", () -> convert(mergedStats));
+            report.put("output.records.asn", nroStats.getAsnRecords().size());
+            report.put("output.records.ipv4", nroStats.getIpv4Records().size());
+            report.put("output.records.ipv6", nroStats.getIpv6Records().size());
 
-            writer.write(nroStats);
+            report.measureAllThreads("write", () -> writer.write(nroStats));
+            report.put("write.bytes", outputSize());
+            writer.writeInputs(inputs);
+            evictDifferences();
+            report.measureAllThreads("snapshot", () -> saveSnapshot(mergedStats));
+            synchronized (currentStatsLock) {
+                currentStats = mergedStats;
+            }
+            metrics = report.finish();
+            saveReport(metrics);
 
             logger.info("Finished Generating Extended NRO stats");
         } catch (Exception e) {
+            mergeHistory.clear();
             logger.error("Failed while generating NRO Extended stats", e);
+        } finally {
+            publish(metrics != null ? metrics : report.finish());
+        }
+    }
+
+    private long conflictCount() {
+        return resolver != null ? resolver.getConflictCount() : 0;
+    }
+
+    private long outputSize() {
+        try {
+            return Files.size(Paths.get(extendedOutputConfig.getFolder(), extendedOutputConfig.getFile()));
+        } catch (IOException e) {
+            logger.warn("Unable to read the size of the output", e);
+            return -1;
+        }
+    }
+
+    /**
+     * The report only describes the output, so failing to write it is not an error.
+     */
+    private void saveReport(Map<String, Long> metrics) {
+        try {
+            writer.writeReport(metrics);
+        } catch (Exception e) {
+            logger.warn("Unable to write the report", e);
+        }
+    }
+
+    private void publish(Map<String, Long> metrics) {
+        if (gaugeService != null) {
+            metrics.forEach((name, value) -> gaugeService.submit("nro.stats." + name, value));
+        }
+    }
+
+    private void evictDifferences() {
+        Cache deltas = cacheManager != null ? cacheManager.getCache(DELTAS) : null;
+        if (deltas != null) {
+            deltas.clear();
+        }
+    }
+
+    /**
+     * @return a hash of the settings that change the output for the same inputs
+     */
+    private String configFingerprint() {
+        List<Object> settings = Lists.newArrayList(
+                extendedInputConfig.getRir().keySet(),
+                Arrays.toString(sourceOrder),
+                Arrays.toString(registryOrder),
+                extendedOutputConfig.getIdentifier(),
+                extendedOutputConfig.getVersion(),
+                extendedOutputConfig.getGzip(),
+                extendedOutputConfig.getChecksum());
+        if (mergeConfig != null) {
+            settings.addAll(Arrays.asList(mergeConfig.getIncremental(), mergeConfig.getSharded(),
+                    mergeConfig.getPrioritized(), mergeConfig.getSweep()));
+        }
+        String joined = Joiner.on('|').useForNull("null").join(settings);
+        return Hashing.murmur3_128().hashString(joined, StandardCharsets.UTF_8).toString();
+    }
+
+    /**
+     * Merges incrementally on top of the previous run when enabled, a full merge otherwise.
+     */
+    private MergedStats merge(List<ParsedRIRStats> combinedStats) {
+        if (mergeConfig == null || !mergeConfig.getIncremental()) {
+            mergeHistory.clear();
+            return recordsMerger.merge(combinedStats);
         }
+        return recordsMerger.merge(combinedStats, mergeHistory);
     }
 
     /**
-     * This method is cacheable and is cleaned up by the {@link #generate()} method.
+     * This method is cacheable and is cleaned up by the {@link #generate()} method. Only the records that differ are
+     * kept, the deltas are created as they are read from the index.
      * @return
      */
-    @Cacheable("deltas")
-    public List<Delta<?>> getDifferences() {
+    @Cacheable(DELTAS)
+    public DeltaIndex getDifferences() {
         logger.info("Generating difference report");
         MergedStats current = getStats(CURRENT, extendedOutputConfig.getFile());
         MergedStats previous = getStats(PREVIOUS, extendedOutputConfig.getPrevious());
-        return recordsMerger.findDifferences(current, previous);
+        return new DeltaIndex(recordsMerger.differences(current, previous).iterator());
     }
 
+    /**
+     * Returns the merged stats of the current output, which are replaced as a whole by every run that writes a new
+     * output. Until then they are loaded from the snapshot of the output, and are null when there is none yet.
+     */
+    public MergedStats getCurrentStats() {
+        MergedStats stats = currentStats;
+        if (stats == null) {
+            synchronized (currentStatsLock) {
+                stats = currentStats;
+                if (stats == null) {
+                    try {
+                        stats = getStats(CURRENT, extendedOutputConfig.getFile());
+                        currentStats = stats;
+                    } catch (Exception e) {
+                        logger.warn("Unable to load the current stats: {}", e.getMessage());
+                    }
+                }
+            }
+        }
+        return stats;
+    }
 
+    /**
+     * Loads the merged stats from the snapshot of the file, only parsing and merging the file when there is none.
+     */
     private MergedStats getStats(String identifier, String path) {
-        URIContent content;
-        if (uriContentRetriever.isExternal(path)) {
-            content = uriContentRetriever.fetch(identifier, path);
-        } else {
-            //add the output folder
-            content = uriContentRetriever.fetch(identifier,
-                    Joiner.on("/").join(extendedOutputConfig.getFolder(), path));
-        }
-        ParsedRIRStats stats = parser.parseNroStats(content);
-        MergedStats searchableStats =  recordsMerger.merge(Lists.newArrayList(stats));
+        URIContent content = fetchOutput(identifier, path);
+        MergedStats searchableStats = snapshots.read(identifier, content.getFingerprint());
+        if (searchableStats == null) {
+            ParsedRIRStats stats = parser.parseNroStats(content);
+            searchableStats = recordsMerger.merge(Lists.newArrayList(stats));
+            saveSnapshot(identifier, content, searchableStats);
+        }
         return searchableStats;
     }
 
-    private ParsedRIRStats fetchAndParseRirSwapStats(String dataSetName, String url) {
-        URIContent uriContent = uriContentRetriever.fetch(dataSetName, url);
-        return parser.parseRIRSwaps(StatsSource.RIRSWAP, uriContent);
+    private URIContent fetchOutput(String identifier, String path) {
+        if (uriContentRetriever.isExternal(path)) {
+            return uriContentRetriever.fetch(identifier, path);
+        }
+        //add the output folder
+        return uriContentRetriever.fetch(identifier, Joiner.on("/").join(extendedOutputConfig.getFolder(), path));
+    }
+
+    /**
+     * Snapshots the new output. When the previous file is the local copy of the output that was current, its
+     * snapshot becomes the previous one; any other previous file keeps the snapshot made from it. A snapshot only
+     * saves work, so failing to write one is not an error.
+     */
+    private void saveSnapshot(MergedStats stats) {
+        try {
+            if (extendedOutputConfig.getPreviousFileLink().equals(extendedOutputConfig.getPrevious())) {
+                snapshots.rename(CURRENT, PREVIOUS);
+            }
+            snapshots.write(CURRENT, fetchOutput(CURRENT, extendedOutputConfig.getFile()).getFingerprint(), stats);
+        } catch (Exception e) {
+            logger.warn("Unable to write the {} snapshot", CURRENT, e);
+        }
     }
 
-    private ParsedRIRStats fetchAndParseIanaStats(String dataSetName, String url) {
-        return fetchAndParseRecords(StatsSource.IANA_REGISTRY, dataSetName, url);
+    private void saveSnapshot(String identifier, URIContent content, MergedStats stats) {
+        try {
+            snapshots.write(identifier, content.getFingerprint(), stats);
+        } catch (Exception e) {
+            logger.warn("Unable to write the {} snapshot", identifier, e);
+        }
     }
 
-    private List<ParsedRIRStats> fetchAndParseAllRirStats(Map<String, String> urls) {
-        return urls.keySet()
-                .parallelStream()
-                .map(rir -> fetchAndParseRecords(StatsSource.ESTATS, rir, urls.get(rir)))
-                .collect(Collectors.toList());
+    private ParsedRIRStats parseIanaStats(URIContent content, GenerationReport report) {
+        ParsedRIRStats stats = parser.parseRirStats(StatsSource.IANA_REGISTRY, content);
+        // some data sets need extra pre-processing, which is part of their parse phase
+        report.measure("preprocess.iana", () -> {
+            preProcessor.processIanaStats(stats);
+            return stats;
+        });
+        return stats;
     }
 
     private ParsedRIRStats convert(MergedStats mergedStats) {
@@ -162,8 +385,93 @@ public class NroStatsService {
         return stats;
     }
 
-    private ParsedRIRStats fetchAndParseRecords(StatsSource source, String dataSetName, String url) {
-        URIContent uriContent = uriContentRetriever.fetch(dataSetName, url);
-        return parser.parseRirStats(source, uriContent);
+    /**
+     * Fetches a data set and parses it, unless it is the same as the one the current output was generated from.
+     * Whether it still needs parsing is only known once all data sets are in.
+     */
+    private CompletableFuture<Source> fetchAndParse(String dataSetName, String url, Function<URIContent, ParsedRIRStats> parse,
+                                                    Map<String, String> previousInputs, GenerationReport report) {
+        return CompletableFuture
+                .supplyAsync(() -> {
+                    URIContent content = report.measure("fetch." + dataSetName, () -> uriContentRetriever.fetch(dataSetName, url));
+                    report.put("fetch." + dataSetName + ".bytes", content.getBuffer().remaining());
+                    return content;
+                }, executor(fetchExecutor))
+                .thenApplyAsync(content -> {
+                    Source source = new Source(dataSetName, url, content, parse, report);
+                    if (!content.getFingerprint().equals(previousInputs.get(dataSetName))) {
+                        source.parse();
+                    }
+                    return source;
+                }, executor(parseExecutor));
+    }
+
+    private Executor executor(Executor executor) {
+        return executor != null ? executor : MoreExecutors.directExecutor();
+    }
+
+    private <T> T join(CompletableFuture<T> future) {
+        try {
+            return future.join();
+        } catch (CompletionException e) {
+            Throwables.propagateIfPossible(e.getCause());
+            throw e;
+        }
+    }
+
+    /**
+     * Reuses the previous parse of a data set when the source reports it as not modified, or its content has the
+     * same fingerprint. Records without a date get today's, so a parse is only reused on the day it was made.
+     */
+    private ParsedRIRStats parse(String dataSetName, String url, URIContent uriContent, Function<URIContent, ParsedRIRStats> parse) {
+        String version = url + "@" + dateTimeProvider.today();
+        ParsedSource previous = parsedSources.get(dataSetName);
+        if (previous != null && previous.version.equals(version)
+                && (!uriContent.isModified() || previous.fingerprint.equals(uriContent.getFingerprint()))) {
+            logger.info("{} has not been modified, reusing parsed records", dataSetName);
+            return previous.stats;
+        }
+        ParsedRIRStats stats = parse.apply(uriContent);
+        parsedSources.put(dataSetName, new ParsedSource(version, uriContent.getFingerprint(), stats));
+        return stats;
+    }
+
+    private static class ParsedSource {
+        private final String version;
+        private final String fingerprint;
+        private final ParsedRIRStats stats;
+
+        ParsedSource(String version, String fingerprint, ParsedRIRStats stats) {
+            this.version = version;
+            this.fingerprint = fingerprint;
+            this.stats = stats;
+        }
+    }
+
+    private class Source {
+        private final String name;
+        private final String url;
+        private final URIContent content;
+        private final Function<URIContent, ParsedRIRStats> parse;
+        private final GenerationReport report;
+        private volatile ParsedRIRStats stats;
+
+        Source(String name, String url, URIContent content, Function<URIContent, ParsedRIRStats> parse, GenerationReport report) {
+            this.name = name;
+            this.url = url;
+            this.content = content;
+            this.parse = parse;
+            this.report = report;
+        }
+
+        ParsedRIRStats parse() {
+            String phase = "parse." + name;
+            stats = report.measure(phase, () -> NroStatsService.this.parse(name, url, content, parse));
+            report.put(phase + ".lines", stats.getLineCount());
+            report.put(phase + ".records.asn", stats.getAsnRecords().size());
+            report.put(phase + ".records.ipv4", stats.getIpv4Records().size());
+            report.put(phase + ".records.ipv6", stats.getIpv6Records().size());
+            return stats;
+        }
     }
 }
@@ -0,0 +1,118 @@
+/**
+ * The BSD License
+ *
+ * Copyright (c) 2010-2016 RIPE NCC
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *   - Redistributions of source code must retain the above copyright notice,
+ *     this list of conditions and the following disclaimer.
+ *   - Redistributions in binary form must reproduce the above copyright notice,
+ *     this list of conditions and the following disclaimer in the documentation
+ *     and/or other materials provided with the distribution.
+ *   - Neither the name of the RIPE NCC nor the names of its contributors may be
+ *     used to endorse or promote products derived from this software without
+ *     specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package net.nro.stats.services;
+
+import net.nro.stats.components.merger.ASNNode;
+import net.nro.stats.components.merger.IPv4Merger;
+import net.nro.stats.components.merger.IPv6Merger;
+import net.nro.stats.components.parser.Record;
+import net.nro.stats.resources.MergedStats;
+import net.ripe.commons.ip.Asn;
+import net.ripe.commons.ip.AsnRange;
+import net.ripe.commons.ip.Ipv4;
+import net.ripe.commons.ip.Ipv4Range;
+import net.ripe.commons.ip.Ipv6;
+import net.ripe.commons.ip.Ipv6Range;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Service;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * Looks up resources in the merged stats of the current output, without touching the file.
+ *
+ * A resource is an AS number, an IPv4 or IPv6 address, a prefix in CIDR notation or a range of any of them written
+ * as {@code first-last}. Lookups either find the record covering the whole resource, which for an address or prefix
+ * is its longest matching prefix, or all records overlapping it.
+ */
+@Service
+public class ResourceQueryService {
+
+    public enum Match {COVERING, OVERLAPPING}
+
+    @Autowired
+    NroStatsService statsService;
+
+    @Autowired
+    IPv4Merger iPv4Merger;
+
+    @Autowired
+    IPv6Merger iPv6Merger;
+
+    /**
+     * @return the matching records in resource order, or null when there are no merged stats to look in yet
+     * @throws IllegalArgumentException when the resource can not be parsed
+     */
+    public List<Record<?>> find(String resource, Match match) {
+        String query = resource.trim();
+        if (query.isEmpty()) {
+            throw new IllegalArgumentException("No resource given");
+        }
+        MergedStats stats = statsService.getCurrentStats();
+        if (stats == null) {
+            return null;
+        }
+        if (query.contains(":")) {
+            Ipv6Range range = isRange(query) ? Ipv6Range.parse(query) : Ipv6Range.from(Ipv6.parse(query)).andPrefixLength(Ipv6.NUMBER_OF_BITS);
+            return match == Match.COVERING
+                    ? asList(iPv6Merger.findCovering(stats.getIpv6s(), range))
+                    : new ArrayList<>(iPv6Merger.findOverlapping(stats.getIpv6s(), range));
+        }
+        if (query.contains(".") && !query.toUpperCase().startsWith("AS")) {
+            Ipv4Range range = isRange(query) ? Ipv4Range.parse(query) : Ipv4Range.from(Ipv4.parse(query)).andPrefixLength(Ipv4.NUMBER_OF_BITS);
+            return match == Match.COVERING
+                    ? asList(iPv4Merger.findCovering(stats.getIpv4s(), range))
+                    : new ArrayList<>(iPv4Merger.findOverlapping(stats.getIpv4s(), range));
+        }
+        Asn asn = isRange(query) ? null : Asn.parse(query);
+        AsnRange range = asn == null ? AsnRange.parse(query) : AsnRange.from(asn).to(asn);
+        List<ASNNode> nodes = stats.getAsns().findAllOverlaps(range);
+        // the tree reports the overlaps in its own order
+        nodes.sort(Comparator.comparing(node -> node.getRange().start()));
+        List<Record<?>> records = new ArrayList<>();
+        for (ASNNode node : nodes) {
+            if (match == Match.OVERLAPPING || node.getRange().contains(range)) {
+                records.add(node.getRecord());
+            }
+        }
+        return records;
+    }
+
+    private boolean isRange(String query) {
+        return query.contains("/") || query.contains("-");
+    }
+
+    private List<Record<?>> asList(Record<?> record) {
+        return record != null ? Collections.singletonList(record) : Collections.emptyList();
+    }
+}
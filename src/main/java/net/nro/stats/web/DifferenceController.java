@@ -29,30 +29,132 @@
  */
 package net.nro.stats.web;
 
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import net.nro.stats.components.merger.Delta;
+import net.nro.stats.components.merger.DeltaFilter;
+import net.nro.stats.components.merger.DeltaIndex;
 import net.nro.stats.services.NroStatsService;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.RequestHeader;
 import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
 
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.List;
+
+import static net.nro.stats.config.JavaExtensions.rethrowConsumer;
 import static org.springframework.web.bind.annotation.RequestMethod.GET;
 
 /**
  * Controller to retrieve the differences with the previous version
+ *
+ * The differences are streamed, as a JSON array or, when the client accepts {@value #NDJSON}, as one JSON object per
+ * line. They can be filtered by address family, registry, country code and change, and read in pages of at most
+ * {@code limit} differences. The header {@value #NEXT_CURSOR} of a page holds the cursor of the next one, if any.
  */
 @RestController
 @RequestMapping("differences")
 public class DifferenceController {
+    public static final String NDJSON = "application/x-ndjson";
+    public static final String NEXT_CURSOR = "X-Next-Cursor";
+
+    private static final List<String> FAMILIES = Arrays.asList("asn", "ipv4", "ipv6");
+
     private Logger logger = LoggerFactory.getLogger(this.getClass());
 
     @Autowired
     NroStatsService statsService;
 
+    @Autowired
+    ObjectMapper objectMapper;
+
     @RequestMapping(method = GET)
-    public ResponseEntity<?> getDifferences() {
+    public ResponseEntity<StreamingResponseBody> getDifferences(@RequestParam(required = false) String family,
+                                            @RequestParam(required = false) String registry,
+                                            @RequestParam(required = false) String country,
+                                            @RequestParam(required = false) String change,
+                                            @RequestParam(required = false) String cursor,
+                                            @RequestParam(required = false) Integer limit,
+                                            @RequestHeader(value = HttpHeaders.ACCEPT, required = false) String accept) {
         logger.debug("Requesting differences");
-        return ResponseEntity.ok(statsService.getDifferences());
+        if (family != null && !FAMILIES.contains(family)) {
+            return error(HttpStatus.BAD_REQUEST, "Unknown family " + family);
+        }
+        DeltaFilter.Change changeType;
+        try {
+            changeType = change != null ? DeltaFilter.Change.valueOf(change.toUpperCase()) : null;
+        } catch (IllegalArgumentException e) {
+            return error(HttpStatus.BAD_REQUEST, "Unknown change " + change);
+        }
+        if (limit != null && limit <= 0) {
+            return error(HttpStatus.BAD_REQUEST, "The limit has to be positive");
+        }
+        DeltaFilter filter = new DeltaFilter(family, registry, country, changeType);
+
+        DeltaIndex index = statsService.getDifferences();
+        int from = 0;
+        if (cursor != null) {
+            String[] parts = cursor.split(":");
+            if (parts.length != 2 || !parts[1].matches("\\d{1,9}")) {
+                return error(HttpStatus.BAD_REQUEST, "Invalid cursor " + cursor);
+            }
+            if (!parts[0].equals(index.getVersion())) {
+                return error(HttpStatus.GONE, "The differences have been regenerated since the cursor was issued");
+            }
+            from = Integer.parseInt(parts[1]);
+        }
+
+        // find the end of the page up front, so the cursor of the next page can go in the headers
+        int to = limit != null ? index.skip(filter, from, limit) : index.size();
+        ResponseEntity.BodyBuilder response = ResponseEntity.ok();
+        if (index.find(filter, to) >= 0) {
+            response.header(NEXT_CURSOR, index.getVersion() + ":" + to);
+        }
+        boolean lines = accept != null && accept.contains(NDJSON);
+        int start = from;
+        StreamingResponseBody body = outputStream -> {
+            try (JsonGenerator generator = objectMapper.getFactory().createGenerator(outputStream)) {
+                // the container owns the response stream
+                generator.disable(JsonGenerator.Feature.AUTO_CLOSE_TARGET);
+                generator.setRootValueSeparator(null);
+                if (!lines) {
+                    generator.writeStartArray();
+                }
+                index.forEach(filter, start, to, rethrowConsumer(delta -> write(generator, delta, lines)));
+                if (!lines) {
+                    generator.writeEndArray();
+                }
+            }
+        };
+        return response.contentType(lines ? MediaType.parseMediaType(NDJSON) : MediaType.APPLICATION_JSON).body(body);
+    }
+
+    /**
+     * The streaming handler only takes streaming bodies, so errors are streamed as well.
+     */
+    private ResponseEntity<StreamingResponseBody> error(HttpStatus status, String message) {
+        return ResponseEntity.status(status).contentType(MediaType.TEXT_PLAIN)
+                .body(outputStream -> outputStream.write(message.getBytes(StandardCharsets.UTF_8)));
+    }
+
+    private void write(JsonGenerator generator, Delta<?> delta, boolean lines) throws IOException {
+        generator.writeStartObject();
+        generator.writeStringField("current", delta.getCurrent());
+        generator.writeStringField("previous", delta.getPrevious());
+        generator.writeEndObject();
+        if (lines) {
+            generator.writeRaw('\n');
+        }
     }
 }
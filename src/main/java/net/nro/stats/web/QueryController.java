@@ -0,0 +1,89 @@
+/**
+ * The BSD License
+ *
+ * Copyright (c) 2010-2016 RIPE NCC
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *   - Redistributions of source code must retain the above copyright notice,
+ *     this list of conditions and the following disclaimer.
+ *   - Redistributions in binary form must reproduce the above copyright notice,
+ *     this list of conditions and the following disclaimer in the documentation
+ *     and/or other materials provided with the distribution.
+ *   - Neither the name of the RIPE NCC nor the names of its contributors may be
+ *     used to endorse or promote products derived from this software without
+ *     specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package net.nro.stats.web;
+
+import net.nro.stats.components.parser.Record;
+import net.nro.stats.services.ResourceQueryService;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.RestController;
+
+import java.util.List;
+import java.util.stream.Collectors;
+
+import static org.springframework.web.bind.annotation.RequestMethod.GET;
+
+/**
+ * Controller to look up resources in the current output
+ *
+ * By default the record covering the resource is returned, use {@code match=overlapping} for every record
+ * overlapping it. Records are returned as a JSON array of lines in the format of the output file.
+ */
+@RestController
+@RequestMapping("query")
+public class QueryController {
+
+    private Logger logger = LoggerFactory.getLogger(this.getClass());
+
+    @Autowired
+    ResourceQueryService queryService;
+
+    @RequestMapping(method = GET)
+    public ResponseEntity<?> query(@RequestParam String resource,
+                                   @RequestParam(required = false, defaultValue = "covering") String match) {
+        logger.debug("Querying {}", resource);
+        ResourceQueryService.Match matchType;
+        try {
+            matchType = ResourceQueryService.Match.valueOf(match.toUpperCase());
+        } catch (IllegalArgumentException e) {
+            return error(HttpStatus.BAD_REQUEST, "Unknown match " + match);
+        }
+        List<Record<?>> records;
+        try {
+            records = queryService.find(resource, matchType);
+        } catch (IllegalArgumentException e) {
+            return error(HttpStatus.BAD_REQUEST, "Invalid resource " + resource);
+        }
+        if (records == null) {
+            return error(HttpStatus.SERVICE_UNAVAILABLE, "No stats have been generated yet");
+        }
+        return ResponseEntity.ok(records.stream().map(Record::toString).collect(Collectors.toList()));
+    }
+
+    private ResponseEntity<?> error(HttpStatus status, String message) {
+        return ResponseEntity.status(status).contentType(MediaType.TEXT_PLAIN).body(message);
+    }
+}
@@ -32,6 +32,7 @@ package net.nro.stats;
 
 import net.nro.stats.components.merger.Delta;
 import net.nro.stats.config.ExtendedOutputConfig;
+import net.nro.stats.web.DifferenceController;
 import org.junit.After;
 import org.junit.Before;
 import org.junit.Test;
@@ -41,8 +42,13 @@ import org.springframework.beans.factory.annotation.Value;
 import org.springframework.boot.test.SpringApplicationConfiguration;
 import org.springframework.boot.test.TestRestTemplate;
 import org.springframework.boot.test.WebIntegrationTest;
+import org.springframework.http.HttpEntity;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpMethod;
 import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
+import org.springframework.http.client.SimpleClientHttpRequestFactory;
 import org.springframework.test.context.ActiveProfiles;
 import org.springframework.test.context.junit4.SpringJUnit4ClassRunner;
 import org.springframework.web.client.RestTemplate;
@@ -52,6 +58,7 @@ import java.nio.file.Paths;
 import java.util.Map;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertTrue;
 
 @RunWith(SpringJUnit4ClassRunner.class)
@@ -95,6 +102,31 @@ public class WebIntegrationTests {
         assertEquals(HttpStatus.OK, responseDiff.getStatusCode());
         assertTrue(responseDiff.getBody().length == 0);
 
+        HttpHeaders ndjson = new HttpHeaders();
+        ndjson.set(HttpHeaders.ACCEPT, DifferenceController.NDJSON);
+        ResponseEntity<String> responseLines = restTemplate.exchange(appContext + "/differences?family=ipv4&limit=10",
+                HttpMethod.GET, new HttpEntity<>(ndjson), String.class);
+        assertEquals(HttpStatus.OK, responseLines.getStatusCode());
+        assertTrue(MediaType.parseMediaType(DifferenceController.NDJSON).includes(responseLines.getHeaders().getContentType()));
+        assertNull(responseLines.getHeaders().getFirst(DifferenceController.NEXT_CURSOR));
+        assertEquals(HttpStatus.BAD_REQUEST,
+                restTemplate.getForEntity(appContext + "/differences?family=ipv5", String.class).getStatusCode());
+
+        ResponseEntity<String[]> responseQuery = restTemplate.getForEntity(appContext + "/query?resource=AS1&match=overlapping", String[].class);
+        assertEquals(HttpStatus.OK, responseQuery.getStatusCode());
+        assertEquals(HttpStatus.BAD_REQUEST,
+                restTemplate.getForEntity(appContext + "/query?resource=AS1&match=nearest", String.class).getStatusCode());
+        assertEquals(HttpStatus.BAD_REQUEST,
+                restTemplate.getForEntity(appContext + "/query?resource=300.0.0.0", String.class).getStatusCode());
+
+        HttpHeaders headers = new HttpHeaders();
+        headers.set(HttpHeaders.ACCEPT_ENCODING, "gzip");
+        // the default client decompresses transparently and drops the Content-Encoding header
+        ResponseEntity<byte[]> responseGzip = new RestTemplate(new SimpleClientHttpRequestFactory()).exchange(appContext + "/nro/" + extendedOutputConfig.getFile(),
+                HttpMethod.GET, new HttpEntity<>(headers), byte[].class);
+        assertEquals(HttpStatus.OK, responseGzip.getStatusCode());
+        assertEquals("gzip", responseGzip.getHeaders().getFirst(HttpHeaders.CONTENT_ENCODING));
+
         assertTrue(Files.deleteIfExists(Paths.get(extendedOutputConfig.getFolder(), extendedOutputConfig.getFile())));
         assertTrue(Files.notExists(Paths.get(extendedOutputConfig.getFolder(), extendedOutputConfig.getTmpFile())));
         assertTrue(Files.notExists(Paths.get(extendedOutputConfig.getFolder(), extendedOutputConfig.getFile()+"."+ extendedOutputConfig.getBackupFormat())));
@@ -104,5 +136,11 @@ public class WebIntegrationTests {
     public void cleanUp() throws Exception {
         Files.deleteIfExists(Paths.get(extendedOutputConfig.getFolder(), extendedOutputConfig.getFile()));
         Files.deleteIfExists(Paths.get(extendedOutputConfig.getFolder(), extendedOutputConfig.getPreviousFileLink()));
+        Files.deleteIfExists(Paths.get(extendedOutputConfig.getFolder(), extendedOutputConfig.getInputsFile()));
+        Files.deleteIfExists(Paths.get(extendedOutputConfig.getFolder(), extendedOutputConfig.getGzipFile()));
+        Files.deleteIfExists(Paths.get(extendedOutputConfig.getFolder(), extendedOutputConfig.getChecksumFile()));
+        Files.deleteIfExists(Paths.get(extendedOutputConfig.getFolder(), extendedOutputConfig.getReportFile()));
+        Files.deleteIfExists(Paths.get(extendedOutputConfig.getFolder(), extendedOutputConfig.getSnapshotFile("current")));
+        Files.deleteIfExists(Paths.get(extendedOutputConfig.getFolder(), extendedOutputConfig.getSnapshotFile("previous")));
     }
 }
@@ -29,41 +29,27 @@
  */
 package net.nro.stats.components;
 
-import org.apache.commons.csv.CSVFormat;
-import org.apache.commons.csv.CSVRecord;
+import net.nro.stats.components.parser.LineTokenizer;
 
-import java.io.FileReader;
 import java.io.IOException;
-import java.io.Reader;
+import java.net.URISyntaxException;
 import java.net.URL;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
 
-public class CSVRecordUtil {
-
-    public static Iterable<CSVRecord> read(Reader reader) throws Exception {
-        Iterable<CSVRecord> lines = CSVFormat
-                .DEFAULT
-                .withDelimiter('|')
-                .withCommentMarker('#') // only recognized at start of line!
-                .withRecordSeparator('\n')
-                .withIgnoreEmptyLines()
-                .withIgnoreSurroundingSpaces()
-                .parse(reader);
-        return lines;
+public class LineTokenizerUtil {
 
+    public static LineTokenizer parse(String lines) {
+        return new LineTokenizer(ByteBuffer.wrap(lines.getBytes(StandardCharsets.US_ASCII)), '|', StandardCharsets.US_ASCII);
     }
 
-    public static Iterable<CSVRecord> read(String sourceFileName) throws IOException {
-        URL testFile = CSVRecordUtil.class.getClassLoader().getResource(sourceFileName);
+    public static LineTokenizer read(String sourceFileName) throws IOException, URISyntaxException {
+        URL testFile = LineTokenizerUtil.class.getClassLoader().getResource(sourceFileName);
 
         assert testFile != null;
-        Reader in = new FileReader(testFile.getPath());
-        return CSVFormat
-                .DEFAULT
-                .withDelimiter('|')
-                .withCommentMarker('#') // only recognized at start of line!
-                .withRecordSeparator('\n')
-                .withIgnoreEmptyLines()
-                .withIgnoreSurroundingSpaces()
-                .parse(in);
+        byte[] bytes = Files.readAllBytes(Paths.get(testFile.toURI()));
+        return new LineTokenizer(ByteBuffer.wrap(bytes), '|', StandardCharsets.US_ASCII);
     }
 }
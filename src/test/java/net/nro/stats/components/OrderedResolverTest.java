@@ -32,14 +32,15 @@ package net.nro.stats.components;
 import net.nro.stats.components.parser.IPv4Record;
 import net.nro.stats.components.resolver.OrderedResolver;
 import net.nro.stats.resources.StatsSource;
-import org.apache.commons.csv.CSVFormat;
-import org.apache.commons.csv.CSVRecord;
+import net.nro.stats.components.parser.LineTokenizer;
 import org.junit.Test;
 
-import java.io.IOException;
-import java.io.StringReader;
-import java.util.Iterator;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
 
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
 import static org.junit.Assert.assertTrue;
 
 public class OrderedResolverTest {
@@ -48,35 +49,98 @@ public class OrderedResolverTest {
 
     @Test
     public void testBasic() throws Exception {
-        Iterable<CSVRecord> lines = getCsvRecords(
+        LineTokenizer lines = LineTokenizerUtil.parse(
                 "apnic|AU|ipv4|1.0.0.0|256|20110811|assigned|A91872ED\n" +
                 "ripencc|CN|ipv4|1.0.1.0|256|20110414|allocated|A92E1062|ext4|ext5|ext6\n");
-        Iterator<CSVRecord> iterator = lines.iterator();
-        IPv4Record rec = resolver.resolve(new IPv4Record(iterator.next(), "someDate"), new IPv4Record(iterator.next(), "someDate"));
+        lines.next();
+        IPv4Record first = new IPv4Record(lines, "someDate");
+        lines.next();
+        IPv4Record rec = resolver.resolve(first, new IPv4Record(lines, "someDate"));
         assertTrue(rec.getRegistry().equals("apnic"));
     }
 
     @Test
     public void testRirSwaps() throws Exception {
-        Iterable<CSVRecord> lines = getCsvRecords(
+        LineTokenizer line = LineTokenizerUtil.parse(
                 "apnic|AU|ipv4|1.0.0.0|256|20110811|assigned|A91872ED\n");
-        Iterator<CSVRecord> iterator = lines.iterator();
+        line.next();
 
-        CSVRecord csvRecord = iterator.next();
-        IPv4Record rec = resolver.resolve(new IPv4Record(StatsSource.ESTATS, csvRecord, "someDate"),
-                new IPv4Record(StatsSource.RIRSWAP, csvRecord, "someDate"));
+        IPv4Record rec = resolver.resolve(new IPv4Record(StatsSource.ESTATS, line, "someDate"),
+                new IPv4Record(StatsSource.RIRSWAP, line, "someDate"));
 
         assertTrue(rec.getSource() == StatsSource.ESTATS);
     }
 
-    private Iterable<CSVRecord> getCsvRecords(String records) throws IOException {
-        return CSVFormat
-                    .DEFAULT
-                    .withDelimiter('|')
-                    .withCommentMarker('#') // only recognized at start of line!
-                    .withRecordSeparator('\n')
-                    .withIgnoreEmptyLines()
-                    .withIgnoreSurroundingSpaces()
-                    .parse(new StringReader(records));
+    @Test
+    public void testSourceOrderGoesBeforeRegistryOrder() throws Exception {
+        LineTokenizer lines = LineTokenizerUtil.parse(
+                "apnic|AU|ipv4|1.0.0.0|256|20110811|assigned|A91872ED\n" +
+                "lacnic|BR|ipv4|1.0.0.0|256|20110414|allocated|A92E1062\n");
+        lines.next();
+        IPv4Record apnic = new IPv4Record(StatsSource.ESTATS, lines, "someDate");
+        lines.next();
+        IPv4Record lacnic = new IPv4Record(StatsSource.ESTATS, lines, "someDate");
+        IPv4Record ianaLacnic = new IPv4Record(StatsSource.IANA_REGISTRY, lines, "someDate");
+
+        assertSame(apnic, resolver.resolve(apnic, lacnic));
+        assertSame(apnic, resolver.resolve(lacnic, apnic));
+        assertSame(ianaLacnic, resolver.resolve(apnic, ianaLacnic));
+        assertSame(ianaLacnic, resolver.resolve(ianaLacnic, apnic));
+    }
+
+    @Test
+    public void testIetfReservedGoesBeforeOtherSources() throws Exception {
+        LineTokenizer lines = LineTokenizerUtil.parse(
+                "iana|ZZ|ipv4|1.0.0.0|256|20110811|reserved|\n" +
+                "apnic|AU|ipv4|1.0.0.0|256|20110811|reserved|A91872ED\n");
+        lines.next();
+        IPv4Record ietf = new IPv4Record(StatsSource.RIRSWAP, lines, "someDate");
+        IPv4Record sameSource = new IPv4Record(StatsSource.IANA_REGISTRY, lines, "someDate");
+        lines.next();
+        IPv4Record reserved = new IPv4Record(StatsSource.IANA_REGISTRY, lines, "someDate");
+
+        assertTrue(ietf.isIetf());
+        assertSame(ietf, resolver.resolve(reserved, ietf));
+        assertSame(ietf, resolver.resolve(ietf, reserved));
+        // within a source only the registry order counts
+        OrderedResolver ianaLast = new OrderedResolver("iana,e-stats,rir-swap".split(","), "apnic,iana".split(","));
+        assertSame(reserved, ianaLast.resolve(sameSource, reserved));
+    }
+
+    @Test
+    public void testPriorityOrderSortsWinnersFirst() throws Exception {
+        LineTokenizer lines = LineTokenizerUtil.parse(
+                "iana|ZZ|ipv4|1.0.0.0|256|20110811|reserved|\n" +
+                "apnic|AU|ipv4|1.0.0.0|256|20110811|assigned|A91872ED\n" +
+                "lacnic|BR|ipv4|1.0.0.0|256|20110414|allocated|A92E1062\n");
+        lines.next();
+        IPv4Record ietf = new IPv4Record(StatsSource.RIRSWAP, lines, "someDate");
+        lines.next();
+        IPv4Record apnic = new IPv4Record(StatsSource.ESTATS, lines, "someDate");
+        lines.next();
+        IPv4Record lacnic = new IPv4Record(StatsSource.ESTATS, lines, "someDate");
+        IPv4Record ianaLacnic = new IPv4Record(StatsSource.IANA_REGISTRY, lines, "someDate");
+
+        List<IPv4Record> records = Arrays.asList(lacnic, apnic, ianaLacnic, ietf);
+        records.sort(resolver.priorityOrder());
+
+        assertEquals(Arrays.asList(ietf, ianaLacnic, apnic, lacnic), records);
+    }
+
+    @Test
+    public void testConflictsAreCounted() throws Exception {
+        LineTokenizer lines = LineTokenizerUtil.parse(
+                "apnic|AU|ipv4|1.0.0.0|256|20110811|assigned|A91872ED\n" +
+                "ripencc|CN|ipv4|1.0.0.0|512|20110414|allocated|A92E1062\n");
+        lines.next();
+        IPv4Record first = new IPv4Record(StatsSource.ESTATS, lines, "someDate");
+        IPv4Record swap = new IPv4Record(StatsSource.RIRSWAP, lines, "someDate");
+        lines.next();
+        IPv4Record second = new IPv4Record(StatsSource.ESTATS, lines, "someDate");
+
+        resolver.recordConflict(first, Arrays.asList(second, swap));
+        resolver.recordConflict(swap, Collections.singletonList(second));
+
+        assertEquals(1, resolver.getConflictCount());
     }
 }
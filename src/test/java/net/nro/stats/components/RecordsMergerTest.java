@@ -46,11 +46,14 @@ import org.junit.runner.RunWith;
 import org.mockito.InjectMocks;
 import org.mockito.Spy;
 import org.mockito.runners.MockitoJUnitRunner;
+import org.springframework.test.util.ReflectionTestUtils;
 
 import java.nio.charset.Charset;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 import java.util.stream.Collectors;
 
 import static org.junit.Assert.*;
@@ -94,6 +97,23 @@ public class RecordsMergerTest {
         assertEquals(1, nroStats.getIpv6s().getRecords().size());
     }
 
+    @Test
+    public void testMergeOnExecutor() throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            ReflectionTestUtils.setField(recordsMerger, "mergeExecutor", executor);
+
+            MergedStats nroStats = recordsMerger.merge(fetchTestRIRStats());
+
+            assertEquals(1, nroStats.getAsns().getOrderedRecords().size());
+            assertEquals(3, nroStats.getIpv4s().getRecords().size());
+            assertEquals(1, nroStats.getIpv6s().getRecords().size());
+            assertNotNull(nroStats.getHeaderStartDate());
+        } finally {
+            executor.shutdown();
+        }
+    }
+
     private List<ParsedRIRStats> fetchTestRIRStats() {
         Map<String, String> urls = new HashMap<>();
         urls.put("ripencc", "src/test/resources/ripencc.test.delegated.stats.txt");
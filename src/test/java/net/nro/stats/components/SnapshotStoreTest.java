@@ -0,0 +1,149 @@
+/**
+ * The BSD License
+ *
+ * Copyright (c) 2010-2016 RIPE NCC
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *   - Redistributions of source code must retain the above copyright notice,
+ *     this list of conditions and the following disclaimer.
+ *   - Redistributions in binary form must reproduce the above copyright notice,
+ *     this list of conditions and the following disclaimer in the documentation
+ *     and/or other materials provided with the distribution.
+ *   - Neither the name of the RIPE NCC nor the names of its contributors may be
+ *     used to endorse or promote products derived from this software without
+ *     specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package net.nro.stats.components;
+
+import net.nro.stats.components.merger.ASNMerger;
+import net.nro.stats.components.merger.HeaderMerger;
+import net.nro.stats.components.merger.IPv4Merger;
+import net.nro.stats.components.merger.IPv6Merger;
+import net.nro.stats.components.parser.ASNRecord;
+import net.nro.stats.components.parser.IPv4Record;
+import net.nro.stats.components.parser.IPv6Record;
+import net.nro.stats.components.parser.Line;
+import net.nro.stats.components.parser.Parser;
+import net.nro.stats.components.resolver.OrderedResolver;
+import net.nro.stats.config.ExtendedOutputConfig;
+import net.nro.stats.resources.MergedStats;
+import net.nro.stats.resources.ParsedRIRStats;
+import net.nro.stats.resources.StatsSource;
+import net.nro.stats.resources.URIContent;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class SnapshotStoreTest {
+
+    private OrderedResolver resolver = new OrderedResolver("iana,e-stats,rir-swap".split(","),
+            "apnic,afrinic,arin,ripencc,lacnic".split(","));
+
+    ExtendedOutputConfig out = new ExtendedOutputConfig();
+
+    RecordsMerger recordsMerger = new RecordsMerger();
+
+    SnapshotStore snapshots = new SnapshotStore(out, recordsMerger);
+
+    @Before
+    public void setUp() throws Exception {
+        out.setFolder("tmp");
+        out.setFile("file");
+        Files.createDirectories(Paths.get(out.getFolder()));
+        ReflectionTestUtils.setField(recordsMerger, "iPv4Merger", new IPv4Merger(resolver));
+        ReflectionTestUtils.setField(recordsMerger, "iPv6Merger", new IPv6Merger(resolver));
+        ReflectionTestUtils.setField(recordsMerger, "asnMerger", new ASNMerger(resolver));
+        ReflectionTestUtils.setField(recordsMerger, "headerMerger", new HeaderMerger());
+    }
+
+    @Test
+    public void testSnapshotMatchesParsedOutput() throws Exception {
+        ParsedRIRStats stats = new ParsedRIRStats("test");
+        stats.addAsnRecord(new ASNRecord("apnic", "JP", "173", "1", "20020801", "assigned", "A91E66F2"));
+        stats.addAsnRecord(new ASNRecord("ripencc", "NL", "3333", "10", "19930901", "assigned", "ORG-1", "ext"));
+        stats.addIPv4Record(new IPv4Record("arin", "US", "10.0.0.0", "768", "20100101", "assigned", "X1"));
+        stats.addIPv4Record(new IPv4Record(StatsSource.RIRSWAP, "ripencc", "ZZ", "193.0.0.0", "256", "20160101", "available", null));
+        stats.addIPv6Record(new IPv6Record("lacnic", "BR", "2800::", "12", "20050101", "assigned", "L1"));
+        MergedStats merged = recordsMerger.merge(Collections.singletonList(stats));
+
+        snapshots.write("current", "fingerprint", merged);
+        MergedStats restored = snapshots.read("current", "fingerprint");
+
+        MergedStats parsed = recordsMerger.merge(Collections.singletonList(parseOutput(merged)));
+        assertEquals(text(parsed.getAsns().getOrderedRecords()), text(restored.getAsns().getOrderedRecords()));
+        assertEquals(text(parsed.getIpv4s().getRecords()), text(restored.getIpv4s().getRecords()));
+        assertEquals(text(parsed.getIpv6s().getRecords()), text(restored.getIpv6s().getRecords()));
+        assertEquals(3, restored.getIpv4s().getRecords().size());
+        assertEquals(merged.getHeaderStartDate(), restored.getHeaderStartDate());
+        assertTrue(recordsMerger.findDifferences(restored, parsed).isEmpty());
+    }
+
+    @Test
+    public void testSnapshotOfAnotherFileIsIgnored() throws Exception {
+        ParsedRIRStats stats = new ParsedRIRStats("test");
+        stats.addAsnRecord(new ASNRecord("apnic", "JP", "173", "1", "20020801", "assigned", "A91E66F2"));
+        MergedStats merged = recordsMerger.merge(Collections.singletonList(stats));
+
+        assertNull(snapshots.read("current", "fingerprint"));
+        snapshots.write("current", "fingerprint", merged);
+        assertNull(snapshots.read("current", "other"));
+
+        snapshots.rename("current", "previous");
+        assertNull(snapshots.read("current", "fingerprint"));
+        assertEquals(1, snapshots.read("previous", "fingerprint").getAsns().getOrderedRecords().size());
+    }
+
+    private ParsedRIRStats parseOutput(MergedStats merged) {
+        StringBuilder output = new StringBuilder();
+        for (List<? extends Line> records : Arrays.<List<? extends Line>>asList(merged.getAsns().getOrderedRecords(),
+                merged.getIpv4s().getRecords(), merged.getIpv6s().getRecords())) {
+            records.forEach(record -> output.append(record).append('\n'));
+        }
+        Parser parser = new Parser(Charset.forName("US-ASCII"), new DummyDateTimeProvider());
+        return parser.parseNroStats(new URIContent("current", output.toString().getBytes(StandardCharsets.US_ASCII)));
+    }
+
+    private List<String> text(List<?> records) {
+        return records.stream().map(Object::toString).collect(Collectors.toList());
+    }
+
+    @After
+    public void cleanup() throws Exception {
+        try (DirectoryStream<Path> directoryStream = Files.newDirectoryStream(Paths.get(out.getFolder()))) {
+            for (Path path : directoryStream) {
+                Files.deleteIfExists(path);
+            }
+        }
+        Files.deleteIfExists(Paths.get(out.getFolder()));
+    }
+}
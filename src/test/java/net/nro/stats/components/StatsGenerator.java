@@ -0,0 +1,509 @@
+/**
+ * The BSD License
+ *
+ * Copyright (c) 2010-2016 RIPE NCC
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *   - Redistributions of source code must retain the above copyright notice,
+ *     this list of conditions and the following disclaimer.
+ *   - Redistributions in binary form must reproduce the above copyright notice,
+ *     this list of conditions and the following disclaimer in the documentation
+ *     and/or other materials provided with the distribution.
+ *   - Neither the name of the RIPE NCC nor the names of its contributors may be
+ *     used to endorse or promote products derived from this software without
+ *     specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package net.nro.stats.components;
+
+import net.ripe.commons.ip.Ipv4;
+import net.ripe.commons.ip.Ipv6;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.Writer;
+import java.math.BigInteger;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.time.LocalDate;
+import java.time.format.DateTimeFormatter;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * Generates delegated-extended files of every RIR, the IANA file and a swaps file, resembling the published ones.
+ *
+ * At scale 1 each RIR file holds about as many records of every type as the published file does. Every RIR
+ * allocates from address space of its own, spread over the whole range like the real /8s and AS number blocks,
+ * with the record sizes shrunk as the scale grows so the space does not run out. A share of the records is also
+ * claimed by another RIR, either for the same resource (a conflict) or for a part of it or a block around it (an
+ * overlap), and a share of the IPv4 records is moved to another RIR by the swaps file. The files are written in
+ * address order, one record at a time, so even a scale of 100 does not need the records in memory.
+ *
+ * To generate files for the local profile, run it from the test classpath with the folder, and optionally the
+ * scale, overlap rate and conflict rate, as arguments:
+ * <pre>
+ * mvn test-compile exec:java -Dexec.classpathScope=test -Dexec.mainClass=net.nro.stats.components.StatsGenerator \
+ *     -Dexec.args="target/generated 10 0.02 0.01"
+ * </pre>
+ */
+public class StatsGenerator {
+    public static final String IANA = "iana";
+    public static final String SWAPS = "rir-swap";
+    public static final List<String> REGISTRIES = Arrays.asList("afrinic", "apnic", "arin", "lacnic", "ripencc");
+
+    private static final String DATE = "20160101";
+    private static final int ASN = 0, IPV4 = 1, IPV6 = 2;
+    private static final String[] TYPES = {"asn", "ipv4", "ipv6"};
+
+    // records of every type in the published files of early 2016
+    private static final Map<String, int[]> RECORDS = new LinkedHashMap<>();
+    // the /12 every RIR allocates IPv6 from
+    private static final Map<String, Long> IPV6_BLOCKS = new LinkedHashMap<>();
+    private static final Map<String, String[]> COUNTRIES = new LinkedHashMap<>();
+
+    static {
+        RECORDS.put("afrinic", new int[]{2300, 3100, 2200});
+        RECORDS.put("apnic", new int[]{7300, 33600, 33500});
+        RECORDS.put("arin", new int[]{27000, 58000, 6000});
+        RECORDS.put("lacnic", new int[]{5800, 11200, 8700});
+        RECORDS.put("ripencc", new int[]{30000, 75000, 15000});
+        IPV6_BLOCKS.put("apnic", 0x240L);
+        IPV6_BLOCKS.put("arin", 0x260L);
+        IPV6_BLOCKS.put("lacnic", 0x280L);
+        IPV6_BLOCKS.put("ripencc", 0x2a0L);
+        IPV6_BLOCKS.put("afrinic", 0x2c0L);
+        COUNTRIES.put("afrinic", new String[]{"ZA", "EG", "NG", "KE", "MA", "TZ"});
+        COUNTRIES.put("apnic", new String[]{"AU", "CN", "JP", "IN", "KR", "NZ", "ID"});
+        COUNTRIES.put("arin", new String[]{"US", "CA", "PR", "JM", "BS"});
+        COUNTRIES.put("lacnic", new String[]{"BR", "MX", "AR", "CL", "CO", "PE"});
+        COUNTRIES.put("ripencc", new String[]{"NL", "DE", "GB", "FR", "RU", "IT", "SE", "PL"});
+    }
+
+    // log2 of the IPv4 record sizes and of the IPv6 /64s in a record, with their weights in the published files
+    private static final double[][] IPV4_SIZES = {{8, 0.2}, {9, 0.1}, {10, 0.3}, {11, 0.06}, {12, 0.07}, {13, 0.06},
+            {14, 0.04}, {15, 0.03}, {16, 0.07}, {17, 0.03}, {18, 0.02}, {19, 0.01}, {20, 0.01}};
+    private static final double[][] IPV6_SIZES = {{16, 0.2}, {20, 0.03}, {24, 0.02}, {32, 0.45}, {33, 0.06},
+            {34, 0.06}, {35, 0.1}, {36, 0.06}, {38, 0.02}};
+    private static final double[][] ASN_COUNTS = {{1, 0.95}, {2, 0.025}, {3, 0.01}, {10, 0.01}, {50, 0.005}};
+
+    // AS numbers are handed out in this many rounds over the RIRs, so their blocks interleave
+    private static final int ASN_ROUNDS = 16;
+    // share of the space of a block the records of a RIR take up, leaving room for alignment and gaps
+    private static final double FILL = 0.6;
+
+    private final Random random;
+    private final String[] dates = new String[512];
+
+    private double scale = 1;
+    private double overlapRate = 0.01;
+    private double conflictRate = 0.01;
+    private double swapRate = 0.01;
+    private double availableRate = 0.1;
+
+    private Map<String, Output> outputs;
+    private Output iana;
+    private Writer swaps;
+
+    public StatsGenerator(long seed) {
+        random = new Random(seed);
+        LocalDate first = LocalDate.of(1990, 1, 1);
+        for (int i = 0; i < dates.length; i++) {
+            dates[i] = first.plusDays(random.nextInt(9500)).format(DateTimeFormatter.BASIC_ISO_DATE);
+        }
+    }
+
+    public static void main(String[] args) throws IOException {
+        StatsGenerator generator = new StatsGenerator(42);
+        if (args.length > 1) {
+            generator.setScale(Double.parseDouble(args[1]));
+        }
+        if (args.length > 2) {
+            generator.setOverlapRate(Double.parseDouble(args[2]));
+        }
+        if (args.length > 3) {
+            generator.setConflictRate(Double.parseDouble(args[3]));
+        }
+        Map<String, Path> files = generator.generate(Paths.get(args.length > 0 ? args[0] : "target/generated"));
+        for (String registry : REGISTRIES) {
+            System.out.println("nro.stats.extended.input.rir." + registry + "=" + files.get(registry));
+        }
+        System.out.println("nro.stats.extended.input.iana=" + files.get(IANA));
+        System.out.println("nro.stats.extended.input.swaps=" + files.get(SWAPS));
+    }
+
+    public double getScale() {
+        return scale;
+    }
+
+    /**
+     * Sets the size of the files relative to the published ones.
+     */
+    public void setScale(double scale) {
+        this.scale = scale;
+    }
+
+    public double getOverlapRate() {
+        return overlapRate;
+    }
+
+    /**
+     * Sets the share of the records of which another RIR claims a part, or a block around them.
+     */
+    public void setOverlapRate(double overlapRate) {
+        this.overlapRate = overlapRate;
+    }
+
+    public double getConflictRate() {
+        return conflictRate;
+    }
+
+    /**
+     * Sets the share of the records another RIR claims as well.
+     */
+    public void setConflictRate(double conflictRate) {
+        this.conflictRate = conflictRate;
+    }
+
+    public double getSwapRate() {
+        return swapRate;
+    }
+
+    /**
+     * Sets the share of the IPv4 records that are moved to another RIR by the swaps file.
+     */
+    public void setSwapRate(double swapRate) {
+        this.swapRate = swapRate;
+    }
+
+    public double getAvailableRate() {
+        return availableRate;
+    }
+
+    /**
+     * Sets the share of the records that are available or reserved rather than delegated.
+     */
+    public void setAvailableRate(double availableRate) {
+        this.availableRate = availableRate;
+    }
+
+    /**
+     * Writes the files to the folder, replacing any earlier ones.
+     * @return the file of every data set, by the name the service gives it
+     */
+    public Map<String, Path> generate(Path folder) throws IOException {
+        Files.createDirectories(folder);
+        Map<String, Path> files = new LinkedHashMap<>();
+        outputs = new LinkedHashMap<>();
+        for (String registry : REGISTRIES) {
+            Path file = folder.resolve("delegated-" + registry + "-extended-latest.txt");
+            outputs.put(registry, new Output(registry, file));
+            files.put(registry, file);
+        }
+        iana = new Output(IANA, folder.resolve("delegated-iana-extended.txt"));
+        files.put(IANA, iana.file);
+        files.put(SWAPS, folder.resolve("erx-xfr.txt"));
+        try (Writer swapsWriter = Files.newBufferedWriter(files.get(SWAPS), StandardCharsets.US_ASCII)) {
+            swaps = swapsWriter;
+            swaps.write("# ERX NRO rebalance\n");
+            generateAsns();
+            generateIpv4();
+            generateIpv6();
+        } finally {
+            for (Output output : outputs.values()) {
+                output.close();
+            }
+            iana.close();
+        }
+        return files;
+    }
+
+    private void generateAsns() throws IOException {
+        iana.write(ASN, "ZZ", "0", 1, DATE, "reserved", "ietf");
+        iana.write(ASN, "ZZ", "23456", 1, DATE, "reserved", "ietf");
+        iana.write(ASN, "ZZ", "64496", 1040, DATE, "reserved", "ietf");
+        long asn = 1;
+        for (int round = 0; round < ASN_ROUNDS; round++) {
+            for (String registry : REGISTRIES) {
+                long blockStart = asn;
+                for (int i = count(registry, ASN) / ASN_ROUNDS; i > 0; i--) {
+                    long count = (long) sample(ASN_COUNTS);
+                    long next = skipReserved(asn, count);
+                    if (next != asn) {
+                        allocate(registry, ASN, blockStart, asn - blockStart);
+                        asn = blockStart = next;
+                    }
+                    delegate(registry, ASN, asn, count);
+                    asn += count + (random.nextDouble() < 0.1 ? random.nextInt(8) : 0);
+                }
+                allocate(registry, ASN, blockStart, asn - blockStart);
+            }
+        }
+    }
+
+    /**
+     * @return the first AS number from the given one on where the count of numbers does not touch reserved ones
+     */
+    private long skipReserved(long asn, long count) {
+        if (asn <= 23456 && asn + count > 23456) {
+            return 23457;
+        }
+        if (asn < 131072 && asn + count > 64496) {
+            return 131072;
+        }
+        return asn;
+    }
+
+    private void generateIpv4() throws IOException {
+        // hand out the /8s interleaved, in proportion to the records of every RIR
+        int[] reserved = {0, 10, 127};
+        String[] owners = new String[224];
+        Map<String, Integer> slash8s = new LinkedHashMap<>();
+        REGISTRIES.forEach(registry -> slash8s.put(registry, 0));
+        double total = REGISTRIES.stream().mapToInt(registry -> RECORDS.get(registry)[IPV4]).sum();
+        for (int slash8 = 1, handedOut = 0; slash8 < owners.length; slash8++) {
+            if (Arrays.binarySearch(reserved, slash8) >= 0) {
+                continue;
+            }
+            String owner = null;
+            double deficit = Double.NEGATIVE_INFINITY;
+            for (String registry : REGISTRIES) {
+                double registryDeficit = (handedOut + 1) * RECORDS.get(registry)[IPV4] / total - slash8s.get(registry);
+                if (registryDeficit > deficit) {
+                    owner = registry;
+                    deficit = registryDeficit;
+                }
+            }
+            owners[slash8] = owner;
+            slash8s.put(owner, slash8s.get(owner) + 1);
+            handedOut++;
+        }
+
+        for (int slash8 = 0; slash8 < 256; slash8++) {
+            long start = (long) slash8 << 24;
+            String owner = slash8 < owners.length ? owners[slash8] : null;
+            if (owner == null) {
+                iana.write(IPV4, "ZZ", Ipv4.of(start).toString(), 1 << 24, DATE, "reserved", "ietf");
+                continue;
+            }
+            allocate(owner, IPV4, start, 1 << 24);
+            int quota = count(owner, IPV4) / slash8s.get(owner);
+            int shift = shift(IPV4_SIZES, FILL * (1 << 24) / Math.max(quota, 1));
+            long address = start, end = start + (1 << 24);
+            for (int i = 0; i < quota; i++) {
+                int bits = Math.max(0, (int) sample(IPV4_SIZES) - shift);
+                long size = 1L << bits;
+                address = (address + size - 1) & -size;
+                if (address + size > end) {
+                    break;
+                }
+                // now and then a size that is not a power of two, which only fits as several prefixes
+                delegate(owner, IPV4, address, bits >= 2 && random.nextDouble() < 0.05 ? 3 * size / 4 : size);
+                address += random.nextDouble() < 0.1 ? 2 * size : size;
+            }
+        }
+    }
+
+    private void generateIpv6() throws IOException {
+        iana.write(IPV6, "ZZ", "2000::", 16, DATE, "reserved", "ietf");
+        for (Map.Entry<String, Long> block : IPV6_BLOCKS.entrySet()) {
+            String owner = block.getKey();
+            long start = block.getValue() << 52, end = (block.getValue() + 1) << 52;
+            allocate(owner, IPV6, start, 12);
+            int quota = count(owner, IPV6);
+            int shift = shift(IPV6_SIZES, FILL * (1L << 52) / Math.max(quota, 1));
+            long prefix = start;
+            for (int i = 0; i < quota; i++) {
+                int bits = Math.max(0, (int) sample(IPV6_SIZES) - shift);
+                long size = 1L << bits;
+                prefix = (prefix + size - 1) & -size;
+                if (prefix + size > end) {
+                    break;
+                }
+                delegate(owner, IPV6, prefix, 64 - bits);
+                prefix += random.nextDouble() < 0.1 ? 2 * size : size;
+            }
+        }
+    }
+
+    private int count(String registry, int type) {
+        return (int) Math.round(RECORDS.get(registry)[type] * scale);
+    }
+
+    /**
+     * Writes the delegation of a resource to a RIR, and the claims of other RIRs on it or on the swaps file.
+     * IPv4 resources are a start address and size, IPv6 ones the upper 64 bits of the start and a prefix length.
+     */
+    private void delegate(String registry, int type, long start, long value) throws IOException {
+        Output owner = outputs.get(registry);
+        if (random.nextDouble() < availableRate) {
+            owner.write(type, "", format(type, start), value, "", random.nextBoolean() ? "available" : "reserved", "");
+            return;
+        }
+        if (type == IPV4 && Long.bitCount(value) == 1 && random.nextDouble() < swapRate) {
+            owner = other(registry);
+            int length = 32 - Long.numberOfTrailingZeros(value);
+            swaps.write(format(IPV4, start) + " " + length + " " + value + " " + format(IPV4, start + value - 1) + " " + owner.registry + "\n");
+        }
+        owner.write(type, start, value);
+        if (random.nextDouble() < conflictRate) {
+            other(registry).write(type, start, value);
+        }
+        if (random.nextDouble() < overlapRate) {
+            overlap(other(registry), type, start, value);
+        }
+    }
+
+    /**
+     * Writes a claim on a part of the resource, or on the block around it.
+     */
+    private void overlap(Output output, int type, long start, long value) throws IOException {
+        boolean part = random.nextBoolean();
+        switch (type) {
+            case ASN:
+                if (part && value > 1) {
+                    output.write(ASN, start, value / 2);
+                } else if (start > 1) {
+                    output.write(ASN, start - 1, value + 2);
+                }
+                break;
+            case IPV4:
+                if (part && value > 1) {
+                    output.write(IPV4, start + (random.nextBoolean() ? value / 2 : 0), value / 2);
+                } else if (Long.bitCount(value) == 1) {
+                    output.write(IPV4, start & -(2 * value), 2 * value);
+                }
+                break;
+            default:
+                if (part && value < 64) {
+                    output.write(IPV6, start, value + 1);
+                } else if (value > 12) {
+                    output.write(IPV6, start & (-1L << (65 - value)), value - 1);
+                }
+        }
+    }
+
+    private void allocate(String registry, int type, long start, long value) throws IOException {
+        if (value > 0) {
+            iana.write(type, "ZZ", format(type, start), value, DATE, "allocated", registry);
+        }
+    }
+
+    private Output other(String registry) {
+        String other;
+        do {
+            other = REGISTRIES.get(random.nextInt(REGISTRIES.size()));
+        } while (other.equals(registry));
+        return outputs.get(other);
+    }
+
+    private String format(int type, long start) {
+        switch (type) {
+            case ASN:
+                return Long.toString(start);
+            case IPV4:
+                return Ipv4.of(start).toString();
+            default:
+                return Ipv6.of(new BigInteger(Long.toUnsignedString(start)).shiftLeft(64)).toString();
+        }
+    }
+
+    private double sample(double[][] distribution) {
+        double value = random.nextDouble();
+        for (double[] entry : distribution) {
+            value -= entry[1];
+            if (value < 0) {
+                return entry[0];
+            }
+        }
+        return distribution[distribution.length - 1][0];
+    }
+
+    /**
+     * @return how many bits the sizes of a distribution have to shrink by to average no more than the target
+     */
+    private static int shift(double[][] distribution, double target) {
+        double mean = 0;
+        for (double[] entry : distribution) {
+            mean += Math.pow(2, entry[0]) * entry[1];
+        }
+        return mean <= target ? 0 : (int) Math.ceil(Math.log(mean / target) / Math.log(2));
+    }
+
+    /**
+     * A delegated-extended file, of which the records go to a temporary file until the header can be written.
+     */
+    private class Output {
+        private final String registry;
+        private final Path file;
+        private final Path records;
+        private final Writer writer;
+        private final String[] regIds;
+        private final int[] counts = new int[TYPES.length];
+
+        Output(String registry, Path file) throws IOException {
+            this.registry = registry;
+            this.file = file;
+            this.records = Files.createTempFile(file.getParent(), file.getFileName().toString(), ".tmp");
+            this.writer = Files.newBufferedWriter(records, StandardCharsets.US_ASCII);
+            int[] records = RECORDS.get(registry);
+            this.regIds = new String[records != null ? (int) Math.min(100000, Math.max(16, records[IPV4] * scale / 4)) : 1];
+        }
+
+        void write(int type, long start, long value) throws IOException {
+            String[] countries = COUNTRIES.get(registry);
+            write(type, countries[random.nextInt(countries.length)], format(type, start), value,
+                    dates[random.nextInt(dates.length)], random.nextBoolean() ? "allocated" : "assigned", regId());
+        }
+
+        void write(int type, String countryCode, String start, long value, String date, String status, String regId) throws IOException {
+            writer.write(registry + "|" + countryCode + "|" + TYPES[type] + "|" + start + "|" + value + "|" + date + "|" + status + "|" + regId + "\n");
+            counts[type]++;
+        }
+
+        private String regId() {
+            int i = random.nextInt(regIds.length);
+            if (regIds[i] == null) {
+                regIds[i] = String.format("%08X", random.nextInt());
+            }
+            return regIds[i];
+        }
+
+        /**
+         * Writes the header and summaries, followed by the records.
+         */
+        void close() throws IOException {
+            writer.close();
+            try (Writer out = Files.newBufferedWriter(file, StandardCharsets.US_ASCII)) {
+                out.write("2|" + registry + "|" + DATE + "|" + (counts[ASN] + counts[IPV4] + counts[IPV6]) + "|19700101|" + DATE + "|+0000\n");
+                for (int type = 0; type < TYPES.length; type++) {
+                    out.write(registry + "|*|" + TYPES[type] + "|*|" + counts[type] + "|summary\n");
+                }
+            }
+            try (OutputStream out = Files.newOutputStream(file, StandardOpenOption.APPEND)) {
+                Files.copy(records, out);
+            } finally {
+                Files.delete(records);
+            }
+        }
+    }
+}
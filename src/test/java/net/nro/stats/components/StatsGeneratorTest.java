@@ -0,0 +1,136 @@
+/**
+ * The BSD License
+ *
+ * Copyright (c) 2010-2016 RIPE NCC
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *   - Redistributions of source code must retain the above copyright notice,
+ *     this list of conditions and the following disclaimer.
+ *   - Redistributions in binary form must reproduce the above copyright notice,
+ *     this list of conditions and the following disclaimer in the documentation
+ *     and/or other materials provided with the distribution.
+ *   - Neither the name of the RIPE NCC nor the names of its contributors may be
+ *     used to endorse or promote products derived from this software without
+ *     specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package net.nro.stats.components;
+
+import net.nro.stats.components.merger.ASNMerger;
+import net.nro.stats.components.merger.HeaderMerger;
+import net.nro.stats.components.merger.IPv4Merger;
+import net.nro.stats.components.merger.IPv6Merger;
+import net.nro.stats.components.parser.Parser;
+import net.nro.stats.components.resolver.OrderedResolver;
+import net.nro.stats.resources.MergedStats;
+import net.nro.stats.resources.ParsedRIRStats;
+import net.nro.stats.resources.StatsSource;
+import net.nro.stats.resources.URIContent;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class StatsGeneratorTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private OrderedResolver resolver = new OrderedResolver("e-stats,iana,rir-swap".split(","),
+            "ripencc,arin,apnic,afrinic,lacnic,iana".split(","));
+
+    private Parser parser = new Parser(Charset.forName("US-ASCII"), new DummyDateTimeProvider());
+
+    @Test
+    public void testGeneratesEveryDataSet() throws Exception {
+        Map<String, Path> files = generator().generate(folder.getRoot().toPath());
+
+        List<String> dataSets = new ArrayList<>(StatsGenerator.REGISTRIES);
+        dataSets.add(StatsGenerator.IANA);
+        dataSets.add(StatsGenerator.SWAPS);
+        assertEquals(dataSets, new ArrayList<>(files.keySet()));
+        // nothing but the files is left behind
+        assertEquals(dataSets.size(), folder.getRoot().list().length);
+
+        ParsedRIRStats ripencc = parser.parseRirStats(StatsSource.ESTATS, content(files, "ripencc"));
+        assertEquals("ripencc", ripencc.getHeaders().get(0).getRegistry());
+        assertEquals(Integer.parseInt(ripencc.getHeaders().get(0).getRecords()),
+                ripencc.getAsnRecords().size() + ripencc.getIpv4Records().size() + ripencc.getIpv6Records().size());
+        assertTrue(ripencc.getIpv4Records().size() > 700);
+        assertTrue(parser.parseRIRSwaps(StatsSource.RIRSWAP, content(files, StatsGenerator.SWAPS)).getIpv4Records().size() > 0);
+    }
+
+    @Test
+    public void testSameSeedGeneratesSameFiles() throws Exception {
+        Map<String, Path> first = generator().generate(folder.newFolder("first").toPath());
+        Map<String, Path> second = generator().generate(folder.newFolder("second").toPath());
+
+        for (String dataSet : first.keySet()) {
+            assertArrayEquals(Files.readAllBytes(first.get(dataSet)), Files.readAllBytes(second.get(dataSet)));
+        }
+    }
+
+    @Test
+    public void testConflictsAreResolved() throws Exception {
+        StatsGenerator generator = generator();
+        generator.setConflictRate(0.2);
+        generator.setOverlapRate(0.2);
+        Map<String, Path> files = generator.generate(folder.getRoot().toPath());
+
+        List<ParsedRIRStats> stats = new ArrayList<>();
+        int ipv4Records = 0;
+        for (String registry : StatsGenerator.REGISTRIES) {
+            ParsedRIRStats parsed = parser.parseRirStats(StatsSource.ESTATS, content(files, registry));
+            ipv4Records += parsed.getIpv4Records().size();
+            stats.add(parsed);
+        }
+        MergedStats merged = recordsMerger().merge(stats);
+
+        // every conflict leaves one of the claims out
+        assertTrue(merged.getIpv4s().getRecords().size() < ipv4Records);
+        assertEquals(0, recordsMerger().findDifferences(merged, recordsMerger().merge(stats)).size());
+    }
+
+    private StatsGenerator generator() {
+        StatsGenerator generator = new StatsGenerator(42);
+        generator.setScale(0.01);
+        return generator;
+    }
+
+    private URIContent content(Map<String, Path> files, String dataSet) throws Exception {
+        return new URIContent(dataSet, Files.readAllBytes(files.get(dataSet)));
+    }
+
+    private RecordsMerger recordsMerger() {
+        RecordsMerger recordsMerger = new RecordsMerger();
+        ReflectionTestUtils.setField(recordsMerger, "iPv4Merger", new IPv4Merger(resolver));
+        ReflectionTestUtils.setField(recordsMerger, "iPv6Merger", new IPv6Merger(resolver));
+        ReflectionTestUtils.setField(recordsMerger, "asnMerger", new ASNMerger(resolver));
+        ReflectionTestUtils.setField(recordsMerger, "headerMerger", new HeaderMerger());
+        return recordsMerger;
+    }
+}
@@ -29,6 +29,7 @@
  */
 package net.nro.stats.components;
 
+import com.google.common.hash.Hashing;
 import net.nro.stats.components.parser.Header;
 import net.nro.stats.components.parser.Summary;
 import net.nro.stats.config.ExtendedOutputConfig;
@@ -36,13 +37,22 @@ import net.nro.stats.resources.ParsedRIRStats;
 import org.junit.After;
 import org.junit.Before;
 import org.junit.Test;
+import org.springframework.util.StreamUtils;
 
+import java.io.InputStream;
 import java.nio.charset.Charset;
 import java.nio.file.DirectoryStream;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
-
+import java.util.HashMap;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.zip.GZIPInputStream;
+
+import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertTrue;
@@ -52,7 +62,9 @@ public class StatsWriterTest {
 
     ExtendedOutputConfig out = new ExtendedOutputConfig();
 
-    StatsWriter statsWriter = new StatsWriter(out, Charset.forName("US-ASCII"));
+    ExecutorService compressor = Executors.newSingleThreadExecutor();
+
+    StatsWriter statsWriter = new StatsWriter(out, Charset.forName("US-ASCII"), compressor);
 
     @Before
     public void setUp() throws Exception {
@@ -126,8 +138,66 @@ public class StatsWriterTest {
         assertTrue(Files.exists(Paths.get(out.getFolder())));
     }
 
+    @Test
+    public void testInputsAreKeptWithOutput() throws Exception {
+        out.setBackup(false);
+        out.setBackupFormat("$");
+        ParsedRIRStats nroStats = new ParsedRIRStats("nro");
+        nroStats.setHeader(new Header("2.3", "nro", "20160301", "0", "20160301", "20160301", "+0100"));
+        Map<String, String> inputs = new TreeMap<>();
+        inputs.put("date", "20160301");
+        inputs.put("ripencc", "0123456789abcdef");
+
+        assertTrue(statsWriter.readInputs().isEmpty());
+        statsWriter.write(nroStats);
+        statsWriter.writeInputs(inputs);
+        assertEquals(inputs, statsWriter.readInputs());
+
+        Files.delete(Paths.get(out.getFolder(), out.getFile()));
+        assertTrue(statsWriter.readInputs().isEmpty());
+    }
+
+    @Test
+    public void testReportIsKeptWithOutput() throws Exception {
+        Map<String, Long> metrics = new HashMap<>();
+        metrics.put("write.duration.ms", 12L);
+        metrics.put("fetch.apnic.bytes", 3456L);
+        Files.createDirectories(Paths.get(out.getFolder()));
+
+        statsWriter.writeReport(metrics);
+
+        assertEquals("fetch.apnic.bytes=3456\nwrite.duration.ms=12\n",
+                new String(Files.readAllBytes(Paths.get(out.getFolder(), out.getReportFile())), "US-ASCII"));
+        assertFalse(Files.exists(Paths.get(out.getFolder(), out.getReportFile() + ".tmp")));
+    }
+
+    @Test
+    public void testCompressedCopyAndChecksum() throws Exception {
+        out.setBackup(false);
+        out.setBackupFormat("$");
+        ParsedRIRStats nroStats = new ParsedRIRStats("nro");
+        nroStats.setHeader(new Header("2.3", "nro", "20160301", "0", "20160301", "20160301", "+0100"));
+        nroStats.addSummary(new Summary("nro", "asn", "0"));
+
+        statsWriter.write(nroStats);
+        byte[] plain = Files.readAllBytes(Paths.get(out.getFolder(), out.getFile()));
+        try (InputStream inputStream = new GZIPInputStream(Files.newInputStream(Paths.get(out.getFolder(), out.getGzipFile())))) {
+            assertArrayEquals(plain, StreamUtils.copyToByteArray(inputStream));
+        }
+        String sha256 = Hashing.sha256().hashBytes(plain).toString();
+        assertEquals(sha256 + "  file\n", new String(Files.readAllBytes(Paths.get(out.getFolder(), out.getChecksumFile())), "US-ASCII"));
+        assertFalse(Files.exists(Paths.get(out.getFolder(), out.getGzipFile() + ".tmp")));
+
+        out.setGzip(false);
+        out.setChecksum(false);
+        statsWriter.write(nroStats);
+        assertFalse(Files.exists(Paths.get(out.getFolder(), out.getGzipFile())));
+        assertFalse(Files.exists(Paths.get(out.getFolder(), out.getChecksumFile())));
+    }
+
     @After
     public void cleanup() throws Exception {
+        compressor.shutdownNow();
         if (Files.isDirectory(Paths.get(out.getFolder()))) {
             try (DirectoryStream<Path> directoryStream = Files.newDirectoryStream(Paths.get(out.getFolder()))) {
                 for (Path path : directoryStream) {
@@ -29,7 +29,9 @@
  */
 package net.nro.stats.components.merger;
 
+import net.nro.stats.components.parser.ASNRecord;
 import org.junit.Assert;
+import net.ripe.commons.ip.Asn;
 import net.ripe.commons.ip.AsnRange;
 import org.junit.Before;
 import org.junit.Test;
@@ -300,6 +302,37 @@ public class ASNIntervalTreeTest {
         Assert.assertEquals("Interval tree finds left overlap", range4, tree.findFirstOverlap(AsnRange.from(61L).to(63L)).getRange());
     }
 
+    @Test
+    public void treeKeepsRecordsAndMaxWhenRemovingNodes() {
+        // regression: the moved predecessor kept the old record, and the max of its subtree could only go up
+        ASNIntervalTree records = new ASNIntervalTree();
+        for (long start = 0; start < 64; start++) {
+            records.add(new ASNNode(new ASNRecord("ripencc", "NL", String.valueOf(start * 10), String.valueOf(start % 7 + 1), null, null, null)));
+        }
+        // removing nodes with two children moves their predecessor into their place
+        for (long start = 63; start >= 0; start -= 3) {
+            records.remove(AsnRange.from(start * 10).to(start * 10 + start % 7));
+            assertConsistent(records.getRoot());
+        }
+        Assert.assertEquals(42, records.size());
+        Assert.assertNull(records.findFirstOverlap(AsnRange.from(630L).to(700L)));
+    }
+
+    private Asn assertConsistent(ASNNode node) {
+        if (node == null) {
+            return null;
+        }
+        Assert.assertEquals("Node holds the record of its range", node.getRange(), node.getRecord().getRange());
+        Asn max = node.getRange().end();
+        for (Asn childMax : new Asn[]{assertConsistent(node.getLeft()), assertConsistent(node.getRight())}) {
+            if (childMax != null && childMax.compareTo(max) > 0) {
+                max = childMax;
+            }
+        }
+        Assert.assertEquals("Node holds the highest end in its subtree", max, node.getMax());
+        return max;
+    }
+
     private ASNNode createNode(long start, long end) {
         return createNode(AsnRange.from(start).to(end));
     }
@@ -31,12 +31,18 @@ package net.nro.stats.components.merger;
 
 import net.nro.stats.components.resolver.OrderedResolver;
 import net.nro.stats.components.parser.ASNRecord;
+import net.nro.stats.components.parser.Record;
+import net.nro.stats.config.MergeConfig;
+import net.nro.stats.resources.StatsSource;
+import net.ripe.commons.ip.AsnRange;
 import org.junit.Test;
 
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Random;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertTrue;
 
 public class AsnMergerTest {
@@ -127,6 +133,78 @@ public class AsnMergerTest {
         verifyRecord(mergedRecords, "apnic", "31", "7");
     }
 
+    @Test
+    public void testSweepMatchesMergeOfOneOverlapAtATime() {
+        String[] registries = {"apnic", "afrinic", "arin", "ripencc", "lacnic", "iana"};
+        StatsSource[] sources = {StatsSource.ESTATS, StatsSource.IANA_REGISTRY, StatsSource.RIRSWAP};
+        String[] statuses = {"allocated", "assigned", "reserved", Record.IETF};
+        ASNMerger sweepMerger = sweepMerger();
+        Random random = new Random(1);
+        for (int run = 0; run < 500; run++) {
+            List<ASNRecord> records = new ArrayList<>();
+            for (int i = 0; i < 30; i++) {
+                ASNRecord record = new ASNRecord(sources[random.nextInt(sources.length)],
+                        registries[random.nextInt(registries.length)], "NL", String.valueOf(random.nextInt(100)),
+                        String.valueOf(1 + random.nextInt(20)), "", statuses[random.nextInt(statuses.length)], "");
+                records.add(record);
+                if (random.nextInt(10) == 0) {
+                    records.add(record);
+                }
+            }
+            assertEquals(asnMerger.mergeToTree(records).getOrderedRecords().toString(),
+                    sweepMerger.mergeToTree(records).getOrderedRecords().toString());
+        }
+    }
+
+    @Test
+    public void testSweepKeepsIetfReservedOnlyAgainstOtherSources() {
+        List<ASNRecord> records = new ArrayList<>();
+        records.add(new ASNRecord(StatsSource.IANA_REGISTRY, "iana", "ZZ", "64496", "16", "", Record.IETF, ""));
+        records.add(createRecord("apnic", "64500", "4"));
+        records.add(new ASNRecord(StatsSource.IANA_REGISTRY, "apnic", "AU", "64510", "4", "", "allocated", ""));
+        records.add(createRecord("ripencc", "64520", "1"));
+        // within the iana source the registry order counts, which puts apnic first
+        OrderedResolver ianaLast = new OrderedResolver("iana,e-stats,rir-swap".split(","), "apnic,iana".split(","));
+        ASNMerger merger = new ASNMerger(ianaLast);
+        ASNMerger sweepMerger = new ASNMerger(ianaLast, new MergeConfig());
+
+        List<ASNRecord> mergedRecords = sweepMerger.mergeToTree(records).getOrderedRecords();
+        assertEquals(merger.mergeToTree(records).getOrderedRecords().toString(), mergedRecords.toString());
+        assertEquals(3, mergedRecords.size());
+        verifyRecord(mergedRecords, "iana", "64496", "14");
+        verifyRecord(mergedRecords, "apnic", "64510", "4");
+        verifyRecord(mergedRecords, "ripencc", "64520", "1");
+    }
+
+    @Test
+    public void testDiff() {
+        List<ASNRecord> previous = new ArrayList<>();
+        previous.add(createRecord("ripencc", "5", "2"));
+        previous.add(createRecord("apnic", "8", "1"));
+        previous.add(createRecord("arin", "20", "1"));
+        List<ASNRecord> current = new ArrayList<>();
+        current.add(createRecord("lacnic", "4", "1"));
+        current.add(createRecord("ripencc", "5", "2"));
+        current.add(createRecord("afrinic", "8", "1"));
+
+        List<Delta<AsnRange>> deltas = asnMerger.treeDiff(asnMerger.mergeToTree(current), asnMerger.mergeToTree(previous));
+
+        // in range order, a changed record only once
+        assertEquals(3, deltas.size());
+        assertEquals("lacnic|NL|asn|4|1|||||e-stats", deltas.get(0).getCurrent());
+        assertNull(deltas.get(0).getPrevious());
+        assertEquals("afrinic|NL|asn|8|1|||||e-stats", deltas.get(1).getCurrent());
+        assertEquals("apnic|NL|asn|8|1|||||e-stats", deltas.get(1).getPrevious());
+        assertNull(deltas.get(2).getCurrent());
+        assertEquals("arin|NL|asn|20|1|||||e-stats", deltas.get(2).getPrevious());
+        assertTrue(asnMerger.treeDiff(asnMerger.mergeToTree(current), asnMerger.mergeToTree(current)).isEmpty());
+        assertEquals(3, asnMerger.treeDiff(asnMerger.mergeToTree(current), null).size());
+    }
+
+    private ASNMerger sweepMerger() {
+        return new ASNMerger(resolver, new MergeConfig());
+    }
+
     private ASNRecord createRecord(String registry, String asn, String length) {
         return new ASNRecord(registry, "NL", asn, length, "", "", "", "");
     }
@@ -0,0 +1,94 @@
+/**
+ * The BSD License
+ *
+ * Copyright (c) 2010-2016 RIPE NCC
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *   - Redistributions of source code must retain the above copyright notice,
+ *     this list of conditions and the following disclaimer.
+ *   - Redistributions in binary form must reproduce the above copyright notice,
+ *     this list of conditions and the following disclaimer in the documentation
+ *     and/or other materials provided with the distribution.
+ *   - Neither the name of the RIPE NCC nor the names of its contributors may be
+ *     used to endorse or promote products derived from this software without
+ *     specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package net.nro.stats.components.merger;
+
+import net.nro.stats.components.parser.ASNRecord;
+import net.nro.stats.components.parser.IPv4Record;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertNull;
+
+public class DeltaIndexTest {
+
+    private ASNRecord asnNl = new ASNRecord("ripencc", "NL", "5", "1", "20100101", "assigned", "A");
+    private ASNRecord asnDe = new ASNRecord("ripencc", "DE", "5", "1", "20100101", "assigned", "A");
+    private IPv4Record ipv4Jp = new IPv4Record("apnic", "JP", "1.0.0.0", "256", "20100101", "assigned", "B");
+    private IPv4Record ipv4Br = new IPv4Record("lacnic", "BR", "2.0.0.0", "256", "20100101", "assigned", "C");
+
+    private DeltaIndex index = new DeltaIndex(Arrays.<Delta<?>>asList(
+            new Delta<>(asnDe, asnNl),
+            new Delta<>(ipv4Jp, null),
+            new Delta<>(null, ipv4Br)).iterator());
+
+    @Test
+    public void testFilter() {
+        assertEquals(3, collect(new DeltaFilter(null, null, null, null), 0, index.size()).size());
+        assertEquals(1, collect(new DeltaFilter("asn", null, null, null), 0, index.size()).size());
+        // a changed record matches on either side
+        assertEquals(1, collect(new DeltaFilter(null, null, "NL", null), 0, index.size()).size());
+        assertEquals(1, collect(new DeltaFilter(null, null, "DE", null), 0, index.size()).size());
+        assertEquals(2, collect(new DeltaFilter("ipv4", null, null, null), 0, index.size()).size());
+        List<Delta<?>> removed = collect(new DeltaFilter(null, null, null, DeltaFilter.Change.REMOVED), 0, index.size());
+        assertEquals(1, removed.size());
+        assertNull(removed.get(0).getCurrent());
+        assertEquals(ipv4Br.toString(), removed.get(0).getPrevious());
+        assertEquals(0, collect(new DeltaFilter(null, "apnic", null, DeltaFilter.Change.CHANGED), 0, index.size()).size());
+    }
+
+    @Test
+    public void testPages() {
+        DeltaFilter ipv4 = new DeltaFilter("ipv4", null, null, null);
+        int end = index.skip(ipv4, 0, 1);
+        assertEquals(2, end);
+        assertEquals(ipv4Jp.toString(), collect(ipv4, 0, end).get(0).getCurrent());
+        assertEquals(2, index.find(ipv4, end));
+        assertEquals(3, index.skip(ipv4, end, 1));
+        assertEquals(-1, index.find(ipv4, 3));
+        assertEquals(-1, index.find(new DeltaFilter(null, "arin", null, null), 0));
+    }
+
+    @Test
+    public void testVersion() throws Exception {
+        Thread.sleep(2);
+        assertNotEquals(index.getVersion(), new DeltaIndex(new ArrayList<Delta<?>>().iterator()).getVersion());
+    }
+
+    private List<Delta<?>> collect(DeltaFilter filter, int from, int to) {
+        List<Delta<?>> deltas = new ArrayList<>();
+        index.forEach(filter, from, to, deltas::add);
+        return deltas;
+    }
+}
@@ -31,11 +31,16 @@ package net.nro.stats.components.merger;
 
 import net.nro.stats.components.resolver.OrderedResolver;
 import net.nro.stats.components.parser.IPv4Record;
+import net.nro.stats.components.parser.Record;
+import net.nro.stats.config.MergeConfig;
+import net.nro.stats.resources.StatsSource;
 import net.ripe.commons.ip.Ipv4Range;
 import org.junit.Test;
 
 import java.util.ArrayList;
+import java.util.Iterator;
 import java.util.List;
+import java.util.Random;
 
 import static org.junit.Assert.*;
 
@@ -149,6 +154,142 @@ public class IPv4MergerTest {
         assertTrue("Merger demotes older claim to subrange when newer claim on subrange", allocationExists(mergedRecords, "apnic", "1.1.1.1/32") );
     }
 
+    @Test
+    public void mergerHandlesEdgesOfAddressSpace() {
+        List<IPv4Record> inputRecords = new ArrayList<>();
+        inputRecords.add(createRecord("afrinic", "128.0.0.0", "2147483648"));
+        inputRecords.add(createRecord("apnic", "255.255.255.253", "3"));
+        inputRecords.add(createRecord("lacnic", "0.0.0.0", "1"));
+        List<IPv4Record> mergedRecords = iPv4Merger.mergeToTree(inputRecords).getRecords();
+        assertEquals("Merger splits the older claim around the newer one", 33, mergedRecords.size());
+        assertTrue(allocationExists(mergedRecords, "lacnic", "0.0.0.0/32"));
+        assertTrue(allocationExists(mergedRecords, "afrinic", "128.0.0.0/2"));
+        assertTrue(allocationExists(mergedRecords, "afrinic", "255.255.255.252/32"));
+        assertTrue(allocationExists(mergedRecords, "apnic", "255.255.255.253/32"));
+        assertTrue(allocationExists(mergedRecords, "apnic", "255.255.255.254/31"));
+        assertEquals("Records come out in address order", "255.255.255.254/31",
+                mergedRecords.get(mergedRecords.size() - 1).getRange().toStringInCidrNotation());
+    }
+
+    @Test
+    public void shardedMergeMatchesSingleMerge() {
+        List<IPv4Record> inputRecords = new ArrayList<>();
+        inputRecords.add(createRecord("afrinic", "0.0.0.0", "33554432"));
+        inputRecords.add(createRecord("apnic", "1.2.3.0", "256"));
+        inputRecords.add(createRecord("lacnic", "10.255.255.0", "512"));
+        inputRecords.add(createRecord("apnic", "11.0.0.128", "64"));
+        inputRecords.add(createRecord("ripencc", "200.0.0.0", "1024"));
+        inputRecords.add(createRecord("arin", "200.0.1.0", "256"));
+        inputRecords.add(createRecord("apnic", "255.255.255.0", "256"));
+        IPv4Merger shardedMerger = new IPv4Merger(resolver, new MergeConfig());
+
+        List<IPv4Record> mergedRecords = iPv4Merger.mergeToTree(inputRecords).getRecords();
+        List<IPv4Record> shardedRecords = shardedMerger.mergeToTree(inputRecords).getRecords();
+        assertEquals(mergedRecords.toString(), shardedRecords.toString());
+        assertTrue(allocationExists(shardedRecords, "afrinic", "0.0.0.0/8"));
+        assertTrue(allocationExists(shardedRecords, "apnic", "1.2.3.0/24"));
+        assertTrue(allocationExists(shardedRecords, "lacnic", "11.0.0.0/25"));
+        assertTrue(allocationExists(shardedRecords, "apnic", "11.0.0.128/26"));
+    }
+
+    @Test
+    public void incrementalMergeMatchesFullMerge() {
+        List<IPv4Record> inputRecords = new ArrayList<>();
+        inputRecords.add(createRecord("afrinic", "0.0.0.0", "33554432"));
+        inputRecords.add(createRecord("apnic", "1.2.3.0", "256"));
+        inputRecords.add(createRecord("ripencc", "200.0.0.0", "1024"));
+        inputRecords.add(createRecord("arin", "200.0.1.0", "256"));
+        IPv4Merger shardedMerger = new IPv4Merger(resolver, new MergeConfig());
+        MergeHistory history = new MergeHistory();
+        shardedMerger.mergeToTree(inputRecords, history.getIpv4Runs());
+        IPNode<IPv4Record> unchangedRun = history.getIpv4Runs().find(0, inputRecords.subList(0, 2));
+
+        List<IPv4Record> changedRecords = new ArrayList<>(inputRecords);
+        changedRecords.set(3, createRecord("apnic", "200.0.1.0", "256"));
+        List<IPv4Record> mergedRecords = iPv4Merger.mergeToTree(changedRecords).getRecords();
+        IPNode<IPv4Record> incremental = shardedMerger.mergeToTree(changedRecords, history.getIpv4Runs());
+
+        assertEquals(mergedRecords.toString(), incremental.getRecords().toString());
+        assertTrue(allocationExists(incremental.getRecords(), "apnic", "200.0.1.0/24"));
+        assertNotNull(unchangedRun);
+        assertSame(unchangedRun, history.getIpv4Runs().find(0, inputRecords.subList(0, 2)));
+        assertEquals(2, history.getIpv4Runs().size());
+    }
+
+    @Test
+    public void prioritizedMergeClaimsEveryPrefixOnce() {
+        List<IPv4Record> inputRecords = new ArrayList<>();
+        inputRecords.add(createRecord("lacnic", "10.0.0.0", "65536"));
+        inputRecords.add(createRecord("ripencc", "10.0.0.0", "1024"));
+        inputRecords.add(createRecord("arin", "10.0.0.0", "512"));
+        inputRecords.add(createRecord("afrinic", "10.0.1.0", "256"));
+        inputRecords.add(createRecord("apnic", "10.0.1.128", "64"));
+        inputRecords.add(createRecord("ripencc", "20.0.0.0", "256"));
+        IPv4Merger prioritizedMerger = prioritizedMerger();
+
+        List<IPv4Record> mergedRecords = iPv4Merger.mergeToTree(inputRecords).getRecords();
+        List<IPv4Record> prioritizedRecords = prioritizedMerger.mergeToTree(inputRecords).getRecords();
+
+        assertEquals(mergedRecords.toString(), prioritizedRecords.toString());
+        assertTrue(allocationExists(prioritizedRecords, "apnic", "10.0.1.128/26"));
+        assertTrue(allocationExists(prioritizedRecords, "lacnic", "10.0.128.0/17"));
+        assertTrue(iPv4Merger.getRequeueCount() > 0);
+        assertEquals(0, prioritizedMerger.getRequeueCount());
+    }
+
+    @Test
+    public void prioritizedMergeKeepsInputOrderBetweenEqualPriorities() {
+        // which of two equal claims wins depends on when the higher claim arrives, so only the input order decides
+        List<IPv4Record> inputRecords = new ArrayList<>();
+        inputRecords.add(createRecord("ripencc", "10.0.0.0", "512"));
+        inputRecords.add(createRecord("apnic", "10.0.0.0", "256"));
+        inputRecords.add(new IPv4Record("ripencc", "DE", "10.0.0.0", "512", null, null, null));
+        inputRecords.add(createRecord("ripencc", "20.0.0.0", "256"));
+        inputRecords.add(createRecord("apnic", "20.0.0.0", "512"));
+        IPv4Merger prioritizedMerger = prioritizedMerger();
+
+        List<IPv4Record> mergedRecords = iPv4Merger.mergeToTree(inputRecords).getRecords();
+        List<IPv4Record> prioritizedRecords = prioritizedMerger.mergeToTree(inputRecords).getRecords();
+
+        assertEquals(mergedRecords.toString(), prioritizedRecords.toString());
+        assertEquals("DE", prioritizedRecords.get(1).getCountryCode());
+        assertEquals("apnic", prioritizedRecords.get(2).getRegistry());
+    }
+
+    @Test
+    public void prioritizedMergeMatchesMergeInInputOrder() {
+        String[] registries = {"apnic", "afrinic", "arin", "ripencc", "lacnic", "iana"};
+        StatsSource[] sources = {StatsSource.ESTATS, StatsSource.IANA_REGISTRY, StatsSource.RIRSWAP};
+        String[] statuses = {"allocated", "assigned", "reserved", Record.IETF};
+        OrderedResolver resolver = new OrderedResolver("iana,e-stats,rir-swap".split(","), registries);
+        IPv4Merger merger = new IPv4Merger(resolver);
+        IPv4Merger prioritizedMerger = new IPv4Merger(resolver, prioritizedConfig(false));
+        IPv4Merger shardedMerger = new IPv4Merger(resolver, prioritizedConfig(true));
+        Random random = new Random(1);
+        for (int run = 0; run < 500; run++) {
+            List<IPv4Record> records = new ArrayList<>();
+            for (int i = 0; i < 30; i++) {
+                String status = statuses[random.nextInt(statuses.length)];
+                // only iana reserves for the IETF, any other resolves in a circle and is never merged
+                boolean ietf = Record.IETF.equals(status);
+                // around the start of 11.0.0.0/8, so the ranges cross shards
+                IPv4Record record = new IPv4Record(ietf ? StatsSource.IANA_REGISTRY : sources[random.nextInt(sources.length)],
+                        ietf ? "iana" : registries[random.nextInt(registries.length)], "NL",
+                        0x0afff800L + random.nextInt(4096), 1 + random.nextInt(1024), "", status, "");
+                records.add(record);
+                if (random.nextInt(10) == 0) {
+                    records.add(record);
+                }
+            }
+            String expected = merger.mergeToTree(records).getRecords().toString();
+            assertEquals(expected, prioritizedMerger.mergeToTree(records).getRecords().toString());
+            assertEquals(expected, shardedMerger.mergeToTree(records).getRecords().toString());
+        }
+        // a group only falls back to the input order when its claims do not resolve in priority order
+        assertTrue(prioritizedMerger.getRequeueCount() < merger.getRequeueCount());
+        assertTrue(shardedMerger.getRequeueCount() < merger.getRequeueCount());
+    }
+
     @Test
     public void testDiff() {
         assertNull(iPv4Merger.treeDiff(null, null));
@@ -166,6 +307,81 @@ public class IPv4MergerTest {
         assertTrue(deltasSame.size() == 0);
     }
 
+    @Test
+    public void testDiffJoinsOnPrefix() {
+        List<IPv4Record> previousRecords = new ArrayList<>();
+        previousRecords.add(createRecord("ripencc", "10.0.0.0", "256"));
+        previousRecords.add(createRecord("ripencc", "10.0.2.0", "256"));
+        previousRecords.add(createRecord("arin", "20.0.0.0", "256"));
+        List<IPv4Record> currentRecords = new ArrayList<>();
+        currentRecords.add(createRecord("ripencc", "10.0.0.0", "512"));
+        currentRecords.add(createRecord("apnic", "10.0.2.0", "256"));
+        currentRecords.add(createRecord("arin", "20.0.0.0", "256"));
+
+        Iterator<Delta<Ipv4Range>> deltas = iPv4Merger.diff(iPv4Merger.mergeToTree(currentRecords), iPv4Merger.mergeToTree(previousRecords));
+
+        // 10.0.0.0/23 replaces 10.0.0.0/24, in (address, prefix length) order
+        Delta<Ipv4Range> delta = deltas.next();
+        assertEquals("ripencc|NL|ipv4|10.0.0.0|512|null|null|null|e-stats", delta.getCurrent());
+        assertNull(delta.getPrevious());
+        delta = deltas.next();
+        assertNull(delta.getCurrent());
+        assertEquals("ripencc|NL|ipv4|10.0.0.0|256|null|null|null|e-stats", delta.getPrevious());
+        delta = deltas.next();
+        assertEquals("apnic|NL|ipv4|10.0.2.0|256|null|null|null|e-stats", delta.getCurrent());
+        assertEquals("ripencc|NL|ipv4|10.0.2.0|256|null|null|null|e-stats", delta.getPrevious());
+        assertFalse(deltas.hasNext());
+    }
+
+
+    @Test
+    public void testFindCovering() {
+        List<IPv4Record> inputRecords = new ArrayList<>();
+        inputRecords.add(createRecord("afrinic", "10.0.0.0", "512"));
+        inputRecords.add(createRecord("apnic", "10.0.2.0", "256"));
+        IPNode<IPv4Record> tree = iPv4Merger.mergeToTree(inputRecords);
+
+        assertEquals("10.0.0.0/23", iPv4Merger.findCovering(tree, Ipv4Range.parse("10.0.1.7/32")).getRange().toStringInCidrNotation());
+        assertEquals("10.0.0.0/23", iPv4Merger.findCovering(tree, Ipv4Range.parse("10.0.0.0/23")).getRange().toStringInCidrNotation());
+        assertEquals("apnic", iPv4Merger.findCovering(tree, Ipv4Range.parse("10.0.2.128/25")).getRegistry());
+        // no single record covers a range spanning two records, or an unclaimed range
+        assertNull(iPv4Merger.findCovering(tree, Ipv4Range.parse("10.0.1.0-10.0.2.255")));
+        assertNull(iPv4Merger.findCovering(tree, Ipv4Range.parse("10.0.3.0/24")));
+        assertNull(iPv4Merger.findCovering(tree, Ipv4Range.parse("10.0.0.0/8")));
+    }
+
+    @Test
+    public void testFindOverlapping() {
+        List<IPv4Record> inputRecords = new ArrayList<>();
+        inputRecords.add(createRecord("afrinic", "10.0.0.0", "512"));
+        inputRecords.add(createRecord("apnic", "10.0.2.0", "256"));
+        inputRecords.add(createRecord("arin", "20.0.0.0", "256"));
+        IPNode<IPv4Record> tree = iPv4Merger.mergeToTree(inputRecords);
+
+        List<IPv4Record> overlaps = iPv4Merger.findOverlapping(tree, Ipv4Range.parse("10.0.0.0/8"));
+        assertEquals(2, overlaps.size());
+        assertEquals("afrinic", overlaps.get(0).getRegistry());
+        assertEquals("apnic", overlaps.get(1).getRegistry());
+
+        // the range splits into several prefixes within the same record, which is reported once
+        overlaps = iPv4Merger.findOverlapping(tree, Ipv4Range.parse("10.0.0.1-10.0.2.0"));
+        assertEquals(2, overlaps.size());
+        assertEquals("10.0.0.0/23", overlaps.get(0).getRange().toStringInCidrNotation());
+
+        assertEquals(1, iPv4Merger.findOverlapping(tree, Ipv4Range.parse("20.0.0.5/32")).size());
+        assertTrue(iPv4Merger.findOverlapping(tree, Ipv4Range.parse("30.0.0.0/8")).isEmpty());
+    }
+
+
+    private IPv4Merger prioritizedMerger() {
+        return new IPv4Merger(resolver, prioritizedConfig(false));
+    }
+
+    private MergeConfig prioritizedConfig(boolean sharded) {
+        MergeConfig mergeConfig = new MergeConfig();
+        mergeConfig.setSharded(sharded);
+        return mergeConfig;
+    }
 
     private boolean allocationExists(List<IPv4Record> mergedRecords, String registry, String cidr) {
         return mergedRecords.stream().filter(r -> recordHasRegistryAndCidr(r, registry, cidr)).findFirst().isPresent();
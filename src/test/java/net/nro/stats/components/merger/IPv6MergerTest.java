@@ -31,6 +31,7 @@ package net.nro.stats.components.merger;
 
 import net.nro.stats.components.resolver.OrderedResolver;
 import net.nro.stats.components.parser.IPv6Record;
+import net.nro.stats.config.MergeConfig;
 import org.junit.Assert;
 import org.junit.Test;
 
@@ -119,6 +120,30 @@ public class IPv6MergerTest {
     }
 
 
+    @Test
+    public void shardedMergeMatchesSingleMerge() {
+        List<IPv6Record> inputRecords = new ArrayList<>();
+        inputRecords.add(createRecord("apnic", "2400::", "12"));
+        inputRecords.add(createRecord("arin", "2400:1::", "32"));
+        inputRecords.add(createRecord("ripencc", "2a00::", "11"));
+        inputRecords.add(createRecord("apnic", "2a10::", "32"));
+        inputRecords.add(createRecord("lacnic", "2800::", "12"));
+        IPv6Merger shardedMerger = new IPv6Merger(resolver, new MergeConfig());
+
+        List<IPv6Record> mergedRecords = merger.mergeToTree(inputRecords).getRecords();
+        List<IPv6Record> shardedRecords = shardedMerger.mergeToTree(inputRecords).getRecords();
+        Assert.assertEquals(mergedRecords.toString(), shardedRecords.toString());
+        Assert.assertEquals(24, shardedRecords.size());
+        Assert.assertTrue(allocationExists(shardedRecords, "apnic", "2a10::/32"));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void mergerRejectsUnalignedPrefix() {
+        List<IPv6Record> inputRecords = new ArrayList<>();
+        inputRecords.add(createRecord("apnic", "2001:db8:1::", "32"));
+        merger.mergeToTree(inputRecords);
+    }
+
     private boolean allocationExists(List<IPv6Record> mergedRecords, String registry, String cidr) {
         return mergedRecords.stream().filter(r -> recordHasRegistryAndCidr(r, registry, cidr)).findFirst().isPresent();
     }
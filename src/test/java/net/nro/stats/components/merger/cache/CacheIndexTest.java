@@ -0,0 +1,149 @@
+/**
+ * The BSD License
+ *
+ * Copyright (c) 2010-2016 RIPE NCC
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *   - Redistributions of source code must retain the above copyright notice,
+ *     this list of conditions and the following disclaimer.
+ *   - Redistributions in binary form must reproduce the above copyright notice,
+ *     this list of conditions and the following disclaimer in the documentation
+ *     and/or other materials provided with the distribution.
+ *   - Neither the name of the RIPE NCC nor the names of its contributors may be
+ *     used to endorse or promote products derived from this software without
+ *     specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package net.nro.stats.components.merger.cache;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class CacheIndexTest {
+
+    private static final long DAY = TimeUnit.DAYS.toMillis(1);
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private File root;
+
+    @Before
+    public void before() {
+        root = folder.getRoot();
+    }
+
+    @Test
+    public void testEntriesSurviveReload() throws Exception {
+        CacheIndex index = new CacheIndex(root, DAY, 1024);
+        long now = System.currentTimeMillis();
+        index.put(key(1), entry(key(1), "ripencc", now));
+
+        CacheIndex reloaded = new CacheIndex(root, DAY, 1024);
+        reloaded.load();
+
+        CacheIndex.Entry entry = reloaded.get(key(1));
+        assertNotNull(entry);
+        assertEquals("http://example.net/1", entry.getUri());
+        assertEquals("HTTP/1.1 200 OK", entry.getStatusLine());
+        assertEquals("text/plain", entry.getContentType());
+        assertEquals("\"v1\"", entry.getETag());
+        assertEquals(7, entry.getLength());
+        assertEquals(now, entry.getFetchTime());
+    }
+
+    @Test
+    public void testLoadDropsIncompleteFiles() throws Exception {
+        CacheIndex index = new CacheIndex(root, DAY, 1024);
+        long now = System.currentTimeMillis();
+        index.put(key(1), entry(key(1), "ripencc", now));
+        index.put(key(2), entry(key(2), "apnicxx", now));
+        // a download replaced the file but the process died before the index was written
+        write(key(2), "arin");
+        write(key(3) + CacheIndex.PARTIAL_SUFFIX, "lac");
+
+        CacheIndex reloaded = new CacheIndex(root, DAY, 1024);
+        reloaded.load();
+
+        assertNotNull(reloaded.get(key(1)));
+        assertNull(reloaded.get(key(2)));
+        assertFalse(reloaded.fileFor(key(2)).exists());
+        assertFalse(reloaded.partialFileFor(key(3)).exists());
+    }
+
+    @Test
+    public void testEvictsByAgeAndSize() throws Exception {
+        CacheIndex index = new CacheIndex(root, DAY, 16);
+        long now = System.currentTimeMillis();
+        index.put(key(1), entry(key(1), "ripencc", now - 2 * DAY));
+        index.put(key(2), entry(key(2), "apnicxx", now - 2));
+        index.put(key(3), entry(key(3), "afrinic", now - 1));
+        index.put(key(4), entry(key(4), "lacnicx", now));
+
+        assertNull(index.get(key(1)));
+        assertNull(index.get(key(2)));
+        assertNotNull(index.get(key(3)));
+        assertNotNull(index.get(key(4)));
+        assertFalse(index.fileFor(key(1)).exists());
+        assertFalse(index.fileFor(key(2)).exists());
+    }
+
+    @Test
+    public void testRevalidatedEntryIsNotEvictedForItsAge() throws Exception {
+        CacheIndex index = new CacheIndex(root, DAY, 1024);
+        long now = System.currentTimeMillis();
+        index.put(key(1), entry(key(1), "ripencc", now - 2 * DAY));
+        index.put(key(1), index.get(key(1)).revalidated(null, "Tue, 01 Mar 2016 00:00:00 GMT", now - 1));
+        index.put(key(2), entry(key(2), "apnicxx", now));
+
+        CacheIndex.Entry entry = index.get(key(1));
+        assertNotNull(entry);
+        assertEquals(now - 1, entry.getFetchTime());
+        assertEquals("\"v1\"", entry.getETag());
+        assertEquals("Tue, 01 Mar 2016 00:00:00 GMT", entry.getLastModified());
+        assertTrue(index.fileFor(key(1)).exists());
+    }
+
+    private String key(int i) {
+        return String.format("%032d", i);
+    }
+
+    private CacheIndex.Entry entry(String key, String content, long fetchTime) throws IOException {
+        File file = write(key, content);
+        return new CacheIndex.Entry("http://example.net/" + Integer.parseInt(key), "HTTP/1.1 200 OK", "text/plain",
+                "\"v1\"", null, file.length(), CacheIndex.checksum(file), fetchTime);
+    }
+
+    private File write(String name, String content) throws IOException {
+        File file = new File(root, name);
+        Files.write(file.toPath(), content.getBytes(StandardCharsets.US_ASCII));
+        return file;
+    }
+}
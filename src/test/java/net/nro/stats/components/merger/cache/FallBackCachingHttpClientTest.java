@@ -0,0 +1,149 @@
+/**
+ * The BSD License
+ *
+ * Copyright (c) 2010-2016 RIPE NCC
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *   - Redistributions of source code must retain the above copyright notice,
+ *     this list of conditions and the following disclaimer.
+ *   - Redistributions in binary form must reproduce the above copyright notice,
+ *     this list of conditions and the following disclaimer in the documentation
+ *     and/or other materials provided with the distribution.
+ *   - Neither the name of the RIPE NCC nor the names of its contributors may be
+ *     used to endorse or promote products derived from this software without
+ *     specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package net.nro.stats.components.merger.cache;
+
+import com.sun.net.httpserver.HttpServer;
+import net.nro.stats.components.HttpRetriever;
+import net.nro.stats.config.CacheConfig;
+import net.nro.stats.resources.URIContent;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class FallBackCachingHttpClientTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private HttpServer server;
+    private HttpRetriever retriever;
+    private String url;
+
+    private volatile String eTag = "\"v1\"";
+    private volatile byte[] body = "ripencc|v1".getBytes(StandardCharsets.US_ASCII);
+    private final List<String> ifNoneMatch = new ArrayList<>();
+
+    @Before
+    public void before() throws Exception {
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.createContext("/stats", exchange -> {
+            String validator = exchange.getRequestHeaders().getFirst("If-None-Match");
+            ifNoneMatch.add(validator);
+            exchange.getResponseHeaders().add("ETag", eTag);
+            exchange.getResponseHeaders().add("Content-Type", "text/plain");
+            if (eTag.equals(validator)) {
+                exchange.sendResponseHeaders(304, -1);
+            } else {
+                exchange.sendResponseHeaders(200, body.length);
+                try (OutputStream outputStream = exchange.getResponseBody()) {
+                    outputStream.write(body);
+                }
+            }
+            exchange.close();
+        });
+        server.start();
+        url = "http://127.0.0.1:" + server.getAddress().getPort() + "/stats";
+
+        retriever = createRetriever();
+    }
+
+    private HttpRetriever createRetriever() {
+        CacheConfig config = new CacheConfig();
+        config.setRoot(folder.getRoot().getAbsolutePath());
+        HttpRetriever httpRetriever = new HttpRetriever();
+        ReflectionTestUtils.setField(httpRetriever, "httpClientBuilder", new FallBackCachingHttpClient(config));
+        return httpRetriever;
+    }
+
+    @After
+    public void after() {
+        server.stop(0);
+    }
+
+    @Test
+    public void testServesCachedFileWhenNotModified() {
+        URIContent first = retriever.retrieve("ripencc", url);
+        URIContent second = retriever.retrieve("ripencc", url);
+
+        assertTrue(first.isModified());
+        assertFalse(second.isModified());
+        assertArrayEquals(body, second.getContent());
+        assertNull(ifNoneMatch.get(0));
+        assertEquals("\"v1\"", ifNoneMatch.get(1));
+    }
+
+    @Test
+    public void testFetchesAgainWhenModified() {
+        retriever.retrieve("ripencc", url);
+        eTag = "\"v2\"";
+        body = "ripencc|v2".getBytes(StandardCharsets.US_ASCII);
+
+        URIContent content = retriever.retrieve("ripencc", url);
+
+        assertTrue(content.isModified());
+        assertArrayEquals(body, content.getContent());
+        assertFalse(retriever.retrieve("ripencc", url).isModified());
+    }
+
+    @Test
+    public void testContentIsMappedFromCachedFile() {
+        URIContent content = retriever.retrieve("ripencc", url);
+
+        assertTrue(content.getBuffer().isDirect());
+        assertEquals(body.length, content.getBuffer().remaining());
+    }
+
+    @Test
+    public void testCacheSurvivesRestart() {
+        retriever.retrieve("ripencc", url);
+
+        URIContent content = createRetriever().retrieve("ripencc", url);
+        assertFalse(content.isModified());
+        assertEquals("\"v1\"", ifNoneMatch.get(1));
+
+        server.stop(0);
+        assertArrayEquals(body, createRetriever().retrieve("ripencc", url).getContent());
+    }
+}
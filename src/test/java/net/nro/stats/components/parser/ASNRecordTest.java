@@ -29,14 +29,11 @@
  */
 package net.nro.stats.components.parser;
 
-import net.nro.stats.components.CSVRecordUtil;
+import net.nro.stats.components.LineTokenizerUtil;
 import net.ripe.commons.ip.Asn;
 import net.ripe.commons.ip.AsnRange;
-import org.apache.commons.csv.CSVRecord;
 import org.junit.Test;
 
-import java.io.StringReader;
-
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertTrue;
 
@@ -44,24 +41,24 @@ public class ASNRecordTest {
 
     @Test
     public void testFits() throws Exception {
-        Iterable<CSVRecord> lines = CSVRecordUtil.read("parser/asn.txt");
-        for (CSVRecord line : lines) {
-            assertTrue(String.format("line %d should fit ASNRecord", line.getRecordNumber()), ASNRecord.fits(line));
+        LineTokenizer line = LineTokenizerUtil.read("parser/asn.txt");
+        while (line.next()) {
+            assertTrue(String.format("line %d should fit ASNRecord", line.getLineNumber()), ASNRecord.fits(line));
         }
     }
 
     @Test
     public void testValuesCorrect() throws Exception {
-        Iterable<CSVRecord> lines = CSVRecordUtil.read(new StringReader("afrinic|ZA|asn|1229|1|19910301|allocated|F36B9F4B"));
+        LineTokenizer line = LineTokenizerUtil.parse("afrinic|ZA|asn|1229|1|19910301|allocated|F36B9F4B");
 
-        for (CSVRecord line : lines) {
+        while (line.next()) {
             ASNRecord record = new ASNRecord(line, "someDate");
             assertEquals("ASNRecord not matching", record.toString(), "afrinic|ZA|asn|1229|1|19910301|assigned|F36B9F4B|e-stats");
         }
 
-        lines = CSVRecordUtil.read(new StringReader("afrinic|ZA|asn|1228|1|19910301|allocated|F36B9F4B|ext1|ext2"));
+        line = LineTokenizerUtil.parse("afrinic|ZA|asn|1228|1|19910301|allocated|F36B9F4B|ext1|ext2");
 
-        for (CSVRecord line : lines) {
+        while (line.next()) {
             ASNRecord record = new ASNRecord(line, "someDate");
             assertEquals("ASNRecord not matching", record.toString(), "afrinic|ZA|asn|1228|1|19910301|assigned|F36B9F4B|ext1|ext2|e-stats");
         }
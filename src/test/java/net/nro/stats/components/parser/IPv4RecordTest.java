@@ -29,38 +29,38 @@
  */
 package net.nro.stats.components.parser;
 
-import net.nro.stats.components.CSVRecordUtil;
+import net.nro.stats.components.LineTokenizerUtil;
 import net.ripe.commons.ip.Ipv4;
 import net.ripe.commons.ip.Ipv4Range;
-import org.apache.commons.csv.CSVRecord;
 import org.junit.Before;
 import org.junit.Test;
 
-import java.io.StringReader;
-
+import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
 import static org.junit.Assert.assertTrue;
 
 public class IPv4RecordTest {
 
     @Test
     public void testFits() throws Exception {
-        Iterable<CSVRecord> lines = CSVRecordUtil.read("parser/ipv4.txt");
-        for (CSVRecord line : lines) {
-            assertTrue(String.format("line %d should fit IPv4Record", line.getRecordNumber()), IPv4Record.fits(line));
+        LineTokenizer line = LineTokenizerUtil.read("parser/ipv4.txt");
+        while (line.next()) {
+            assertTrue(String.format("line %d should fit IPv4Record", line.getLineNumber()), IPv4Record.fits(line));
         }
     }
 
     @Test
     public void testValuesCorrect() throws Exception {
-        Iterable<CSVRecord> lines = CSVRecordUtil.read(
-                new StringReader("apnic|AU|ipv4|1.0.0.0|256|20110811|assigned|A91872ED\n" +
+        LineTokenizer line = LineTokenizerUtil.parse(
+                "apnic|AU|ipv4|1.0.0.0|256|20110811|assigned|A91872ED\n" +
                         "apnic|AU|ipv4|1.0.0.0|256|20110811|assigned|\n" +
                         "apnic|AU|ipv4|1.0.0.0|256|20110811|assigned\n" +
-                        "apnic|CN|ipv4|1.0.1.0|256|20110414|assigned|A92E1062|ext4|ext5|ext6\n"));
+                        "apnic|CN|ipv4|1.0.1.0|256|20110414|assigned|A92E1062|ext4|ext5|ext6\n");
 
 
-        for (CSVRecord line : lines) {
+        while (line.next()) {
             IPv4Record record = new IPv4Record(line, "someDate");
             assertEquals("IPv4Record field not correct: registry", line.get(0), record.getRegistry());
             assertEquals("IPv4Record field not correct: countryCode", line.get(1), record.getCountryCode());
@@ -74,12 +74,20 @@ public class IPv4RecordTest {
 
                 assertEquals("IPv4Record: number of extensions does not match line", line.size() - 8, record.getExtensions().length);
                 for (int i = 0; i < record.getExtensions().length; i++) {
-                    assertEquals(String.format("extension %d does not match on line %d", i, line.getRecordNumber()), record.getExtensions()[i], line.get(i + 8));
+                    assertEquals(String.format("extension %d does not match on line %d", i, line.getLineNumber()), record.getExtensions()[i], line.get(i + 8));
                 }
             }
         }
     }
 
+    @Test
+    public void testStartIsWrittenInCanonicalForm() throws Exception {
+        LineTokenizer line = LineTokenizerUtil.parse("apnic|AU|ipv4|001.000.010.000|256|20110811|assigned|A91872ED");
+        while (line.next()) {
+            assertEquals("apnic|AU|ipv4|1.0.10.0|256|20110811|assigned|A91872ED|e-stats", new IPv4Record(line, "someDate").toString());
+        }
+    }
+
     @Test
     public void testIpRangeConversion() throws Exception {
         IPv4Record record1 = new IPv4Record("", "", "0.0.0.0", "1", "", "", "");
@@ -92,4 +100,34 @@ public class IPv4RecordTest {
         assertEquals("", Ipv4Range.from(Ipv4.of("192.168.0.0")).to(Ipv4.of("192.168.3.255")), record3.getRange());
 
     }
-}
\ No newline at end of file
+
+    @Test
+    public void testCloneKeepsFields() throws Exception {
+        IPv4Record record = new IPv4Record("apnic", "AU", "1.0.0.0", "256", "20110811", "assigned", "A91872ED", "ext1");
+        IPv4Record clone = record.clone(Ipv4Range.parse("1.0.0.128/25"));
+        assertEquals("apnic|AU|ipv4|1.0.0.128|128|20110811|assigned|A91872ED|ext1|e-stats", clone.toString());
+        assertEquals(0x01000080L, clone.getStartAddress());
+        assertEquals(128L, clone.getAddressCount());
+    }
+
+    @Test
+    public void testIsSameAs() throws Exception {
+        IPv4Record record = new IPv4Record("apnic", "AU", "1.0.0.0", "256", "20110811", "assigned", "A91872ED", "e1");
+        assertTrue(record.isSameAs(new IPv4Record("apnic", "AU", "1.0.0.0", "256", "20110811", "assigned", "A91872ED", "e1")));
+        assertFalse(record.isSameAs(new IPv4Record("apnic", "AU", "1.0.0.0", "512", "20110811", "assigned", "A91872ED", "e1")));
+        assertFalse(record.isSameAs(new IPv4Record("apnic", "AU", "1.0.0.0", "256", "20110812", "assigned", "A91872ED", "e1")));
+        assertFalse(record.isSameAs(new IPv4Record("apnic", "AU", "1.0.0.0", "256", "20110811", "assigned", "A91872ED", "e2")));
+        assertFalse(record.isSameAs(new ASNRecord("apnic", "AU", "1", "256", "20110811", "assigned", "A91872ED", "e1")));
+    }
+
+    @Test
+    public void testRangeAndPrefixesAreMemoized() throws Exception {
+        IPv4Record record = new IPv4Record("apnic", "AU", "1.0.0.128", "384", "20110811", "assigned", "A91872ED");
+        assertSame(record.getRange(), record.getRange());
+        assertSame(record.getPrefixes(), record.getPrefixes());
+        assertArrayEquals(new long[]{0x01000080L << 8 | 25, 0x01000100L << 8 | 24}, record.getPrefixes());
+
+        Ipv4Range range = Ipv4Range.parse("1.0.1.0/24");
+        assertSame(range, record.clone(range).getRange());
+    }
+}
@@ -29,15 +29,12 @@
  */
 package net.nro.stats.components.parser;
 
-import net.nro.stats.components.CSVRecordUtil;
+import net.nro.stats.components.LineTokenizerUtil;
 import net.ripe.commons.ip.Ipv6;
 import net.ripe.commons.ip.Ipv6Range;
-import org.apache.commons.csv.CSVRecord;
 import org.junit.Before;
 import org.junit.Test;
 
-import java.io.StringReader;
-
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertTrue;
 
@@ -45,29 +42,39 @@ public class IPv6RecordTest {
 
     @Test
     public void testFits() throws Exception {
-        Iterable<CSVRecord> lines = CSVRecordUtil.read("parser/ipv6.txt");
-        for (CSVRecord line : lines) {
-            assertTrue(String.format("line %d should fit IPv6Record", line.getRecordNumber()), IPv6Record.fits(line));
+        LineTokenizer line = LineTokenizerUtil.read("parser/ipv6.txt");
+        while (line.next()) {
+            assertTrue(String.format("line %d should fit IPv6Record", line.getLineNumber()), IPv6Record.fits(line));
         }
     }
 
     @Test
     public void testValuesCorrect() throws Exception {
-        Iterable<CSVRecord> lines = CSVRecordUtil.read(
-                new StringReader("afrinic|ZA|ipv6|2001:4200::|32|20051021|assigned|F36B9F4B|ext7"));
-        for (CSVRecord line : lines) {
+        LineTokenizer line = LineTokenizerUtil.parse(
+                "afrinic|ZA|ipv6|2001:4200::|32|20051021|assigned|F36B9F4B|ext7");
+        while (line.next()) {
             IPv6Record record = new IPv6Record(line, "someDate");
             assertEquals("IPv6Record not equal", "afrinic|ZA|ipv6|2001:4200::|32|20051021|assigned|F36B9F4B|ext7|e-stats", record.toString());
         }
 
-        lines = CSVRecordUtil.read(
-                new StringReader("afrinic|ZZ|ipv6|2001:4201::|32||reserved|"));
-        for (CSVRecord line : lines) {
+        line = LineTokenizerUtil.parse(
+                "afrinic|ZZ|ipv6|2001:4201::|32||reserved|");
+        while (line.next()) {
             IPv6Record record = new IPv6Record(line, "someDate");
             assertEquals("IPv6Record not equal", "afrinic|ZZ|ipv6|2001:4201::|32|someDate|reserved||e-stats", record.toString());
         }
     }
 
+    @Test
+    public void testStartIsWrittenInCanonicalForm() throws Exception {
+        LineTokenizer line = LineTokenizerUtil.parse("afrinic|ZA|ipv6|2001:4200:0000:0000:0000:0000:0000:0000|32|20051021|assigned|F36B9F4B\n" +
+                "afrinic|ZA|ipv6|2001:DB8::|32|20051021|assigned|F36B9F4B\n");
+        line.next();
+        assertEquals("afrinic|ZA|ipv6|2001:4200::|32|20051021|assigned|F36B9F4B|e-stats", new IPv6Record(line, "someDate").toString());
+        line.next();
+        assertEquals("afrinic|ZA|ipv6|2001:db8::|32|20051021|assigned|F36B9F4B|e-stats", new IPv6Record(line, "someDate").toString());
+    }
+
     @Test
     public void testIpRangeConversion() throws Exception {
         IPv6Record record1 = new IPv6Record("", "", "1::", "128", "", "", "");
@@ -77,4 +84,14 @@ public class IPv6RecordTest {
         assertEquals("", record2.getRange(), Ipv6Range.from(Ipv6.of("1::")).to(Ipv6.of("1::1")));
 
     }
-}
\ No newline at end of file
+
+    @Test
+    public void addressNotationMatchesLibrary() {
+        String[] addresses = {"::", "::1", "1::", "2001:db8::", "2001:DB8:0:0:1:0:0:1", "1:0:1:0:0:1:0:0",
+                "0:0:1:0:0:0:1:1", "1:0:1:1:1:1:1:1", "ffff:ffff:ffff:ffff:ffff:ffff:ffff:ffff", "::ffff:1.2.3.4"};
+        for (String address : addresses) {
+            long[] value = IPv6Record.parseAddress(address);
+            assertEquals(address, Ipv6.of(address).toString(), IPv6Record.formatAddress(value[0], value[1]));
+        }
+    }
+}
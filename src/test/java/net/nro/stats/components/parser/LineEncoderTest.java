@@ -0,0 +1,100 @@
+/**
+ * The BSD License
+ *
+ * Copyright (c) 2010-2016 RIPE NCC
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *   - Redistributions of source code must retain the above copyright notice,
+ *     this list of conditions and the following disclaimer.
+ *   - Redistributions in binary form must reproduce the above copyright notice,
+ *     this list of conditions and the following disclaimer in the documentation
+ *     and/or other materials provided with the distribution.
+ *   - Neither the name of the RIPE NCC nor the names of its contributors may be
+ *     used to endorse or promote products derived from this software without
+ *     specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package net.nro.stats.components.parser;
+
+import net.nro.stats.resources.StatsSource;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.charset.CharacterCodingException;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+
+public class LineEncoderTest {
+
+    @Test
+    public void testEncodesLinesAsToString() throws Exception {
+        List<Line> lines = Arrays.asList(
+                new Header("2.3", "nro", "20160301", "0", "20160301", null, "+0100"),
+                new Summary("nro", "asn", "12"),
+                new ASNRecord("apnic", "AU", "4294967295", "1", "20110811", "assigned", "A91872ED"),
+                new ASNRecord(StatsSource.NRO, "arin", "US", "0", "65536", null, "reserved", "", "e1", "e2"),
+                new IPv4Record("apnic", "AU", "0.0.0.0", "256", "20110811", "assigned", "A91872ED"),
+                new IPv4Record(StatsSource.RIRSWAP, "ripencc", "ZZ", "255.255.255.0", "256", "", "available", null),
+                new IPv6Record("afrinic", "ZA", "::", "8", "20110811", "assigned", "F36B9F4B"),
+                new IPv6Record("ripencc", "NL", "2001:db8::", "32", "20110811", "assigned", "x"),
+                new IPv6Record("ripencc", "NL", "2001:0:0:1::", "64", "20110811", "assigned", "x"),
+                new IPv6Record("ripencc", "NL", "2001:0:1:0:0:1::", "96", "20110811", "assigned", "x"),
+                new IPv6Record("ripencc", "NL", "2001:db8:1:2:3:4:5:6", "128", "20110811", "assigned", "x"),
+                new IPv6Record("ripencc", "NL", "ffff::1", "128", "20110811", "assigned", "x"));
+
+        StringBuilder expected = new StringBuilder();
+        for (Line line : lines) {
+            expected.append(line.toString()).append(System.lineSeparator());
+        }
+        // a small buffer makes the lines straddle flushes
+        assertEquals(expected.toString(), encode(lines, 7, StandardCharsets.US_ASCII));
+        assertEquals(expected.toString(), encode(lines, 1 << 16, StandardCharsets.UTF_8));
+    }
+
+    @Test
+    public void testEncodesNumbers() throws Exception {
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        LineEncoder encoder = new LineEncoder(Channels.newChannel(output), ByteBuffer.allocate(16), StandardCharsets.US_ASCII);
+        encoder.append(0L).append(' ').append(-42L).append(' ').append(Long.MAX_VALUE).append(' ').append(Long.MIN_VALUE).append(' ')
+                .appendHex(0).append(' ').appendHex(0xf).append(' ').appendHex(0x10).append(' ').appendHex(0xffff);
+        encoder.flush();
+        assertEquals("0 -42 9223372036854775807 -9223372036854775808 0 f 10 ffff", output.toString("US-ASCII"));
+    }
+
+    @Test(expected = CharacterCodingException.class)
+    public void testRejectsUnmappableCharacters() throws Exception {
+        LineEncoder encoder = new LineEncoder(Channels.newChannel(new ByteArrayOutputStream()), ByteBuffer.allocate(16), StandardCharsets.US_ASCII);
+        encoder.append("café");
+    }
+
+    private String encode(List<Line> lines, int bufferSize, Charset charset) throws IOException {
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        LineEncoder encoder = new LineEncoder(Channels.newChannel(output), ByteBuffer.allocateDirect(bufferSize), charset);
+        for (Line line : lines) {
+            line.encode(encoder);
+            encoder.newLine();
+        }
+        encoder.flush();
+        return output.toString(charset.name());
+    }
+}
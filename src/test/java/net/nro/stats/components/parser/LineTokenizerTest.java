@@ -0,0 +1,110 @@
+/**
+ * The BSD License
+ *
+ * Copyright (c) 2010-2016 RIPE NCC
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *   - Redistributions of source code must retain the above copyright notice,
+ *     this list of conditions and the following disclaimer.
+ *   - Redistributions in binary form must reproduce the above copyright notice,
+ *     this list of conditions and the following disclaimer in the documentation
+ *     and/or other materials provided with the distribution.
+ *   - Neither the name of the RIPE NCC nor the names of its contributors may be
+ *     used to endorse or promote products derived from this software without
+ *     specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package net.nro.stats.components.parser;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.Assert.*;
+
+public class LineTokenizerTest {
+
+    private Charset charset = StandardCharsets.US_ASCII;
+
+    @Test
+    public void testSkipsCommentsAndEmptyLines() {
+        LineTokenizer line = tokenize("# comment|with|fields\n\n   \r\nripencc|NL|asn|3333|1\r\n#\n", '|');
+        assertTrue(line.next());
+        assertEquals(4, line.getLineNumber());
+        assertEquals(5, line.size());
+        assertEquals("3333", line.get(3));
+        assertFalse(line.next());
+        assertEquals(0, line.size());
+    }
+
+    @Test
+    public void testKeepsEmptyFieldsAndTrimsSpaces() {
+        LineTokenizer line = tokenize("afrinic| ZZ |ipv6|2001:4201::|32||reserved|", '|');
+        assertTrue(line.next());
+        assertEquals(8, line.size());
+        assertEquals("ZZ", line.get(1));
+        assertTrue(line.fieldEquals(2, "ipv6"));
+        assertFalse(line.fieldEquals(2, "ipv4"));
+        assertFalse(line.fieldEquals(2, "ipv"));
+        assertTrue(line.isEmpty(5));
+        assertTrue(line.isEmpty(7));
+        assertEquals("afrinic| ZZ |ipv6|2001:4201::|32||reserved|", line.toString());
+    }
+
+    @Test
+    public void testSpaceDelimitedLines() {
+        LineTokenizer line = tokenize("# RIPE to afrinic\n62.12.96.0 19 8192 62.12.127.255 afrinic\n", ' ');
+        assertTrue(line.next());
+        assertEquals(5, line.size());
+        assertEquals("62.12.96.0", line.get(0));
+        assertEquals("afrinic", line.get(4));
+        assertFalse(line.next());
+    }
+
+    @Test
+    public void testReadsDirectBuffers() {
+        byte[] bytes = "2.3|apnic|20160101|3|19830613|20160101|+1000\n".getBytes(charset);
+        ByteBuffer buffer = ByteBuffer.allocateDirect(bytes.length);
+        buffer.put(bytes).flip();
+        LineTokenizer line = new LineTokenizer(buffer, '|', charset);
+        assertTrue(line.next());
+        assertTrue(Header.fits(line));
+        assertEquals("+1000", line.get(6));
+    }
+
+    @Test
+    public void testSharesRepeatingFields() {
+        LineTokenizer line = tokenize("apnic|AU|asn|1|1|20110811|assigned|A91872ED\napnic|JP|asn|2|1|20110811|assigned|A91872ED\n", '|');
+        line.next();
+        String date = line.getShared(5);
+        line.next();
+        assertSame(date, line.getShared(5));
+        assertNotSame(line.get(7), line.get(7));
+    }
+
+    @Test(expected = ArrayIndexOutOfBoundsException.class)
+    public void testRejectsMissingFields() {
+        LineTokenizer line = tokenize("apnic|AU", '|');
+        line.next();
+        line.get(2);
+    }
+
+    private LineTokenizer tokenize(String content, char delimiter) {
+        return new LineTokenizer(ByteBuffer.wrap(content.getBytes(charset)), delimiter, charset);
+    }
+}
@@ -42,6 +42,7 @@ import java.net.URL;
 import java.nio.charset.Charset;
 import java.util.List;
 
+import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertTrue;
 
 public class ParserTest {
@@ -75,6 +76,17 @@ public class ParserTest {
         testFileAndAssertLineCount("parser/file_complete.txt", 10, "Does not parse file with everything mixed correctly");
     }
 
+    @Test
+    public void testParseRirSwaps() throws IOException {
+        byte[] bytes = bytesRetriever.retrieveBytes("src/test/resources/rirswap.txt");
+        ParsedRIRStats swaps = sut.parseRIRSwaps(StatsSource.RIRSWAP, new URIContent("rir-swap", bytes));
+        List<IPv4Record> records = swaps.getIpv4Records();
+        assertEquals(19, records.size());
+        assertEquals(20, swaps.getLineCount());
+        assertEquals("afrinic|ZZ|ipv4|62.12.96.0|8192|" + new DateTimeProvider().today() + "|available|null|rir-swap",
+                records.get(0).toString());
+    }
+
     private void testFileAndAssertLineCount(String filePath, int expectedRows, String message) throws IOException {
         URL testFile = this.getClass().getClassLoader().getResource(filePath);
         assert testFile != null;
@@ -29,7 +29,6 @@
  */
 package net.nro.stats.components.parser;
 
-import org.apache.commons.csv.CSVRecord;
 import org.junit.Before;
 import org.junit.Test;
 
@@ -44,14 +43,15 @@ public class SummaryTest extends LineTestBase {
 
     @Test
     public void testFits() throws Exception {
-        for(CSVRecord line : lines) {
-            assertTrue(String.format("line %d should fit Summary", line.getRecordNumber()), Summary.fits(line));
+        while (lines.next()) {
+            assertTrue(String.format("line %d should fit Summary", lines.getLineNumber()), Summary.fits(lines));
         }
     }
 
     @Test
     public void testValuesCorrect() throws Exception {
-        CSVRecord line1 = lines.iterator().next();
+        LineTokenizer line1 = lines;
+        line1.next();
         Summary summary1 = new Summary(line1);
         assertTrue("Summary field not correct: registry", line1.get(0).equals(summary1.getRegistry()));
         assertTrue("Summary field not correct: type", line1.get(2).equals(summary1.getType()));
@@ -31,30 +31,49 @@ package net.nro.stats.services;
 
 import net.nro.stats.components.*;
 import net.nro.stats.components.merger.ASNIntervalTree;
-import net.nro.stats.components.merger.Delta;
+import net.nro.stats.components.merger.DeltaIndex;
 import net.nro.stats.components.merger.IPNode;
 import net.nro.stats.components.parser.Parser;
+import net.nro.stats.components.resolver.Resolver;
 import net.nro.stats.config.ExtendedInputConfig;
 import net.nro.stats.config.ExtendedOutputConfig;
 import net.nro.stats.resources.MergedStats;
 import net.nro.stats.resources.ParsedRIRStats;
+import net.nro.stats.resources.StatsSource;
+import net.nro.stats.resources.URIContent;
 import org.junit.After;
 import org.junit.Before;
 import org.junit.Test;
 import org.junit.runner.RunWith;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Captor;
 import org.mockito.InjectMocks;
 import org.mockito.Mock;
 import org.mockito.Spy;
 import org.mockito.runners.MockitoJUnitRunner;
+import org.springframework.boot.actuate.metrics.GaugeService;
 
 import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.stream.Stream;
 
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertSame;
 import static org.junit.Assert.assertTrue;
 import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyDouble;
 import static org.mockito.Matchers.anyListOf;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Matchers.eq;
 import static org.mockito.Mockito.*;
 
 @RunWith(MockitoJUnitRunner.class)
@@ -80,9 +99,27 @@ public class NroStatsServiceTest {
     @Mock
     StatsWriter writer;
 
+    @Mock
+    SnapshotStore snapshots;
+
+    @Mock
+    Resolver resolver;
+
+    @Mock
+    GaugeService gaugeService;
+
     @Spy
     URIContentRetriever uriContentRetriever = new URIContentRetriever(new FileRetriever(), new HttpRetriever());
 
+    @Captor
+    ArgumentCaptor<Map<String, Long>> reports;
+
+    @Captor
+    ArgumentCaptor<Map<String, String>> inputs;
+
+    @Captor
+    ArgumentCaptor<List<ParsedRIRStats>> merged;
+
     @InjectMocks
     NroStatsService nroStatsService;
 
@@ -96,8 +133,8 @@ public class NroStatsServiceTest {
         extendedInputConfig.setSwaps("src/test/resources/rirswap.txt");
         MergedStats nroStats = new MergedStats();
         nroStats.setAsns(new ASNIntervalTree());
-        nroStats.setIpv4s(new IPNode<>(null));
-        nroStats.setIpv6s(new IPNode<>(null));
+        nroStats.setIpv4s(new IPNode<>());
+        nroStats.setIpv6s(new IPNode<>());
         when(recordsMerger.merge(anyListOf(ParsedRIRStats.class))).thenReturn(nroStats);
         extendedOutputConfig.setFolder("src/test/resources");
         extendedOutputConfig.setFile("it-delegated-extended");
@@ -112,14 +149,200 @@ public class NroStatsServiceTest {
         verify(writer).write(any());
     }
 
+    @Test
+    public void testGenerateReportsEveryPhase() throws Exception {
+        when(resolver.getConflictCount()).thenReturn(3L, 5L);
+
+        nroStatsService.generate();
+
+        verify(writer).writeReport(reports.capture());
+        Map<String, Long> report = reports.getValue();
+        for (String source : new String[]{"ripencc", "apnic", "iana", "rir-swap"}) {
+            assertTrue(report.get("fetch." + source + ".bytes") > 0);
+            assertTrue(report.containsKey("fetch." + source + ".duration.ms"));
+            assertTrue(report.get("parse." + source + ".lines") > 0);
+            assertTrue(report.containsKey("parse." + source + ".records.ipv4"));
+        }
+        assertTrue(report.containsKey("preprocess.iana.duration.ms"));
+        assertEquals(2L, (long) report.get("merge.conflicts"));
+        assertEquals(0L, (long) report.get("output.records.asn"));
+        for (String phase : new String[]{"merge", "convert", "write", "snapshot", "generate"}) {
+            assertTrue(report.containsKey(phase + ".duration.ms"));
+        }
+        verify(gaugeService).submit(eq("nro.stats.merge.conflicts"), eq(2.0));
+        verify(gaugeService).submit(eq("nro.stats.generate.duration.ms"), anyDouble());
+    }
+
+    @Test
+    public void testGenerateSkippingUnchangedInputsOnlyPublishesFetches() throws Exception {
+        nroStatsService.generate();
+        verify(writer).writeInputs(inputs.capture());
+        when(writer.readInputs()).thenReturn(inputs.getValue());
+        reset(gaugeService);
+
+        nroStatsService.generate();
+
+        verify(writer, times(1)).writeReport(any());
+        verify(gaugeService).submit(eq("nro.stats.fetch.apnic.duration.ms"), anyDouble());
+        verify(gaugeService, never()).submit(eq("nro.stats.merge.duration.ms"), anyDouble());
+    }
+
+    @Test
+    public void testGenerateReusesUnmodifiedSource() throws Exception {
+        String url = "http://example.net/ripencc.test.delegated.stats.txt";
+        extendedInputConfig.getRir().put("ripencc", url);
+        URIContent content = new URIContent("ripencc",
+                Files.readAllBytes(Paths.get("src/test/resources/ripencc.test.delegated.stats.txt")), false);
+        doReturn(content).when(uriContentRetriever).fetch("ripencc", url);
+
+        nroStatsService.generate();
+        nroStatsService.generate();
+
+        verify(parser, times(1)).parseRirStats(StatsSource.ESTATS, content);
+        verify(writer, times(2)).write(any());
+    }
+
+    @Test
+    public void testGenerateSkipsUnchangedInputs() throws Exception {
+        nroStatsService.generate();
+        verify(writer).writeInputs(inputs.capture());
+        assertEquals(6, inputs.getValue().size());
+        reset(parser);
+        when(writer.readInputs()).thenReturn(inputs.getValue());
+
+        nroStatsService.generate();
+
+        verify(writer, times(1)).write(any());
+        verify(recordsMerger, times(1)).merge(anyListOf(ParsedRIRStats.class));
+        verify(parser, never()).parseRirStats(any(), any());
+    }
+
+    @Test
+    public void testGenerateRegeneratesWhenConfigChanges() throws Exception {
+        nroStatsService.registryOrder = new String[]{"ripencc", "apnic"};
+        nroStatsService.generate();
+        verify(writer).writeInputs(inputs.capture());
+        Map<String, String> previousInputs = inputs.getValue();
+        when(writer.readInputs()).thenReturn(previousInputs);
+
+        nroStatsService.registryOrder = new String[]{"apnic", "ripencc"};
+        nroStatsService.generate();
+
+        verify(writer, times(2)).write(any());
+        verify(writer, times(2)).writeInputs(inputs.capture());
+        assertNotEquals(previousInputs.get("config"), inputs.getValue().get("config"));
+    }
+
+    @Test
+    public void testGenerateMergesInConfiguredOrder() throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        nroStatsService.fetchExecutor = executor;
+        nroStatsService.parseExecutor = executor;
+        List<String> expected = new ArrayList<>(extendedInputConfig.getRir().keySet());
+        expected.add("iana");
+        expected.add("rir-swap");
+        // the first source arrives last
+        String first = expected.get(0);
+        doAnswer(invocation -> {
+            Thread.sleep(200);
+            return invocation.callRealMethod();
+        }).when(uriContentRetriever).fetch(eq(first), anyString());
+
+        try {
+            nroStatsService.generate();
+        } finally {
+            executor.shutdown();
+        }
+
+        verify(recordsMerger).merge(merged.capture());
+        List<String> identifiers = new ArrayList<>();
+        for (ParsedRIRStats stats : merged.getValue()) {
+            identifiers.add(stats.getRir());
+        }
+        assertEquals(expected, identifiers);
+    }
+
     @Test
     public void testDifferences() throws Exception {
         when(recordsMerger.merge(anyListOf(ParsedRIRStats.class))).thenReturn(mock(MergedStats.class));
-        List<Delta<?>> differences = nroStatsService.getDifferences();
+        when(recordsMerger.differences(any(), any())).thenReturn(Stream.empty());
+        DeltaIndex differences = nroStatsService.getDifferences();
         verify(recordsMerger, times(2)).merge(anyListOf(ParsedRIRStats.class));
         assertTrue("differences should not come when it is same", differences.size() == 0);
     }
 
+    @Test
+    public void testDifferencesFromSnapshots() throws Exception {
+        MergedStats stats = mock(MergedStats.class);
+        when(snapshots.read(anyString(), anyString())).thenReturn(stats);
+        when(recordsMerger.differences(any(), any())).thenReturn(Stream.empty());
+
+        nroStatsService.getDifferences();
+
+        verify(parser, never()).parseNroStats(any());
+        verify(recordsMerger, never()).merge(anyListOf(ParsedRIRStats.class));
+        verify(recordsMerger).differences(stats, stats);
+        verify(snapshots, never()).write(anyString(), anyString(), any());
+    }
+
+    @Test
+    public void testGenerateSnapshotsOutput() throws Exception {
+        extendedOutputConfig.setPrevious(extendedOutputConfig.getPreviousFileLink());
+
+        nroStatsService.generate();
+
+        verify(snapshots).rename("current", "previous");
+        verify(snapshots).write(eq("current"), anyString(), any(MergedStats.class));
+    }
+
+    @Test
+    public void testGenerateKeepsSnapshotOfOtherPreviousFile() throws Exception {
+        String url = "https://www.nro.net/wp-content/uploads/apnic-uploads/delegated-extended";
+        extendedOutputConfig.setPrevious(url);
+        List<String> lines = Files.readAllLines(Paths.get("src/test/resources/it-delegated-extended"), StandardCharsets.US_ASCII);
+        byte[] previous = String.join("\n", lines.subList(0, lines.size() - 1)).getBytes(StandardCharsets.US_ASCII);
+        doAnswer(invocation -> new URIContent("previous", previous)).when(uriContentRetriever).fetch("previous", url);
+        // the snapshots only remember which file they were made from
+        Map<String, String> fingerprints = new HashMap<>();
+        doAnswer(invocation -> fingerprints.put((String) invocation.getArguments()[0], (String) invocation.getArguments()[1]))
+                .when(snapshots).write(anyString(), anyString(), any());
+        doAnswer(invocation -> fingerprints.put((String) invocation.getArguments()[1], fingerprints.remove(invocation.getArguments()[0])))
+                .when(snapshots).rename(anyString(), anyString());
+        when(snapshots.read(anyString(), anyString())).thenAnswer(invocation ->
+                invocation.getArguments()[1].equals(fingerprints.get(invocation.getArguments()[0])) ? mock(MergedStats.class) : null);
+        when(recordsMerger.differences(any(), any())).thenAnswer(invocation -> Stream.empty());
+
+        nroStatsService.generate();
+        nroStatsService.getDifferences();
+        nroStatsService.generate();
+        nroStatsService.getDifferences();
+
+        verify(parser, times(1)).parseNroStats(any());
+        verify(snapshots, never()).rename(anyString(), anyString());
+    }
+
+    @Test
+    public void testCurrentStatsLoadedOnceFromSnapshot() throws Exception {
+        MergedStats stats = mock(MergedStats.class);
+        when(snapshots.read(anyString(), anyString())).thenReturn(stats);
+
+        assertSame(stats, nroStatsService.getCurrentStats());
+        assertSame(stats, nroStatsService.getCurrentStats());
+
+        verify(snapshots, times(1)).read(eq("current"), anyString());
+    }
+
+    @Test
+    public void testGenerateReplacesCurrentStats() throws Exception {
+        when(snapshots.read(anyString(), anyString())).thenReturn(mock(MergedStats.class));
+        nroStatsService.getCurrentStats();
+
+        nroStatsService.generate();
+
+        MergedStats generated = recordsMerger.merge(new ArrayList<>());
+        assertSame(generated, nroStatsService.getCurrentStats());
+    }
+
     @After
     public void cleanup() {
         reset(recordsMerger);
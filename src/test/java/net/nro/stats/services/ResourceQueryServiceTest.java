@@ -0,0 +1,120 @@
+/**
+ * The BSD License
+ *
+ * Copyright (c) 2010-2016 RIPE NCC
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *   - Redistributions of source code must retain the above copyright notice,
+ *     this list of conditions and the following disclaimer.
+ *   - Redistributions in binary form must reproduce the above copyright notice,
+ *     this list of conditions and the following disclaimer in the documentation
+ *     and/or other materials provided with the distribution.
+ *   - Neither the name of the RIPE NCC nor the names of its contributors may be
+ *     used to endorse or promote products derived from this software without
+ *     specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package net.nro.stats.services;
+
+import net.nro.stats.components.merger.ASNMerger;
+import net.nro.stats.components.merger.IPv4Merger;
+import net.nro.stats.components.merger.IPv6Merger;
+import net.nro.stats.components.parser.ASNRecord;
+import net.nro.stats.components.parser.IPv4Record;
+import net.nro.stats.components.parser.IPv6Record;
+import net.nro.stats.components.parser.Record;
+import net.nro.stats.components.resolver.OrderedResolver;
+import net.nro.stats.resources.MergedStats;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import static net.nro.stats.services.ResourceQueryService.Match.COVERING;
+import static net.nro.stats.services.ResourceQueryService.Match.OVERLAPPING;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+public class ResourceQueryServiceTest {
+
+    private OrderedResolver resolver = new OrderedResolver("iana,e-stats,rir-swap".split(","), "apnic,afrinic,arin,ripencc,lacnic".split(","));
+
+    private ResourceQueryService queryService = new ResourceQueryService();
+
+    @Before
+    public void before() {
+        queryService.iPv4Merger = new IPv4Merger(resolver);
+        queryService.iPv6Merger = new IPv6Merger(resolver);
+        MergedStats stats = new MergedStats();
+        stats.setAsns(new ASNMerger(resolver).mergeToTree(Arrays.asList(
+                new ASNRecord("ripencc", "NL", "100", "10", null, null, null),
+                new ASNRecord("arin", "US", "110", "1", null, null, null),
+                new ASNRecord("apnic", "AU", "50", "1", null, null, null))));
+        stats.setIpv4s(queryService.iPv4Merger.mergeToTree(Arrays.asList(
+                new IPv4Record("ripencc", "NL", "193.0.0.0", "2048", null, null, null),
+                new IPv4Record("arin", "US", "193.0.8.0", "256", null, null, null))));
+        stats.setIpv6s(queryService.iPv6Merger.mergeToTree(Arrays.asList(
+                new IPv6Record("ripencc", "NL", "2001:67c::", "32", null, null, null),
+                new IPv6Record("apnic", "AU", "2001:67c:2::", "48", null, null, null))));
+        queryService.statsService = mock(NroStatsService.class);
+        when(queryService.statsService.getCurrentStats()).thenReturn(stats);
+    }
+
+    @Test
+    public void testAsnLookup() {
+        assertEquals(Arrays.asList("ripencc"), registries(queryService.find("AS105", COVERING)));
+        assertEquals(Arrays.asList("ripencc"), registries(queryService.find("105", COVERING)));
+        assertTrue(queryService.find("AS60", COVERING).isEmpty());
+        assertTrue(queryService.find("AS105-AS110", COVERING).isEmpty());
+        assertEquals(Arrays.asList("apnic", "ripencc", "arin"), registries(queryService.find("AS1-AS200", OVERLAPPING)));
+    }
+
+    @Test
+    public void testIpv4Lookup() {
+        assertEquals(Arrays.asList("ripencc"), registries(queryService.find("193.0.3.1", COVERING)));
+        assertEquals(Arrays.asList("arin"), registries(queryService.find("193.0.8.0/25", COVERING)));
+        assertTrue(queryService.find("193.0.0.0/16", COVERING).isEmpty());
+        assertEquals(Arrays.asList("ripencc", "arin"), registries(queryService.find("193.0.0.0/16", OVERLAPPING)));
+        assertEquals(Arrays.asList("ripencc", "arin"), registries(queryService.find("193.0.7.0-193.0.8.10", OVERLAPPING)));
+    }
+
+    @Test
+    public void testIpv6Lookup() {
+        assertEquals(Arrays.asList("ripencc"), registries(queryService.find("2001:67c:1::1", COVERING)));
+        assertEquals(Arrays.asList("apnic"), registries(queryService.find("2001:67c:2:1::/64", COVERING)));
+        assertEquals(3, queryService.find("2001:67c::/46", OVERLAPPING).size());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testInvalidResource() {
+        queryService.find("not-a-resource", COVERING);
+    }
+
+    @Test
+    public void testNoStats() {
+        when(queryService.statsService.getCurrentStats()).thenReturn(null);
+        assertNull(queryService.find("AS1", COVERING));
+    }
+
+    private List<String> registries(List<Record<?>> records) {
+        return records.stream().map(Record::getRegistry).collect(Collectors.toList());
+    }
+}